@@ -0,0 +1,51 @@
+package net.querz.mca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether one chunk is kept, from its compressed payload: inflating it, scanning its NBT
+ * and {@link Chunk#hasContent}, which is the per-chunk work of every prune.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkDecisionBenchmark {
+
+  @Param({"LEGACY", "FLATTENED", "SEPARATED", "MODERN"})
+  public SyntheticWorld.Era era;
+
+  /** Sections per chunk; capped at the era's height. */
+  @Param({"1", "8", "24"})
+  public int sections;
+
+  private ByteBuffer payload;
+
+  @Setup
+  public void setUp() throws IOException {
+    payload = ByteBuffer.wrap(SyntheticWorld.payload(SyntheticWorld.builtChunk(era, sections), CompressionType.ZLIB));
+  }
+
+  @Benchmark
+  public boolean decide() throws IOException {
+    Chunk chunk = new Chunk(0);
+    chunk.deserialize(payload.duplicate());
+    return chunk.hasContent(null);
+  }
+}
@@ -0,0 +1,70 @@
+package net.querz.mca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/** Compresses and decompresses one chunk's NBT under each {@link CompressionType}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+  @Param({"NONE", "GZIP", "ZLIB", "LZ4"})
+  public CompressionType compression;
+
+  /** Sections of the modern chunk compressed. */
+  @Param({"1", "24"})
+  public int sections;
+
+  private byte[] nbt;
+  private byte[] compressed;
+  private final byte[] buffer = new byte[8192];
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+
+  @Setup
+  public void setUp() throws IOException {
+    nbt = SyntheticWorld.nbt(SyntheticWorld.builtChunk(SyntheticWorld.Era.MODERN, sections));
+    byte[] payload = SyntheticWorld.payload(SyntheticWorld.builtChunk(SyntheticWorld.Era.MODERN, sections), compression);
+    compressed = Arrays.copyOfRange(payload, 1, payload.length);
+  }
+
+  @Benchmark
+  public int compress() throws IOException {
+    out.reset();
+    try (OutputStream compressing = compression.compress(out)) {
+      compressing.write(nbt);
+    }
+    return out.size();
+  }
+
+  @Benchmark
+  public long decompress() throws IOException {
+    long total = 0;
+    try (InputStream in = compression.decompress(new ByteArrayInputStream(compressed))) {
+      for (int read; (read = in.read(buffer)) >= 0; ) {
+        total += read;
+      }
+    }
+    return total;
+  }
+}
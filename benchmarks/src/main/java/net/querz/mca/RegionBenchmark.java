@@ -0,0 +1,104 @@
+package net.querz.mca;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads, compacts and writes a whole region file of modern chunks on the local disk. Files are
+ * small enough to stay in the page cache, so the numbers are the code's cost rather than the disk's.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegionBenchmark {
+
+  /** Sections per chunk of the region files. */
+  private static final int SECTIONS = 8;
+
+  @State(Scope.Thread)
+  public static class Region {
+    /** Chunks in the region file, of the 1024 it can hold. */
+    @Param({"64", "256", "1024"})
+    public int chunks;
+
+    Path directory;
+    /** Packed chunks, as a run reads them. */
+    File packed;
+    /** With a free sector after every chunk, as compaction is handed them; restored before each call. */
+    File gapped;
+    byte[] gappedBytes;
+    /** {@link #packed}, decoded, to be written. */
+    MCAFile decoded;
+    File written;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      directory = Files.createTempDirectory("autopruner-bench");
+      packed = Files.write(directory.resolve("r.0.0.mca"), region(chunks, 0)).toFile();
+      gappedBytes = region(chunks, 1);
+      gapped = directory.resolve("r.1.0.mca").toFile();
+      written = directory.resolve("r.2.0.mca").toFile();
+      decoded = MCAUtil.read(packed);
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreGaps() throws IOException {
+      Files.write(gapped.toPath(), gappedBytes);
+    }
+
+    /** @return {@code chunks} kept modern chunks, with a free sector after the given share of them. */
+    private static byte[] region(int chunks, double gaps) throws IOException {
+      return new SyntheticWorld(0).sections(SECTIONS).chunksPerRegion(chunks)
+          .emptyChunks(0).blockEntities(0).entities(0).specialBiomes(0).gaps(gaps)
+          .region(0, 0, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      for (File file : new File[]{packed, gapped, written}) {
+        Files.deleteIfExists(file.toPath());
+      }
+      Files.deleteIfExists(directory);
+    }
+  }
+
+  /** Maps, loads and decodes every chunk of the file. */
+  @Benchmark
+  public MCAFile read(Region region) throws IOException {
+    return MCAUtil.read(region.packed);
+  }
+
+  /**
+   * Slides every chunk back over the free sector before it, in place. Each call is handed a freshly
+   * written gapped file; writing it is not timed.
+   */
+  @Benchmark
+  public boolean compact(Region region) throws IOException {
+    return RegionCompactor.compact(region.gapped);
+  }
+
+  /** Writes the decoded file back out; unchanged chunks are copied as their compressed bytes. */
+  @Benchmark
+  public int write(Region region) throws IOException {
+    return MCAUtil.write(region.decoded, region.written, false);
+  }
+}
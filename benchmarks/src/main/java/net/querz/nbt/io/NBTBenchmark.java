@@ -0,0 +1,81 @@
+package net.querz.nbt.io;
+
+import net.querz.mca.SyntheticWorld;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.Tag;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes and encodes one chunk's uncompressed NBT as a full tag tree, the way a chunk that has to
+ * be rewritten is read and written back; {@code decodeStream} and {@code encodeStream} are the
+ * previous decoder and encoder, for reference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NBTBenchmark {
+
+  @Param({"MODERN", "FLATTENED", "LEGACY"})
+  public SyntheticWorld.Era era;
+
+  /** Sections per chunk; capped at the era's height. */
+  @Param({"1", "8", "24"})
+  public int sections;
+
+  private byte[] nbt;
+  private NamedTag tag;
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+  private final NBTEncoder encoder = new NBTEncoder();
+
+  @Setup
+  public void setUp() throws IOException {
+    CompoundTag chunk = SyntheticWorld.builtChunk(era, sections);
+    nbt = SyntheticWorld.nbt(chunk);
+    tag = new NamedTag("", chunk);
+  }
+
+  @Benchmark
+  public NamedTag decode() throws IOException {
+    return new NBTDeserializer(false).fromStream(new ByteArrayInputStream(nbt));
+  }
+
+  /** The tag-at-a-time {@link NBTInputStream}, which {@link NBTDecoder} replaced in the deserializer. */
+  @Benchmark
+  public NamedTag decodeStream() throws IOException {
+    return new NBTInputStream(new ByteArrayInputStream(nbt)).readTag(Tag.DEFAULT_MAX_DEPTH);
+  }
+
+  /** Encodes with one encoder throughout, as a region's rewritten chunks are. */
+  @Benchmark
+  public int encode() throws IOException {
+    return encoder.encode(tag, Tag.DEFAULT_MAX_DEPTH).remaining();
+  }
+
+  /** The tag-at-a-time {@link NBTOutputStream}, which {@link NBTEncoder} replaced for chunks. */
+  @Benchmark
+  public int encodeStream() throws IOException {
+    out.reset();
+    NBTOutputStream nbtOut = new NBTOutputStream(out);
+    nbtOut.writeTag(tag, Tag.DEFAULT_MAX_DEPTH);
+    nbtOut.flush();
+    return out.size();
+  }
+}
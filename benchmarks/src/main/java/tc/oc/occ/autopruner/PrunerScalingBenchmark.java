@@ -0,0 +1,69 @@
+package tc.oc.occ.autopruner;
+
+import net.querz.mca.SyntheticWorld;
+import net.querz.mca.TestFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A dry run of {@link ThreadPoolAutoPruner} over a {@link SyntheticWorld} corpus of many small
+ * region files, by thread count. A dry run leaves the corpus as generated, so it is written once
+ * per trial; add {@code -prof gc} for the allocation of a whole run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class PrunerScalingBenchmark {
+
+  /** Region files in the corpus, spread over ten worlds, each with its entity sibling. */
+  @Param({"1000", "10000"})
+  public int files;
+
+  @Param({"1", "4", "16"})
+  public int threads;
+
+  /** Chunks per region file, of the 1024 it can hold. */
+  @Param({"16"})
+  public int chunks;
+
+  private Path corpus;
+  private ThreadPoolAutoPruner pruner;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    corpus = Files.createTempDirectory("autopruner-corpus");
+    new SyntheticWorld(0).chunksPerRegion(chunks).sections(4).writeCorpus(corpus, 10, files / 10);
+    pruner = new ThreadPoolAutoPruner(threads);
+  }
+
+  @Benchmark
+  public long dryRun() throws ExecutionException, InterruptedException {
+    return pruner.recursivelyProcessFiles(corpus.toFile(), 0, message -> { }, message -> { }, true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    pruner.close();
+    TestFiles.deleteTree(corpus);
+  }
+}
@@ -0,0 +1,244 @@
+package net.querz.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A pure-Java LZ4 block codec and the 32-bit xxHash used to checksum LZ4 blocks, enough to read
+ * and write the {@code LZ4Block} streams Minecraft stores chunks in (compression type 4) without
+ * a native library. The encoder is the single-pass greedy "fast" variant; its output is plain LZ4
+ * and decodes with any LZ4 implementation.
+ */
+public final class LZ4 {
+
+  /** A match needs at least this many bytes; its length is stored minus this. */
+  private static final int MIN_MATCH = 4;
+  /** The last sequence's literals must cover at least the final 5 bytes of a block. */
+  private static final int LAST_LITERALS = 5;
+  /** No match may start within the final 12 bytes of a block. */
+  private static final int MF_LIMIT = 12;
+  private static final int MAX_DISTANCE = 0xFFFF;
+  static final int HASH_LOG = 12;
+
+  private static final int PRIME1 = 0x9E3779B1;
+  private static final int PRIME2 = 0x85EBCA77;
+  private static final int PRIME3 = 0xC2B2AE3D;
+  private static final int PRIME4 = 0x27D4EB2F;
+  private static final int PRIME5 = 0x165667B1;
+
+  private LZ4() {
+  }
+
+  /** @return the largest size {@link #compress} may produce for {@code length} input bytes. */
+  public static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  /**
+   * Compresses {@code src[srcOff, srcOff + srcLen)} into {@code dest} as one LZ4 block.
+   *
+   * @param table Scratch hash table of {@code 1 << 12} entries; its contents are overwritten.
+   * @param dest  Must have room for {@link #maxCompressedLength(int)} bytes from {@code destOff}.
+   * @return the compressed length.
+   */
+  public static int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int[] table) {
+    int srcEnd = srcOff + srcLen;
+    int anchor = srcOff;
+    int d = destOff;
+    if (srcLen > MF_LIMIT) {
+      Arrays.fill(table, -1);
+      int matchLimit = srcEnd - LAST_LITERALS;
+      int startLimit = srcEnd - MF_LIMIT;
+      int s = srcOff;
+      while (s < startLimit) {
+        int sequence = readIntLE(src, s);
+        int h = hash(sequence);
+        int ref = table[h];
+        table[h] = s;
+        if (ref < 0 || s - ref > MAX_DISTANCE || readIntLE(src, ref) != sequence) {
+          // Step faster over incompressible data: one more byte per 64 consecutive misses.
+          s += 1 + ((s - anchor) >>> 6);
+          continue;
+        }
+        while (s > anchor && ref > srcOff && src[s - 1] == src[ref - 1]) {
+          s--;
+          ref--;
+        }
+        int matchLength = MIN_MATCH;
+        while (s + matchLength < matchLimit && src[s + matchLength] == src[ref + matchLength]) {
+          matchLength++;
+        }
+        d = writeSequence(src, anchor, s - anchor, dest, d, s - ref, matchLength);
+        s += matchLength;
+        anchor = s;
+        if (s - 2 >= srcOff && s < startLimit) {
+          table[hash(readIntLE(src, s - 2))] = s - 2;
+        }
+      }
+    }
+    return writeLastLiterals(src, anchor, srcEnd - anchor, dest, d) - destOff;
+  }
+
+  /**
+   * Decompresses the LZ4 block {@code src[srcOff, srcOff + srcLen)}, which must decode to exactly
+   * {@code destLen} bytes, into {@code dest} at {@code destOff}.
+   *
+   * @throws IOException if the block is malformed or does not decode to {@code destLen} bytes.
+   */
+  public static void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int destLen) throws IOException {
+    int s = srcOff;
+    int srcEnd = srcOff + srcLen;
+    int d = destOff;
+    int destEnd = destOff + destLen;
+    try {
+      while (true) {
+        int token = src[s++] & 0xFF;
+        int literals = token >>> 4;
+        if (literals == 0xF) {
+          int b;
+          do {
+            if (s >= srcEnd) {
+              throw malformed();
+            }
+            b = src[s++] & 0xFF;
+            literals += b;
+          } while (b == 0xFF);
+        }
+        if (literals > srcEnd - s || literals > destEnd - d) {
+          throw malformed();
+        }
+        System.arraycopy(src, s, dest, d, literals);
+        s += literals;
+        d += literals;
+        if (s == srcEnd) {
+          break; // the last sequence carries literals only
+        }
+
+        if (s > srcEnd - 2) {
+          throw malformed();
+        }
+        int offset = (src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8;
+        s += 2;
+        int matchLength = token & 0xF;
+        if (matchLength == 0xF) {
+          int b;
+          do {
+            if (s >= srcEnd) {
+              throw malformed();
+            }
+            b = src[s++] & 0xFF;
+            matchLength += b;
+          } while (b == 0xFF);
+        }
+        matchLength += MIN_MATCH;
+        int ref = d - offset;
+        if (offset == 0 || ref < destOff || matchLength > destEnd - d) {
+          throw malformed();
+        }
+        if (offset >= matchLength) {
+          System.arraycopy(dest, ref, dest, d, matchLength);
+          d += matchLength;
+        } else {
+          // Overlapping match: a run repeating the last {@code offset} bytes.
+          for (int end = d + matchLength; d < end; ) {
+            dest[d++] = dest[ref++];
+          }
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw malformed();
+    }
+    if (d != destEnd) {
+      throw malformed();
+    }
+  }
+
+  /** @return the 32-bit xxHash of {@code b[off, off + len)} with {@code seed}. */
+  public static int xxHash32(byte[] b, int off, int len, int seed) {
+    int end = off + len;
+    int h;
+    if (len >= 16) {
+      int v1 = seed + PRIME1 + PRIME2;
+      int v2 = seed + PRIME2;
+      int v3 = seed;
+      int v4 = seed - PRIME1;
+      int limit = end - 16;
+      do {
+        v1 = Integer.rotateLeft(v1 + readIntLE(b, off) * PRIME2, 13) * PRIME1;
+        v2 = Integer.rotateLeft(v2 + readIntLE(b, off + 4) * PRIME2, 13) * PRIME1;
+        v3 = Integer.rotateLeft(v3 + readIntLE(b, off + 8) * PRIME2, 13) * PRIME1;
+        v4 = Integer.rotateLeft(v4 + readIntLE(b, off + 12) * PRIME2, 13) * PRIME1;
+        off += 16;
+      } while (off <= limit);
+      h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) + Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+    } else {
+      h = seed + PRIME5;
+    }
+    h += len;
+    for (; off <= end - 4; off += 4) {
+      h = Integer.rotateLeft(h + readIntLE(b, off) * PRIME3, 17) * PRIME4;
+    }
+    for (; off < end; off++) {
+      h = Integer.rotateLeft(h + (b[off] & 0xFF) * PRIME5, 11) * PRIME1;
+    }
+    h ^= h >>> 15;
+    h *= PRIME2;
+    h ^= h >>> 13;
+    h *= PRIME3;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  static int readIntLE(byte[] b, int off) {
+    return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+  }
+
+  static void writeIntLE(byte[] b, int off, int value) {
+    b[off] = (byte) value;
+    b[off + 1] = (byte) (value >>> 8);
+    b[off + 2] = (byte) (value >>> 16);
+    b[off + 3] = (byte) (value >>> 24);
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * PRIME1) >>> (32 - HASH_LOG);
+  }
+
+  private static int writeSequence(byte[] src, int literalsOff, int literals, byte[] dest, int d,
+                                   int offset, int matchLength) {
+    int token = d++;
+    int matchCode = matchLength - MIN_MATCH;
+    d = writeLength(dest, d, literals);
+    dest[token] = (byte) (Math.min(literals, 0xF) << 4 | Math.min(matchCode, 0xF));
+    System.arraycopy(src, literalsOff, dest, d, literals);
+    d += literals;
+    dest[d++] = (byte) offset;
+    dest[d++] = (byte) (offset >>> 8);
+    return writeLength(dest, d, matchCode);
+  }
+
+  private static int writeLastLiterals(byte[] src, int literalsOff, int literals, byte[] dest, int d) {
+    int token = d++;
+    d = writeLength(dest, d, literals);
+    dest[token] = (byte) (Math.min(literals, 0xF) << 4);
+    System.arraycopy(src, literalsOff, dest, d, literals);
+    return d + literals;
+  }
+
+  /** Writes the extension bytes of a 4-bit length field that overflowed (15 or more). */
+  private static int writeLength(byte[] dest, int d, int length) {
+    if (length >= 0xF) {
+      length -= 0xF;
+      while (length >= 0xFF) {
+        dest[d++] = (byte) 0xFF;
+        length -= 0xFF;
+      }
+      dest[d++] = (byte) length;
+    }
+    return d;
+  }
+
+  private static IOException malformed() {
+    return new IOException("malformed LZ4 block");
+  }
+}
@@ -0,0 +1,179 @@
+package net.querz.io;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static net.querz.io.LZ4BlockOutputStream.CHECKSUM_MASK;
+import static net.querz.io.LZ4BlockOutputStream.CHECKSUM_SEED;
+import static net.querz.io.LZ4BlockOutputStream.HEADER_LENGTH;
+import static net.querz.io.LZ4BlockOutputStream.LEVEL_BASE;
+import static net.querz.io.LZ4BlockOutputStream.MAGIC;
+import static net.querz.io.LZ4BlockOutputStream.METHOD_LZ4;
+import static net.querz.io.LZ4BlockOutputStream.METHOD_RAW;
+
+/**
+ * Reads the {@code LZ4Block} stream format written by {@link LZ4BlockOutputStream} (and by
+ * lz4-java, which Minecraft uses), verifying each block's checksum. Reading ends at the
+ * end-of-stream marker; input that stops before it is an error.
+ */
+public class LZ4BlockInputStream extends FilterInputStream {
+
+  private final byte[] header = new byte[HEADER_LENGTH];
+  /** Pooled buffers sized for the 64 KiB blocks Minecraft writes; larger blocks get their own. */
+  private LZ4BlockOutputStream.Buffers buffers;
+  private byte[] block;
+  private byte[] compressed;
+  private int position;
+  private int length;
+  private boolean finished;
+
+  public LZ4BlockInputStream(InputStream in) {
+    super(in);
+    this.buffers = LZ4BlockOutputStream.POOL.acquire();
+    this.block = buffers.block;
+    this.compressed = buffers.compressed;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureBlock()) {
+      return -1;
+    }
+    return block[position++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureBlock()) {
+      return -1;
+    }
+    int n = Math.min(len, length - position);
+    System.arraycopy(block, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0 || !ensureBlock()) {
+      return 0;
+    }
+    int skipped = (int) Math.min(n, length - position);
+    position += skipped;
+    return skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    ensureOpen();
+    return length - position;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (buffers != null) {
+      LZ4BlockOutputStream.Buffers released = buffers;
+      buffers = null;
+      block = null;
+      compressed = null;
+      LZ4BlockOutputStream.POOL.release(released);
+      in.close();
+    }
+  }
+
+  /** @return {@code false} at the end of the stream, otherwise {@code true} with unread bytes in {@link #block}. */
+  private boolean ensureBlock() throws IOException {
+    ensureOpen();
+    while (position == length) {
+      if (finished) {
+        return false;
+      }
+      nextBlock();
+    }
+    return true;
+  }
+
+  private void nextBlock() throws IOException {
+    readFully(header, HEADER_LENGTH);
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (header[i] != MAGIC[i]) {
+        throw new IOException("invalid LZ4 block: bad magic");
+      }
+    }
+    int token = header[MAGIC.length] & 0xFF;
+    int method = token & 0xF0;
+    int maxLength = 1 << (LEVEL_BASE + (token & 0x0F));
+    int compressedLength = LZ4.readIntLE(header, MAGIC.length + 1);
+    int originalLength = LZ4.readIntLE(header, MAGIC.length + 5);
+    int checksum = LZ4.readIntLE(header, MAGIC.length + 9);
+    if ((method != METHOD_RAW && method != METHOD_LZ4) || originalLength < 0 || originalLength > maxLength
+        || compressedLength < 0 || (method == METHOD_RAW && compressedLength != originalLength)
+        || (method == METHOD_LZ4 && compressedLength > LZ4.maxCompressedLength(originalLength))) {
+      throw new IOException("invalid LZ4 block header");
+    }
+    position = 0;
+    length = 0;
+    if (originalLength == 0) {
+      if (compressedLength != 0 || checksum != 0) {
+        throw new IOException("invalid LZ4 end-of-stream block");
+      }
+      finished = true;
+      return;
+    }
+
+    if (block.length < originalLength) {
+      block = new byte[originalLength];
+    }
+    if (method == METHOD_RAW) {
+      readFully(block, originalLength);
+    } else {
+      if (compressed.length < compressedLength) {
+        compressed = new byte[compressedLength];
+      }
+      readFully(compressed, compressedLength);
+      LZ4.decompress(compressed, 0, compressedLength, block, 0, originalLength);
+    }
+    if ((LZ4.xxHash32(block, 0, originalLength, CHECKSUM_SEED) & CHECKSUM_MASK) != checksum) {
+      throw new IOException("LZ4 block checksum mismatch");
+    }
+    length = originalLength;
+  }
+
+  private void readFully(byte[] b, int len) throws IOException {
+    for (int off = 0; off < len; ) {
+      int n = in.read(b, off, len - off);
+      if (n < 0) {
+        throw new EOFException("LZ4 stream ended prematurely");
+      }
+      off += n;
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (buffers == null) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
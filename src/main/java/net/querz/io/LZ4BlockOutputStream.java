@@ -0,0 +1,129 @@
+package net.querz.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the {@code LZ4Block} stream format of lz4-java's {@code LZ4BlockOutputStream}, which
+ * Minecraft uses for LZ4-compressed chunks: the data is cut into blocks of up to 64 KiB, each
+ * preceded by a 21-byte header (magic, method and block-size token, compressed and original length,
+ * and a 28-bit xxHash of the original bytes), and the stream ends with an empty block. A block
+ * LZ4 cannot shrink is stored raw.
+ */
+public class LZ4BlockOutputStream extends FilterOutputStream {
+
+  static final byte[] MAGIC = {'L', 'Z', '4', 'B', 'l', 'o', 'c', 'k'};
+  static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + 4 + 4;
+  static final int METHOD_RAW = 0x10;
+  static final int METHOD_LZ4 = 0x20;
+  /** A token's low nibble is the block size as {@code 1 << (LEVEL_BASE + level)}. */
+  static final int LEVEL_BASE = 10;
+  static final int CHECKSUM_SEED = 0x9747B28C;
+  static final int CHECKSUM_MASK = 0x0FFFFFFF;
+
+  static final int BLOCK_SIZE = 1 << 16;
+  private static final int LEVEL = 6;
+  /** Shared with {@link LZ4BlockInputStream}. */
+  static final ThreadLocalPool<Buffers> POOL = new ThreadLocalPool<>(2, Buffers::new, buffers -> { }, buffers -> { });
+
+  /** A block, the scratch space to (de)compress it and the encoder's hash table; reused per thread. */
+  static final class Buffers {
+    final byte[] block = new byte[BLOCK_SIZE];
+    final byte[] compressed = new byte[HEADER_LENGTH + LZ4.maxCompressedLength(BLOCK_SIZE)];
+    final int[] table = new int[1 << LZ4.HASH_LOG];
+  }
+
+  private Buffers buffers;
+  private int buffered;
+  private boolean finished;
+
+  public LZ4BlockOutputStream(OutputStream out) {
+    super(out);
+    this.buffers = POOL.acquire();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    if (buffered == BLOCK_SIZE) {
+      flushBlock();
+    }
+    buffers.block[buffered++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    while (len > 0) {
+      if (buffered == BLOCK_SIZE) {
+        flushBlock();
+      }
+      int n = Math.min(len, BLOCK_SIZE - buffered);
+      System.arraycopy(b, off, buffers.block, buffered, n);
+      buffered += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /** Writes the pending block and the end-of-stream marker without closing the underlying stream. */
+  public void finish() throws IOException {
+    ensureOpen();
+    if (!finished) {
+      flushBlock();
+      writeHeader(buffers.compressed, METHOD_RAW, 0, 0, 0);
+      out.write(buffers.compressed, 0, HEADER_LENGTH);
+      finished = true;
+    }
+  }
+
+  private void flushBlock() throws IOException {
+    if (buffered == 0) {
+      return;
+    }
+    byte[] compressed = buffers.compressed;
+    int checksum = LZ4.xxHash32(buffers.block, 0, buffered, CHECKSUM_SEED) & CHECKSUM_MASK;
+    int length = LZ4.compress(buffers.block, 0, buffered, compressed, HEADER_LENGTH, buffers.table);
+    if (length >= buffered) {
+      System.arraycopy(buffers.block, 0, compressed, HEADER_LENGTH, buffered);
+      writeHeader(compressed, METHOD_RAW, buffered, buffered, checksum);
+      length = buffered;
+    } else {
+      writeHeader(compressed, METHOD_LZ4, length, buffered, checksum);
+    }
+    out.write(compressed, 0, HEADER_LENGTH + length);
+    buffered = 0;
+  }
+
+  private static void writeHeader(byte[] b, int method, int compressedLength, int length, int checksum) {
+    System.arraycopy(MAGIC, 0, b, 0, MAGIC.length);
+    b[MAGIC.length] = (byte) (method | LEVEL);
+    LZ4.writeIntLE(b, MAGIC.length + 1, compressedLength);
+    LZ4.writeIntLE(b, MAGIC.length + 5, length);
+    LZ4.writeIntLE(b, MAGIC.length + 9, checksum);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (buffers != null) {
+      try {
+        finish();
+      } finally {
+        Buffers released = buffers;
+        buffers = null;
+        POOL.release(released);
+        out.close();
+      }
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (buffers == null) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
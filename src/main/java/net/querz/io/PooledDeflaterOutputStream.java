@@ -0,0 +1,94 @@
+package net.querz.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zlib stream like {@link java.util.zip.DeflaterOutputStream}, but takes its
+ * {@link Deflater} and output buffer from a per-thread pool and returns them, reset, on
+ * {@link #close()}, which finishes the compressed data and closes the underlying stream.
+ * On a virtual thread nothing is pooled: each stream creates a deflater and ends it on close.
+ */
+public class PooledDeflaterOutputStream extends FilterOutputStream {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final ThreadLocalPool<Context> POOL =
+      new ThreadLocalPool<>(4, Context::new, context -> context.deflater.reset(), context -> context.deflater.end());
+
+  private static final class Context {
+    final Deflater deflater = new Deflater();
+    final byte[] buffer = new byte[BUFFER_SIZE];
+  }
+
+  private Context context;
+
+  public PooledDeflaterOutputStream(OutputStream out) {
+    super(out);
+    this.context = POOL.acquire();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (context.deflater.finished()) {
+      throw new IOException("write beyond end of stream");
+    }
+    if (len == 0) {
+      return;
+    }
+    Deflater deflater = context.deflater;
+    deflater.setInput(b, off, len);
+    while (!deflater.needsInput()) {
+      deflate();
+    }
+  }
+
+  /** Finishes the compressed data without closing the underlying stream. */
+  public void finish() throws IOException {
+    ensureOpen();
+    Deflater deflater = context.deflater;
+    if (!deflater.finished()) {
+      deflater.finish();
+      while (!deflater.finished()) {
+        deflate();
+      }
+    }
+  }
+
+  private void deflate() throws IOException {
+    int n = context.deflater.deflate(context.buffer, 0, context.buffer.length);
+    if (n > 0) {
+      out.write(context.buffer, 0, n);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (context != null) {
+      try {
+        finish();
+      } finally {
+        Context released = context;
+        context = null;
+        POOL.release(released);
+        out.close();
+      }
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (context == null) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
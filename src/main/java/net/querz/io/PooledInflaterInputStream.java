@@ -0,0 +1,135 @@
+package net.querz.io;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a zlib stream like {@link java.util.zip.InflaterInputStream}, but takes its
+ * {@link Inflater} and input buffer from a per-thread pool and returns them, reset, on
+ * {@link #close()}. Decoding thousands of chunks then reuses a handful of native zlib contexts per
+ * thread instead of allocating one per chunk and leaving it to the cleaner.
+ *
+ * <p>A stream that is never closed simply keeps its inflater, which is released when collected.
+ * On a virtual thread nothing is pooled: each stream creates an inflater and ends it on close.</p>
+ */
+public class PooledInflaterInputStream extends FilterInputStream {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final ThreadLocalPool<Context> POOL =
+      new ThreadLocalPool<>(4, Context::new, context -> context.inflater.reset(), context -> context.inflater.end());
+
+  private static final class Context {
+    final Inflater inflater = new Inflater();
+    final byte[] buffer = new byte[BUFFER_SIZE];
+  }
+
+  private Context context;
+  private boolean eof;
+
+  public PooledInflaterInputStream(InputStream in) {
+    super(in);
+    this.context = POOL.acquire();
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (eof) {
+      return -1;
+    }
+    Inflater inflater = context.inflater;
+    try {
+      int n;
+      while ((n = inflater.inflate(b, off, len)) == 0) {
+        if (inflater.finished() || inflater.needsDictionary()) {
+          eof = true;
+          return -1;
+        }
+        if (inflater.needsInput()) {
+          fill();
+        }
+      }
+      return n;
+    } catch (DataFormatException e) {
+      String message = e.getMessage();
+      throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+    }
+  }
+
+  private void fill() throws IOException {
+    int n = in.read(context.buffer, 0, context.buffer.length);
+    if (n == -1) {
+      throw new EOFException("Unexpected end of ZLIB input stream");
+    }
+    context.inflater.setInput(context.buffer, 0, n);
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    ensureOpen();
+    byte[] scratch = new byte[(int) Math.min(Math.max(n, 0), 512)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(scratch, 0, (int) Math.min(n - skipped, scratch.length));
+      if (read == -1) {
+        break;
+      }
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  /** @return 0 once the end of the compressed data was reached, 1 before; like {@code InflaterInputStream}. */
+  @Override
+  public int available() throws IOException {
+    ensureOpen();
+    return eof ? 0 : 1;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (context != null) {
+      Context released = context;
+      context = null;
+      POOL.release(released);
+      in.close();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (context == null) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
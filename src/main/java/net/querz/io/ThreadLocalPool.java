@@ -0,0 +1,59 @@
+package net.querz.io;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A small free-list of reusable objects per thread. Objects are handed out by {@link #acquire()}
+ * and come back through {@link #release(Object)} on whichever thread finishes with them; past the
+ * capacity they are discarded instead, so a thread never holds more than a few.
+ *
+ * <p>This pays off on long-lived platform threads, such as a pool's workers. Objects still free when
+ * their thread ends are not discarded, only collected, so virtual threads, which each run one task
+ * and end, are not pooled for at all: they create an object per {@link #acquire()} and discard it on
+ * {@link #release(Object)}.</p>
+ */
+final class ThreadLocalPool<T> {
+
+  private final ThreadLocal<ArrayDeque<T>> free = ThreadLocal.withInitial(ArrayDeque::new);
+  private final int capacity;
+  private final Supplier<T> factory;
+  private final Consumer<T> reset;
+  private final Consumer<T> discard;
+
+  /**
+   * @param capacity Objects kept per thread.
+   * @param factory  Creates an object when the thread has none free.
+   * @param reset    Readies a released object for its next user.
+   * @param discard  Disposes of an object the pool has no room for.
+   */
+  ThreadLocalPool(int capacity, Supplier<T> factory, Consumer<T> reset, Consumer<T> discard) {
+    this.capacity = capacity;
+    this.factory = factory;
+    this.reset = reset;
+    this.discard = discard;
+  }
+
+  T acquire() {
+    if (Threads.isVirtual()) {
+      return factory.get();
+    }
+    T pooled = free.get().pollFirst();
+    return pooled != null ? pooled : factory.get();
+  }
+
+  void release(T object) {
+    if (Threads.isVirtual()) {
+      discard.accept(object);
+      return;
+    }
+    ArrayDeque<T> pooled = free.get();
+    if (pooled.size() < capacity) {
+      reset.accept(object);
+      pooled.addFirst(object);
+    } else {
+      discard.accept(object);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package net.querz.io;
+
+/**
+ * What kind of thread code runs on. This is the Java 8 build of the class, for JVMs without virtual
+ * threads; the JAR also carries a Java 21 build of it under {@code META-INF/versions/21}, which a
+ * Java 21+ JVM loads instead.
+ */
+public final class Threads {
+
+  private Threads() {
+  }
+
+  /** @return whether the calling thread is a virtual thread. */
+  public static boolean isVirtual() {
+    return false;
+  }
+}
@@ -1,20 +1,20 @@
 package net.querz.mca;
 
+import net.querz.io.ByteBufferInputStream;
 import net.querz.nbt.io.NBTDeserializer;
-import net.querz.nbt.io.NBTSerializer;
+import net.querz.nbt.io.NBTStreamReader;
 import net.querz.nbt.io.NamedTag;
 import net.querz.nbt.tag.CompoundTag;
 import net.querz.nbt.tag.ListTag;
-import net.querz.nbt.tag.StringTag;
 import net.querz.nbt.tag.Tag;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A single chunk within a region (.mca) file.
@@ -33,22 +33,29 @@ import java.io.RandomAccessFile;
  *   <li><b>Modern</b> (1.18 and later): no {@code Level} compound, per-section {@code block_states}
  *       and {@code biomes} palettes, entities in a separate {@code entities} region.</li>
  * </ul>
+ *
+ * <p>Those fields are gathered by a streaming {@link ChunkScan} straight off the compressed data,
+ * without building a tag tree. The compressed bytes are retained: an unchanged chunk is written
+ * back from them verbatim, and the tree is only materialized from them when a chunk has legacy
+ * empty sections to strip.</p>
  */
 public class Chunk {
 
-  /** 1.13 (17w47a): block sections switched to a palette + packed {@code BlockStates}. */
-  private static final int DV_FLATTENING = 1451;
-  /** 1.17 (20w45a): entities moved out of region chunks into a separate {@code entities} region. */
-  private static final int DV_ENTITIES_SEPARATED = 2681;
-  /** 1.18 (21w43a): {@code Level} compound removed; biomes stored per-section as a palette. */
-  private static final int DV_ROOT_LAYOUT = 2844;
-
-  private static final byte LEGACY_PLAINS_BIOME = 1;
-  private static final String DEFAULT_BIOME = "minecraft:plains";
-
   private final int lastMCAUpdate;
+  /** How the chunk was stored, and its compressed payload after the compression-type byte. */
+  private CompressionType compressionType;
+  private ByteBuffer compressedData;
   private CompoundTag data;
-  private int dataVersion;
+  private ChunkScan scan;
+  /** Uncompressed bytes of the chunk's NBT the scan read; all of them unless it stopped early. */
+  private long decodedLength;
+  /** Uncompressed size of the NBT decoded into {@link #data}; 0 while the chunk is only scanned. */
+  private long treeLength;
+  /** Time {@link #deserialize} spent inflating, and the rest of its time, spent scanning the NBT. */
+  private long inflateNanos;
+  private long parseNanos;
+  /** Time the last {@link #serialize} spent re-encoding the chunk; 0 when it copied the original bytes. */
+  private long encodeNanos;
   private boolean changesMade = false;
 
   Chunk(int lastMCAUpdate) {
@@ -58,84 +65,146 @@ public class Chunk {
   /** Wraps an already-parsed chunk tag. Intended for tests. */
   Chunk(CompoundTag data) {
     this.lastMCAUpdate = 0;
-    this.data = data;
-    init();
-  }
-
-  private void init() {
     if (data == null) {
       throw new NullPointerException("data cannot be null");
     }
-    dataVersion = data.getInt("DataVersion");
-    // Pre-flattening sections store a full block array per section, so dropping the empty ones
-    // is a meaningful space saving. Newer formats store empty sections as a one-entry air palette
-    // (a few bytes), so they are left untouched to avoid disturbing lighting/other data.
-    if (!isFlattened()) {
+    this.data = data;
+    this.scan = ChunkScan.of(data);
+    if (scan.needsLegacyStrip()) {
       stripEmptyLegacySections();
     }
   }
 
   /**
-   * Reads chunk data from a RandomAccessFile. The RandomAccessFile must already be at the correct position.
+   * Reads chunk data from a buffer holding exactly one chunk's payload: the compression-type byte
+   * followed by the compressed NBT. The buffer is retained (not copied) so the full tag can be
+   * materialized later if the chunk has to be rewritten; it must not be modified afterwards.
    *
-   * @param raf The RandomAccessFile to read the chunk data from.
+   * @param chunkData The chunk's payload, positioned at the compression-type byte.
    * @throws IOException When something went wrong during reading.
    */
-  public void deserialize(RandomAccessFile raf) throws IOException {
-    byte compressionTypeByte = raf.readByte();
-    CompressionType compressionType = CompressionType.getFromID(compressionTypeByte);
+  public void deserialize(ByteBuffer chunkData) throws IOException {
+    long start = System.nanoTime();
+    byte compressionTypeByte = chunkData.get();
+    compressionType = CompressionType.getFromID(compressionTypeByte);
     if (compressionType == null) {
       throw new IOException("invalid compression type " + compressionTypeByte);
     }
-    BufferedInputStream dis = new BufferedInputStream(compressionType.decompress(new FileInputStream(raf.getFD())));
-    readTag(dis);
+    compressedData = chunkData.slice();
+    scan = new ChunkScan();
+    CountingInputStream counted = new CountingInputStream(compressionType.decompress(new ByteBufferInputStream(compressedData.duplicate())));
+    try (NBTStreamReader reader = new NBTStreamReader(new BufferedInputStream(counted))) {
+      reader.accept(scan);
+    }
+    decodedLength = counted.count;
+    if (scan.isInvalidRoot()) {
+      throw new IOException("invalid data tag: root is not a compound");
+    }
+    // Pre-flattening sections store a full block array per section, so dropping the empty ones
+    // is a meaningful space saving. Newer formats store empty sections as a one-entry air palette
+    // (a few bytes), so they are left untouched to avoid disturbing lighting/other data.
+    if (scan.needsLegacyStrip()) {
+      data();
+      stripEmptyLegacySections();
+    }
+    inflateNanos = counted.nanos;
+    parseNanos = System.nanoTime() - start - inflateNanos;
   }
 
   /**
-   * Reads chunk data from a stream positioned at the start of the chunk's compression-type byte.
-   *
-   * @param byteArrayInputStream The stream to read the chunk data from.
-   * @throws IOException When something went wrong during reading.
+   * @return the uncompressed bytes of the chunk's NBT read while scanning it, which is all of them
+   * unless the scan could decide early, or 0 for a chunk not read from a region file.
    */
-  public void deserialize(ByteArrayInputStream byteArrayInputStream) throws IOException {
-    byte compressionTypeByte = (byte) byteArrayInputStream.read();
-    CompressionType compressionType = CompressionType.getFromID(compressionTypeByte);
-    if (compressionType == null) {
-      throw new IOException("invalid compression type " + compressionTypeByte);
-    }
-    BufferedInputStream dis = new BufferedInputStream(compressionType.decompress(byteArrayInputStream));
-    readTag(dis);
+  public long getDecodedLength() {
+    return decodedLength;
   }
 
-  private void readTag(BufferedInputStream dis) throws IOException {
-    NamedTag tag = new NBTDeserializer(false).fromStream(dis);
-    if (tag != null && tag.getTag() instanceof CompoundTag) {
+  /**
+   * @return the uncompressed size of the NBT this chunk holds decoded as a tree, standing in for the
+   * tree's size, whose arrays dominate it; 0 while the chunk is only scanned.
+   */
+  long getTreeLength() {
+    return treeLength;
+  }
+
+  /** @return the time reading this chunk spent inflating its payload. */
+  long getInflateNanos() {
+    return inflateNanos;
+  }
+
+  /** @return the time reading this chunk spent scanning (and, for legacy chunks, stripping) its NBT. */
+  long getParseNanos() {
+    return parseNanos;
+  }
+
+  /** @return the time the last {@link #serialize} spent re-encoding; 0 when it copied the original bytes. */
+  long getEncodeNanos() {
+    return encodeNanos;
+  }
+
+  /** @return the full chunk tag, parsing it from the retained compressed data on first use. */
+  private CompoundTag data() throws IOException {
+    if (data == null) {
+      NamedTag tag;
+      CountingInputStream counted = new CountingInputStream(compressionType.decompress(new ByteBufferInputStream(compressedData.duplicate())));
+      try (InputStream in = new BufferedInputStream(counted)) {
+        tag = new NBTDeserializer(false).fromStream(in);
+      }
+      treeLength = counted.count;
+      if (tag == null || !(tag.getTag() instanceof CompoundTag)) {
+        throw new IOException("invalid data tag: " + (tag == null ? "null" : tag.getClass().getName()));
+      }
       data = (CompoundTag) tag.getTag();
-      init();
-    } else {
-      throw new IOException("invalid data tag: " + (tag == null ? "null" : tag.getClass().getName()));
     }
+    return data;
   }
 
   /**
-   * Serializes this chunk to a {@code RandomAccessFile}. The raw tag is written back unchanged
-   * (apart from legacy empty-section stripping applied during reading), preserving every field
-   * regardless of the chunk's version.
+   * Serializes this chunk to a {@code RandomAccessFile}. A chunk read from a region file and left
+   * unchanged is written as its original compressed bytes, verbatim, under its original compression
+   * type. Otherwise the raw tag (with legacy empty-section stripping applied during reading) is
+   * re-encoded under the chunk's original compression type, or ZLIB for a chunk built in memory,
+   * preserving every field regardless of the chunk's version.
    *
    * @param raf The RandomAccessFile to be written to.
    * @return The amount of bytes written to the RandomAccessFile.
    * @throws IOException When something went wrong during writing.
    */
   public int serialize(RandomAccessFile raf) throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream(4096);
-    try (BufferedOutputStream nbtOut = new BufferedOutputStream(CompressionType.ZLIB.compress(baos))) {
-      new NBTSerializer(false).toStream(new NamedTag(null, data), nbtOut);
+    return serialize(raf, new ChunkEncoder());
+  }
+
+  /**
+   * Serializes this chunk like {@link #serialize(RandomAccessFile)}, re-encoding it, if it has to
+   * be, with {@code encoder}, whose buffers are reused from chunk to chunk.
+   */
+  int serialize(RandomAccessFile raf, ChunkEncoder encoder) throws IOException {
+    encodeNanos = 0;
+    if (!changesMade && compressedData != null) {
+      ByteBuffer rawData = compressedData.duplicate();
+      int length = rawData.remaining();
+      raf.writeInt(length + 1); // including the byte to store the compression type
+      raf.writeByte(compressionType.getID());
+      FileChannel channel = raf.getChannel();
+      while (rawData.hasRemaining()) {
+        channel.write(rawData);
+      }
+      return length + 5;
     }
-    byte[] rawData = baos.toByteArray();
-    raf.writeInt(rawData.length + 1); // including the byte to store the compression type
-    raf.writeByte(CompressionType.ZLIB.getID());
-    raf.write(rawData);
-    return rawData.length + 5;
+    long start = System.nanoTime();
+    CompressionType compression = compressionType == null ? CompressionType.ZLIB : compressionType;
+    ByteBuffer rawData = encoder.encode(data(), compression);
+    encodeNanos = Math.max(1, System.nanoTime() - start);
+    int length = rawData.remaining();
+    raf.writeInt(length + 1); // including the byte to store the compression type
+    raf.writeByte(compression.getID());
+    raf.write(rawData.array(), rawData.arrayOffset() + rawData.position(), length);
+    return length + 5;
+  }
+
+  /** @return the compression this chunk was stored with, or {@code null} for a chunk built in memory. */
+  public CompressionType getCompressionType() {
+    return compressionType;
   }
 
   // ---------------------------------------------------------------------------------------------
@@ -143,139 +212,20 @@ public class Chunk {
   // ---------------------------------------------------------------------------------------------
 
   /**
-   * Determines whether this chunk holds anything worth keeping.
+   * Determines whether this chunk holds anything worth keeping. The decision is made from the
+   * facts collected by {@link ChunkScan} when the chunk was read; see there for the per-format rules.
    *
    * @param entityChunk The chunk at the same index in the sibling {@code entities} region
    *                    (1.17+, where entities live in a separate file), or {@code null}.
    * @return {@code true} if the chunk should be kept, {@code false} if it can be pruned.
    */
   public boolean hasContent(Chunk entityChunk) {
-    // A chunk from a separate "entities" region: keep it iff it actually stores entities.
-    if (isEntityChunk()) {
-      return entitiesPresent(data);
-    }
-    // Anything we don't recognise as a block chunk (e.g. POI data) is left untouched.
-    if (!isBlockChunk()) {
-      return true;
-    }
-    if (hasBlockEntities()) {
-      return true;
-    }
-    if (hasBlocks()) {
-      return true;
-    }
-    if (hasSpecialBiomes()) {
-      return true;
-    }
-    if (!entitiesStoredSeparately()) {
-      return entitiesPresent(fields());
-    }
-    return entityChunk != null && entityChunk.isEntityChunk() && entitiesPresent(entityChunk.data);
+    return scan.hasContent(entityChunk == null ? null : entityChunk.scan);
   }
 
   /** @return whether this is an entity-storage chunk from a separate {@code entities} region file. */
   boolean isEntityChunk() {
-    return data.containsKey("Entities") && data.containsKey("Position")
-        && !data.containsKey("Sections") && !data.containsKey("sections")
-        && !data.containsKey("Level");
-  }
-
-  /**
-   * @return whether this looks like a normal block chunk we know how to evaluate. The section
-   * list lives at {@code sections} (root) in 1.18+ and {@code Level.Sections} before that;
-   * anything else (POI data, custom structures) is treated as unknown and never pruned.
-   */
-  private boolean isBlockChunk() {
-    if (usesRootLayout()) {
-      return childList(data, "sections") != null;
-    }
-    CompoundTag level = data.getCompoundTag("Level");
-    return level != null && childList(level, "Sections") != null;
-  }
-
-  private boolean entitiesPresent(CompoundTag container) {
-    return listSize(container, "Entities") > 0;
-  }
-
-  private boolean hasBlockEntities() {
-    return listSize(fields(), usesRootLayout() ? "block_entities" : "TileEntities") > 0;
-  }
-
-  private boolean hasBlocks() {
-    ListTag<?> sections = childList(fields(), usesRootLayout() ? "sections" : "Sections");
-    if (sections == null) {
-      return false;
-    }
-    for (Tag<?> t : sections) {
-      if (!(t instanceof CompoundTag)) {
-        continue;
-      }
-      CompoundTag section = (CompoundTag) t;
-      boolean nonEmpty = isFlattened() ? sectionHasPaletteBlocks(section) : sectionHasNumericBlocks(section);
-      if (nonEmpty) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  private boolean sectionHasPaletteBlocks(CompoundTag section) {
-    ListTag<?> palette;
-    if (usesRootLayout()) {
-      CompoundTag blockStates = section.getCompoundTag("block_states");
-      palette = blockStates == null ? null : childList(blockStates, "palette");
-    } else {
-      palette = childList(section, "Palette");
-    }
-    return paletteHasNonAir(palette);
-  }
-
-  /**
-   * @return whether the chunk has any biome other than the default plains, used to preserve
-   * intentionally biome-painted chunks even when they hold no blocks.
-   */
-  private boolean hasSpecialBiomes() {
-    if (usesRootLayout()) {
-      return modernHasSpecialBiomes();
-    }
-    CompoundTag level = fields();
-    if (isFlattened()) {
-      for (int b : level.getIntArray("Biomes")) {
-        if (b != LEGACY_PLAINS_BIOME && b >= 0) {
-          return true;
-        }
-      }
-      return false;
-    }
-    for (byte b : level.getByteArray("Biomes")) {
-      if (b != LEGACY_PLAINS_BIOME) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  private boolean modernHasSpecialBiomes() {
-    ListTag<?> sections = childList(data, "sections");
-    if (sections == null) {
-      return false;
-    }
-    for (Tag<?> t : sections) {
-      if (!(t instanceof CompoundTag)) {
-        continue;
-      }
-      CompoundTag biomes = ((CompoundTag) t).getCompoundTag("biomes");
-      ListTag<?> palette = biomes == null ? null : childList(biomes, "palette");
-      if (palette == null) {
-        continue;
-      }
-      for (Tag<?> entry : palette) {
-        if (!(entry instanceof StringTag) || !DEFAULT_BIOME.equals(((StringTag) entry).getValue())) {
-          return true;
-        }
-      }
-    }
-    return false;
+    return scan.isEntityChunk();
   }
 
   /** Replaces the legacy {@code Sections} list with only its non-empty sections, leaving all else raw. */
@@ -304,21 +254,9 @@ public class Chunk {
   // Format predicates & helpers
   // ---------------------------------------------------------------------------------------------
 
-  private boolean isFlattened() {
-    return dataVersion >= DV_FLATTENING;
-  }
-
-  private boolean usesRootLayout() {
-    return dataVersion >= DV_ROOT_LAYOUT;
-  }
-
-  private boolean entitiesStoredSeparately() {
-    return dataVersion >= DV_ENTITIES_SEPARATED;
-  }
-
   /** The compound holding chunk fields: the root itself in 1.18+, otherwise the {@code Level} child. */
   private CompoundTag fields() {
-    if (usesRootLayout()) {
+    if (scan.usesRootLayout()) {
       return data;
     }
     CompoundTag level = data.getCompoundTag("Level");
@@ -326,40 +264,15 @@ public class Chunk {
   }
 
   private static boolean sectionHasNumericBlocks(CompoundTag section) {
-    return anyNonZero(section.getByteArray("Blocks")) || anyNonZero(section.getByteArray("Add"));
+    return ChunkScan.anyNonZero(section.getByteArray("Blocks")) || ChunkScan.anyNonZero(section.getByteArray("Add"));
   }
 
-  private static boolean paletteHasNonAir(ListTag<?> palette) {
-    if (palette == null) {
-      return false;
-    }
-    for (Tag<?> entry : palette) {
-      if (!(entry instanceof CompoundTag)) {
-        return true; // unexpected shape: keep to be safe
-      }
-      StringTag name = ((CompoundTag) entry).get("Name", StringTag.class);
-      if (name == null || !isAir(name.getValue())) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  private static boolean isAir(String blockName) {
+  static boolean isAir(String blockName) {
     return blockName.equals("minecraft:air")
         || blockName.equals("minecraft:cave_air")
         || blockName.equals("minecraft:void_air");
   }
 
-  private static boolean anyNonZero(byte[] array) {
-    for (byte b : array) {
-      if (b != 0) {
-        return true;
-      }
-    }
-    return false;
-  }
-
   private static ListTag<?> childList(CompoundTag compound, String key) {
     if (compound == null || !compound.containsKey(key)) {
       return null;
@@ -368,11 +281,6 @@ public class Chunk {
     return t instanceof ListTag ? (ListTag<?>) t : null;
   }
 
-  private static int listSize(CompoundTag compound, String key) {
-    ListTag<?> list = childList(compound, key);
-    return list == null ? 0 : list.size();
-  }
-
   /**
    * @return The timestamp when this region file was last updated in seconds since 1970-01-01.
    */
@@ -387,22 +295,66 @@ public class Chunk {
 
   /** @return this chunk's {@code DataVersion}, or 0 for pre-1.9 chunks that predate the field. */
   public int getDataVersion() {
-    return dataVersion;
+    return scan.getDataVersion();
   }
 
   /** A short human label for this chunk's format, e.g. {@code "DataVersion 4556, modern 1.18+"}. */
   public String describeVersion() {
-    return "DataVersion " + dataVersion + ", " + versionEra();
+    return "DataVersion " + getDataVersion() + ", " + versionEra();
   }
 
   /** The format era this chunk belongs to, used to group files in a prune summary. */
   public String versionEra() {
-    if (usesRootLayout()) {
+    if (scan.usesRootLayout()) {
       return "modern 1.18+";
-    } else if (isFlattened()) {
+    } else if (scan.isFlattened()) {
       return "flattened 1.13-1.17";
     } else {
       return "legacy 1.12 and earlier";
     }
   }
+
+  /**
+   * Counts the bytes read through it, and the time spent producing them (which is inflating); sits
+   * under the buffer, so it sees a few large reads and timing them costs next to nothing.
+   */
+  private static final class CountingInputStream extends FilterInputStream {
+    long count;
+    long nanos;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      long start = System.nanoTime();
+      int b = super.read();
+      nanos += System.nanoTime() - start;
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      long start = System.nanoTime();
+      int n = super.read(b, off, len);
+      nanos += System.nanoTime() - start;
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long start = System.nanoTime();
+      long skipped = super.skip(n);
+      nanos += System.nanoTime() - start;
+      count += skipped;
+      return skipped;
+    }
+  }
 }
@@ -0,0 +1,48 @@
+package net.querz.mca;
+
+import net.querz.nbt.io.NBTEncoder;
+import net.querz.nbt.io.NamedTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.Tag;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and compresses the chunks {@link Chunk#serialize} has to rewrite. The chunk's NBT is
+ * written into one right-sized array by an {@link NBTEncoder}, handed to the compressor in a single
+ * write, and the compressed bytes are returned as a view of the array they were written to rather
+ * than a copy. Both arrays are kept for the next chunk, so a region's rewritten chunks share them.
+ */
+final class ChunkEncoder {
+
+  private final NBTEncoder nbt = new NBTEncoder();
+  private final Output compressed = new Output();
+
+  /** @return the chunk's compressed payload, valid until this encoder next encodes. */
+  ByteBuffer encode(CompoundTag data, CompressionType compression) throws IOException {
+    ByteBuffer raw = nbt.encode(new NamedTag(null, data), Tag.DEFAULT_MAX_DEPTH);
+    if (compression == CompressionType.NONE) {
+      return raw;
+    }
+    compressed.reset();
+    try (OutputStream out = compression.compress(compressed)) {
+      out.write(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining());
+    }
+    return compressed.view();
+  }
+
+  /** A {@link ByteArrayOutputStream} whose contents can be read in place. */
+  private static final class Output extends ByteArrayOutputStream {
+
+    Output() {
+      super(8192);
+    }
+
+    ByteBuffer view() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
@@ -0,0 +1,564 @@
+package net.querz.mca;
+
+import net.querz.nbt.io.NBTTreeWalker;
+import net.querz.nbt.io.NBTVisitor;
+import net.querz.nbt.io.NamedTag;
+import net.querz.nbt.tag.ByteArrayTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.IntArrayTag;
+import net.querz.nbt.tag.IntTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.StringTag;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Collects, in a single streaming pass over a chunk's NBT, every fact the keep/prune decision in
+ * {@link Chunk} depends on, skipping everything else (light arrays, heightmaps, packed block
+ * states, ...) without allocating it.
+ *
+ * <p>The facts are gathered structurally, by path, because {@code DataVersion} may appear before or
+ * after the data it governs. Once {@code DataVersion} is known and the chunk has proven it holds
+ * something worth keeping, the scan stops, so most non-empty chunks are only partly inflated.
+ * Legacy (pre-1.13) chunks are always scanned to the end, since their empty sections are stripped
+ * on read.</p>
+ */
+final class ChunkScan implements NBTVisitor {
+
+  /** 1.13 (17w47a): block sections switched to a palette + packed {@code BlockStates}. */
+  static final int DV_FLATTENING = 1451;
+  /** 1.17 (20w45a): entities moved out of region chunks into a separate {@code entities} region. */
+  static final int DV_ENTITIES_SEPARATED = 2681;
+  /** 1.18 (21w43a): {@code Level} compound removed; biomes stored per-section as a palette. */
+  static final int DV_ROOT_LAYOUT = 2844;
+
+  private static final byte LEGACY_PLAINS_BIOME = 1;
+  private static final String DEFAULT_BIOME = "minecraft:plains";
+
+  // Containers the scan descends into; everything else is skipped.
+  private static final int ROOT = 1;
+  private static final int LEVEL = 2;
+  private static final int MODERN_SECTIONS = 3;    // root "sections" (1.18+)
+  private static final int LEVEL_SECTIONS = 4;     // Level.Sections (pre-1.18)
+  private static final int ROOT_SECTIONS = 5;      // root "Sections" (legacy chunk without Level)
+  private static final int MODERN_SECTION = 6;
+  private static final int LEVEL_SECTION = 7;
+  private static final int ROOT_SECTION = 8;
+  private static final int BLOCK_STATES = 9;
+  private static final int BIOMES = 10;
+  private static final int MODERN_PALETTE = 11;    // sections[].block_states.palette
+  private static final int LEVEL_PALETTE = 12;     // Level.Sections[].Palette
+  private static final int BIOME_PALETTE = 13;
+  private static final int MODERN_PALETTE_ENTRY = 14;
+  private static final int LEVEL_PALETTE_ENTRY = 15;
+  // Lists only their length is needed from.
+  private static final int ROOT_ENTITIES = 16;
+  private static final int ROOT_BLOCK_ENTITIES = 17;
+  private static final int LEVEL_ENTITIES = 18;
+  private static final int LEVEL_TILE_ENTITIES = 19;
+
+  // Primitive values the scan reads.
+  private static final int NO_VALUE = 0;
+  private static final int DATA_VERSION = 1;
+  private static final int NUMERIC_BLOCKS = 2;
+  private static final int INT_BIOMES = 3;
+  private static final int BYTE_BIOMES = 4;
+  private static final int PALETTE_NAME = 5;
+
+  private int[] stack = new int[8];
+  private int depth = 0;
+  private int pendingContainer;
+  private int pendingValue;
+
+  // State of the innermost section / palette entry; neither nests inside itself.
+  private boolean sectionHasNumericBlocks;
+  private boolean entryHasName;
+  private boolean entryNonAir;
+
+  private boolean invalidRoot;
+  private int dataVersion;
+  private boolean dataVersionSeen;
+
+  private boolean rootEntities;
+  private boolean rootPosition;
+  private boolean rootUpperSections;
+  private boolean rootLowerSections;
+  private boolean rootLevel;
+  private int rootEntityCount;
+
+  private boolean modernSectionsList;
+  private int modernBlockEntityCount;
+  private boolean modernBlocks;
+  private boolean modernBiomes;
+
+  private boolean levelCompound;
+  private boolean levelSectionsList;
+  private int levelTileEntityCount;
+  private int levelEntityCount;
+  private boolean levelPaletteBlocks;
+  private boolean levelNumericBlocks;
+  private boolean levelEmptySections;
+  private boolean levelIntBiomes;
+  private boolean levelByteBiomes;
+
+  private boolean rootSectionsList;
+  private boolean rootEmptySections;
+
+  /** Scans an already-parsed chunk tag with the same rules applied to streamed data. */
+  static ChunkScan of(CompoundTag data) {
+    ChunkScan scan = new ChunkScan();
+    try {
+      NBTTreeWalker.accept(new NamedTag("", data), scan);
+    } catch (IOException e) {
+      throw new IllegalStateException("walking an in-memory tag cannot fail", e);
+    }
+    return scan;
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Decision
+  // ---------------------------------------------------------------------------------------------
+
+  /** @see Chunk#hasContent(Chunk) */
+  boolean hasContent(ChunkScan entityScan) {
+    // A chunk from a separate "entities" region: keep it iff it actually stores entities.
+    if (isEntityChunk()) {
+      return rootEntityCount > 0;
+    }
+    // Anything we don't recognise as a block chunk (e.g. POI data) is left untouched.
+    if (!isBlockChunk()) {
+      return true;
+    }
+    if (hasBlockEntities() || hasBlocks() || hasSpecialBiomes()) {
+      return true;
+    }
+    if (!entitiesStoredSeparately()) {
+      return levelEntityCount > 0;
+    }
+    return entityScan != null && entityScan.isEntityChunk() && entityScan.rootEntityCount > 0;
+  }
+
+  /** @return whether this is an entity-storage chunk from a separate {@code entities} region file. */
+  boolean isEntityChunk() {
+    return rootEntities && rootPosition && !rootUpperSections && !rootLowerSections && !rootLevel;
+  }
+
+  /**
+   * @return whether this looks like a normal block chunk we know how to evaluate. The section
+   * list lives at {@code sections} (root) in 1.18+ and {@code Level.Sections} before that;
+   * anything else (POI data, custom structures) is treated as unknown and never pruned.
+   */
+  private boolean isBlockChunk() {
+    return usesRootLayout() ? modernSectionsList : levelCompound && levelSectionsList;
+  }
+
+  private boolean hasBlockEntities() {
+    return usesRootLayout() ? modernBlockEntityCount > 0 : levelTileEntityCount > 0;
+  }
+
+  private boolean hasBlocks() {
+    if (usesRootLayout()) {
+      return modernBlocks;
+    }
+    return isFlattened() ? levelPaletteBlocks : levelNumericBlocks;
+  }
+
+  /**
+   * @return whether the chunk has any biome other than the default plains, used to preserve
+   * intentionally biome-painted chunks even when they hold no blocks.
+   */
+  private boolean hasSpecialBiomes() {
+    if (usesRootLayout()) {
+      return modernBiomes;
+    }
+    return isFlattened() ? levelIntBiomes : levelByteBiomes;
+  }
+
+  /**
+   * @return whether the chunk is in the legacy format and its {@code Sections} list holds empty
+   * sections that {@link Chunk} strips on read.
+   */
+  boolean needsLegacyStrip() {
+    if (isFlattened()) {
+      return false;
+    }
+    return levelCompound ? levelSectionsList && levelEmptySections : rootSectionsList && rootEmptySections;
+  }
+
+  /**
+   * @return whether the facts seen so far already decide that the chunk is kept, whatever the rest
+   * of the data holds. Only the flattened and modern layouts qualify, and only once the data version
+   * and the section list that makes the chunk a block chunk have been seen.
+   */
+  private boolean conclusivelyKept() {
+    if (!dataVersionSeen) {
+      return false;
+    }
+    if (usesRootLayout()) {
+      return modernSectionsList && (modernBlocks || modernBiomes || modernBlockEntityCount > 0);
+    }
+    if (isFlattened()) {
+      return levelCompound && levelSectionsList
+          && (levelPaletteBlocks || levelIntBiomes || levelTileEntityCount > 0
+          || (!entitiesStoredSeparately() && levelEntityCount > 0));
+    }
+    return false;
+  }
+
+  boolean isInvalidRoot() {
+    return invalidRoot;
+  }
+
+  int getDataVersion() {
+    return dataVersion;
+  }
+
+  boolean isFlattened() {
+    return dataVersion >= DV_FLATTENING;
+  }
+
+  boolean usesRootLayout() {
+    return dataVersion >= DV_ROOT_LAYOUT;
+  }
+
+  private boolean entitiesStoredSeparately() {
+    return dataVersion >= DV_ENTITIES_SEPARATED;
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Visitor
+  // ---------------------------------------------------------------------------------------------
+
+  @Override
+  public Result visitEntry(byte id, String name) {
+    pendingContainer = 0;
+    pendingValue = NO_VALUE;
+    if (depth == 0) {
+      if (id != CompoundTag.ID) {
+        invalidRoot = true;
+        return Result.STOP;
+      }
+      pendingContainer = ROOT;
+      return Result.CONTINUE;
+    }
+    switch (stack[depth - 1]) {
+      case ROOT:
+        return rootEntry(id, name);
+      case LEVEL:
+        return levelEntry(id, name);
+      case MODERN_SECTION:
+        if (name.equals("block_states")) {
+          return descend(id == CompoundTag.ID, BLOCK_STATES);
+        } else if (name.equals("biomes")) {
+          return descend(id == CompoundTag.ID, BIOMES);
+        }
+        return Result.SKIP;
+      case LEVEL_SECTION:
+      case ROOT_SECTION:
+        if (name.equals("Blocks") || name.equals("Add")) {
+          return readValue(id == ByteArrayTag.ID, NUMERIC_BLOCKS);
+        } else if (name.equals("Palette") && stack[depth - 1] == LEVEL_SECTION) {
+          return descend(id == ListTag.ID, LEVEL_PALETTE);
+        }
+        return Result.SKIP;
+      case BLOCK_STATES:
+        return name.equals("palette") ? descend(id == ListTag.ID, MODERN_PALETTE) : Result.SKIP;
+      case BIOMES:
+        return name.equals("palette") ? descend(id == ListTag.ID, BIOME_PALETTE) : Result.SKIP;
+      case MODERN_PALETTE_ENTRY:
+      case LEVEL_PALETTE_ENTRY:
+        if (!name.equals("Name")) {
+          return Result.SKIP;
+        }
+        entryHasName = true;
+        if (id != StringTag.ID) {
+          entryNonAir = true; // unexpected shape: keep to be safe
+          return Result.SKIP;
+        }
+        return readValue(true, PALETTE_NAME);
+      default:
+        return Result.SKIP;
+    }
+  }
+
+  private Result rootEntry(byte id, String name) {
+    switch (name) {
+      case "DataVersion":
+        return readValue(id == IntTag.ID, DATA_VERSION);
+      case "Entities":
+        rootEntities = true;
+        return descend(id == ListTag.ID, ROOT_ENTITIES);
+      case "Position":
+        rootPosition = true;
+        return Result.SKIP;
+      case "sections":
+        rootLowerSections = true;
+        modernSectionsList = id == ListTag.ID;
+        return conclusivelyKept() ? Result.STOP : descend(modernSectionsList, MODERN_SECTIONS);
+      case "Sections":
+        rootUpperSections = true;
+        rootSectionsList = id == ListTag.ID;
+        return descend(rootSectionsList, ROOT_SECTIONS);
+      case "Level":
+        rootLevel = true;
+        levelCompound = id == CompoundTag.ID;
+        return descend(levelCompound, LEVEL);
+      case "block_entities":
+        return descend(id == ListTag.ID, ROOT_BLOCK_ENTITIES);
+      default:
+        return Result.SKIP;
+    }
+  }
+
+  private Result levelEntry(byte id, String name) {
+    switch (name) {
+      case "Sections":
+        levelSectionsList = id == ListTag.ID;
+        return conclusivelyKept() ? Result.STOP : descend(levelSectionsList, LEVEL_SECTIONS);
+      case "TileEntities":
+        return descend(id == ListTag.ID, LEVEL_TILE_ENTITIES);
+      case "Entities":
+        return descend(id == ListTag.ID, LEVEL_ENTITIES);
+      case "Biomes":
+        if (id == IntArrayTag.ID) {
+          return readValue(true, INT_BIOMES);
+        }
+        return readValue(id == ByteArrayTag.ID, BYTE_BIOMES);
+      default:
+        return Result.SKIP;
+    }
+  }
+
+  private Result descend(boolean expectedType, int container) {
+    if (!expectedType) {
+      return Result.SKIP;
+    }
+    pendingContainer = container;
+    return Result.CONTINUE;
+  }
+
+  private Result readValue(boolean expectedType, int value) {
+    if (!expectedType) {
+      return Result.SKIP;
+    }
+    pendingValue = value;
+    return Result.CONTINUE;
+  }
+
+  @Override
+  public Result visitCompoundStart() {
+    int container;
+    if (depth > 0 && pendingContainer == 0) {
+      // An element of a list the scan descended into.
+      switch (stack[depth - 1]) {
+        case MODERN_SECTIONS:
+          container = MODERN_SECTION;
+          break;
+        case LEVEL_SECTIONS:
+          container = LEVEL_SECTION;
+          break;
+        case ROOT_SECTIONS:
+          container = ROOT_SECTION;
+          break;
+        case MODERN_PALETTE:
+          container = MODERN_PALETTE_ENTRY;
+          break;
+        case LEVEL_PALETTE:
+          container = LEVEL_PALETTE_ENTRY;
+          break;
+        default:
+          return Result.SKIP;
+      }
+    } else {
+      container = pendingContainer;
+      pendingContainer = 0;
+    }
+    if (container == LEVEL_SECTION || container == ROOT_SECTION) {
+      sectionHasNumericBlocks = false;
+    } else if (container == MODERN_PALETTE_ENTRY || container == LEVEL_PALETTE_ENTRY) {
+      entryHasName = false;
+      entryNonAir = false;
+    }
+    push(container);
+    return Result.CONTINUE;
+  }
+
+  @Override
+  public Result visitCompoundEnd() {
+    switch (stack[--depth]) {
+      case LEVEL_SECTION:
+        if (sectionHasNumericBlocks) {
+          levelNumericBlocks = true;
+        } else {
+          levelEmptySections = true;
+        }
+        break;
+      case ROOT_SECTION:
+        if (!sectionHasNumericBlocks) {
+          rootEmptySections = true;
+        }
+        break;
+      case MODERN_PALETTE_ENTRY:
+        if (!entryHasName || entryNonAir) {
+          modernBlocks = true;
+        }
+        break;
+      case LEVEL_PALETTE_ENTRY:
+        if (!entryHasName || entryNonAir) {
+          levelPaletteBlocks = true;
+        }
+        break;
+      default:
+        break;
+    }
+    return conclusivelyKept() ? Result.STOP : Result.CONTINUE;
+  }
+
+  @Override
+  public Result visitListStart(byte elementId, int length) {
+    int container = pendingContainer;
+    pendingContainer = 0;
+    switch (container) {
+      case ROOT_ENTITIES:
+        rootEntityCount = length;
+        return Result.SKIP;
+      case ROOT_BLOCK_ENTITIES:
+        modernBlockEntityCount = length;
+        return conclusivelyKept() ? Result.STOP : Result.SKIP;
+      case LEVEL_ENTITIES:
+        levelEntityCount = length;
+        return conclusivelyKept() ? Result.STOP : Result.SKIP;
+      case LEVEL_TILE_ENTITIES:
+        levelTileEntityCount = length;
+        return conclusivelyKept() ? Result.STOP : Result.SKIP;
+      case MODERN_SECTIONS:
+        return elementsOrSkip(elementId == CompoundTag.ID && length > 0, container);
+      case LEVEL_SECTIONS:
+      case ROOT_SECTIONS:
+        if (elementId != CompoundTag.ID && length > 0) {
+          // Non-compound "sections" are dropped by legacy stripping.
+          if (container == LEVEL_SECTIONS) {
+            levelEmptySections = true;
+          } else {
+            rootEmptySections = true;
+          }
+        }
+        return elementsOrSkip(elementId == CompoundTag.ID && length > 0, container);
+      case MODERN_PALETTE:
+      case LEVEL_PALETTE:
+        if (elementId != CompoundTag.ID && length > 0) {
+          // Unexpected shape: keep to be safe.
+          if (container == MODERN_PALETTE) {
+            modernBlocks = true;
+          } else {
+            levelPaletteBlocks = true;
+          }
+          return conclusivelyKept() ? Result.STOP : Result.SKIP;
+        }
+        return elementsOrSkip(length > 0, container);
+      case BIOME_PALETTE:
+        if (elementId != StringTag.ID && length > 0) {
+          modernBiomes = true;
+          return conclusivelyKept() ? Result.STOP : Result.SKIP;
+        }
+        return elementsOrSkip(length > 0, container);
+      default:
+        return Result.SKIP;
+    }
+  }
+
+  private Result elementsOrSkip(boolean descend, int container) {
+    if (!descend) {
+      return Result.SKIP;
+    }
+    push(container);
+    return Result.CONTINUE;
+  }
+
+  @Override
+  public Result visitListEnd() {
+    depth--;
+    return Result.CONTINUE;
+  }
+
+  @Override
+  public Result visitInt(int value) {
+    if (takeValue() == DATA_VERSION) {
+      dataVersion = value;
+      dataVersionSeen = true;
+      return conclusivelyKept() ? Result.STOP : Result.CONTINUE;
+    }
+    return Result.CONTINUE;
+  }
+
+  @Override
+  public Result visitString(String value) {
+    if (depth > 0 && stack[depth - 1] == BIOME_PALETTE) {
+      if (!DEFAULT_BIOME.equals(value)) {
+        modernBiomes = true;
+        return conclusivelyKept() ? Result.STOP : Result.CONTINUE;
+      }
+    } else if (takeValue() == PALETTE_NAME && !Chunk.isAir(value)) {
+      entryNonAir = true;
+    }
+    return Result.CONTINUE;
+  }
+
+  @Override
+  public Result visitByteArray(byte[] value) {
+    switch (takeValue()) {
+      case NUMERIC_BLOCKS:
+        if (anyNonZero(value)) {
+          sectionHasNumericBlocks = true;
+        }
+        break;
+      case BYTE_BIOMES:
+        for (byte b : value) {
+          if (b != LEGACY_PLAINS_BIOME) {
+            levelByteBiomes = true;
+            break;
+          }
+        }
+        break;
+      default:
+        break;
+    }
+    return Result.CONTINUE;
+  }
+
+  @Override
+  public Result visitIntArray(int[] value) {
+    if (takeValue() == INT_BIOMES) {
+      for (int b : value) {
+        if (b != LEGACY_PLAINS_BIOME && b >= 0) {
+          levelIntBiomes = true;
+          return conclusivelyKept() ? Result.STOP : Result.CONTINUE;
+        }
+      }
+    }
+    return Result.CONTINUE;
+  }
+
+  private int takeValue() {
+    int value = pendingValue;
+    pendingValue = NO_VALUE;
+    return value;
+  }
+
+  private void push(int container) {
+    if (depth == stack.length) {
+      stack = Arrays.copyOf(stack, depth * 2);
+    }
+    stack[depth++] = container;
+  }
+
+  static boolean anyNonZero(byte[] array) {
+    for (byte b : array) {
+      if (b != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -1,18 +1,25 @@
 package net.querz.mca;
 
+import net.querz.io.LZ4BlockInputStream;
+import net.querz.io.LZ4BlockOutputStream;
+import net.querz.io.PooledDeflaterOutputStream;
+import net.querz.io.PooledInflaterInputStream;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
-import java.util.zip.InflaterInputStream;
 
 public enum CompressionType {
 
   NONE(0, t -> t, t -> t),
   GZIP(1, GZIPOutputStream::new, GZIPInputStream::new),
-  ZLIB(2, DeflaterOutputStream::new, InflaterInputStream::new);
+  // Nearly every chunk is ZLIB, so its zlib contexts are pooled per thread; closing the stream
+  // returned by compress/decompress hands them back.
+  ZLIB(2, PooledDeflaterOutputStream::new, PooledInflaterInputStream::new),
+  // 1.20.5+ (region-file-compression=lz4), in lz4-java's block stream format.
+  LZ4(4, LZ4BlockOutputStream::new, LZ4BlockInputStream::new);
 
   private final byte id;
   private final ExceptionFunction<OutputStream, ? extends OutputStream, IOException> compressor;
@@ -0,0 +1,60 @@
+package net.querz.mca;
+
+/**
+ * Java Flight Recorder events for the work done on region files and their chunks, so a recording
+ * of a slow run shows which files and chunks the time went to, next to its GC and I/O events.
+ *
+ * <p>This is the Java 8 build of the class, which records nothing: {@link #begin} always returns
+ * {@code null}. The JAR also carries a Java 11 build of it under {@code META-INF/versions/11},
+ * which a Java 11+ JVM loads instead, and which emits an {@code autopruner.*} event per call while
+ * a recording has that event enabled.</p>
+ *
+ * <p>Callers test the handle before gathering an event's fields, so a run that is not being
+ * recorded does no work for them:</p>
+ * <pre>{@code
+ * Object event = FlightEvents.begin(FlightEvents.Kind.REGION_READ);
+ * ...
+ * if (event != null) {
+ *   FlightEvents.commit(event, path, era, dataVersion, bytes, outcome);
+ * }
+ * }</pre>
+ */
+public final class FlightEvents {
+
+  /** What an event times. */
+  public enum Kind {
+    /** Reading a region file's header and, unless it holds no chunks, the whole file. */
+    REGION_READ,
+    /** Inflating and scanning one chunk. */
+    CHUNK_DECODE,
+    /** Deciding whether one chunk is kept. */
+    DECISION,
+    /** Rewriting or deleting a region file. */
+    REGION_WRITE,
+    /** Defragmenting a region file in place. */
+    COMPACTION,
+    /** Finding and reading the entity region a block region consults. */
+    ENTITY_LOOKUP
+  }
+
+  private FlightEvents() {
+  }
+
+  /** @return a started event of {@code kind}, or {@code null} when it is not being recorded. */
+  public static Object begin(Kind kind) {
+    return null;
+  }
+
+  /**
+   * Ends an event {@link #begin} returned and commits it, unless the recording's threshold drops it.
+   *
+   * @param event       a non-null handle from {@link #begin}
+   * @param path        the region file
+   * @param era         the world-format era of its chunks, or {@code ""} when not yet known
+   * @param dataVersion the {@code DataVersion} of the chunk (or the region's first chunk), or 0
+   * @param bytes       the bytes handled: read, decoded, written or reclaimed
+   * @param outcome     what came of the work, e.g. {@code keep}, {@code prune} or {@code deleted}
+   */
+  public static void commit(Object event, String path, String era, int dataVersion, long bytes, String outcome) {
+  }
+}
@@ -3,8 +3,13 @@ package net.querz.mca;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class MCAFile implements Iterable<Chunk> {
 
@@ -15,6 +20,14 @@ public class MCAFile implements Iterable<Chunk> {
   private final int regionZ;
   private Chunk[] chunks;
   private long reclaimableSectors;
+  /** Size of the file image the chunks were sliced from when it is on the heap; 0 when mapped. */
+  private long heapImageBytes;
+  /** The file this region was read from, named in {@link FlightEvents}; {@code null} when not known. */
+  String source;
+  /** What the last {@link #serialize} re-encoded, rather than copied; see {@link #getEncodeNanos}. */
+  private long encodeNanos;
+  private int encodedChunks;
+  private long encodedBytes;
 
   /**
    * MCAFile represents a world save file used by Minecraft to store world
@@ -50,63 +63,150 @@ public class MCAFile implements Iterable<Chunk> {
    * @throws IOException If something went wrong during deserialization.
    */
   public void deserialize(RandomAccessFile raf) throws IOException {
-    chunks = new Chunk[CHUNK_COUNT];
-    for (int i = 0; i < CHUNK_COUNT; i++) {
-      raf.seek(i * 4);
-      int b0 = raf.read();
-      int b1 = raf.read();
-      int b2 = raf.read();
-      int sectorCount = raf.read();
-      if (sectorCount < 1) {
-        continue; // unused chunk slot, or a truncated/empty header
-      }
-      int offset = (b0 << 16) | ((b1 & 0xFF) << 8) | (b2 & 0xFF);
-      raf.seek(4096 + i * 4);
-      int timestamp = raf.readInt();
-      Chunk chunk = new Chunk(timestamp);
-      raf.seek(4096L * offset + 4); //+4: skip data size
-      chunk.deserialize(raf);
-      chunks[i] = chunk;
-    }
+    deserialize(MCAUtil.load(raf.getChannel()));
   }
 
   /**
-   * Reads an .mca file from a {@code RandomAccessFile} into this object.
+   * Reads an .mca file from a {@code ByteArrayInputStream} into this object.
    * This method does not perform any cleanups on the data.
    *
    * @param inputStream The {@code ByteArrayInputStream} to read from.
    * @throws IOException If something went wrong during deserialization.
    */
   public void deserialize(ByteArrayInputStream inputStream) throws IOException {
-    chunks = new Chunk[CHUNK_COUNT];
+    inputStream.reset();
+    byte[] raw = new byte[inputStream.available()];
+    int read = inputStream.read(raw, 0, raw.length);
+    deserialize(ByteBuffer.wrap(raw, 0, Math.max(0, read)));
+  }
+
+  /**
+   * Reads an .mca file image into this object. Each chunk is handed a slice of {@code region}
+   * bounded by its declared length and keeps it for later use, so the buffer must not be modified
+   * while this object is in use.
+   * This method does not perform any cleanups on the data.
+   *
+   * @param region The whole region file, from its first byte up to its limit.
+   * @throws IOException If something went wrong during deserialization.
+   */
+  public void deserialize(ByteBuffer region) throws IOException {
+    deserialize(region, null);
+  }
+
+  /**
+   * Like {@link #deserialize(ByteBuffer)}, but inflates and scans the chunks across {@code pool}
+   * when it is non-null. Each chunk is still stored at its own index, so the result is identical
+   * to a sequential read. As in a sequential read, a chunk that fails to decode ends the read and its
+   * exception is rethrown; chunks still in flight are abandoned, and when several fail it is not
+   * specified which failure is rethrown.
+   *
+   * @param region The whole region file, from its first byte up to its limit.
+   * @param pool   The pool decoding the chunks, or {@code null} to decode them on this thread.
+   * @throws IOException If something went wrong during deserialization.
+   */
+  public void deserialize(ByteBuffer region, ForkJoinPool pool) throws IOException {
+    Chunk[] read = new Chunk[CHUNK_COUNT];
+    ByteBuffer[] slices = new ByteBuffer[CHUNK_COUNT];
+    int limit = region.limit();
+    RegionHeader header = RegionHeader.of(region, limit);
     for (int i = 0; i < CHUNK_COUNT; i++) {
-      inputStream.reset();
-      inputStream.skip(i * 4);
-      int b0 = inputStream.read();
-      int b1 = inputStream.read();
-      int b2 = inputStream.read();
-      int sectorCount = inputStream.read();
-      if (sectorCount < 1) {
+      if (header.sectorCount(i) < 1) {
         continue; // unused chunk slot, or a truncated/empty header
       }
-      int offset = (b0 << 16) | ((b1 & 0xFF) << 8) | (b2 & 0xFF);
-      inputStream.reset();
-      inputStream.skip(4096 + i * 4);
-      int ch1 = inputStream.read();
-      int ch2 = inputStream.read();
-      int ch3 = inputStream.read();
-      int ch4 = inputStream.read();
-      int timestamp = ((ch1 << 24) + (ch2 << 16) + (ch3 << 8) + (ch4));
-      Chunk chunk = new Chunk(timestamp);
-      inputStream.reset();
-      inputStream.skip(4096L * offset + 4); //+4: skip data size
-      chunk.deserialize(inputStream);
-      chunks[i] = chunk;
+      long dataPos = 4096L * header.offset(i);
+      if (dataPos + 5 > limit) {
+        throw new IOException("chunk " + i + " lies outside the region file");
+      }
+      // Be lenient about a declared length the file cannot hold: the compressed stream ends
+      // itself, so hand the chunk whatever follows instead of failing.
+      int available = (int) (limit - dataPos - 4);
+      int length = region.getInt((int) dataPos);
+      if (length < 1 || length > available) {
+        length = available;
+      }
+      ByteBuffer chunkData = region.duplicate();
+      ((Buffer) chunkData).limit((int) dataPos + 4 + length);
+      ((Buffer) chunkData).position((int) dataPos + 4); //+4: skip data size
+      slices[i] = chunkData.slice();
+      read[i] = new Chunk(header.timestamp(i));
+    }
+    if (pool == null) {
+      for (int i = 0; i < CHUNK_COUNT; i++) {
+        if (read[i] != null) {
+          decode(read[i], slices[i], source);
+        }
+      }
+    } else {
+      try {
+        pool.invoke(new DecodeTask(read, slices, source, 0, CHUNK_COUNT));
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+    chunks = read;
+    heapImageBytes = region.isDirect() ? 0 : region.capacity();
+  }
+
+  /** Deserializes one chunk of the region read from {@code source}, as a {@link FlightEvents.Kind#CHUNK_DECODE} event. */
+  private static void decode(Chunk chunk, ByteBuffer slice, String source) throws IOException {
+    Object event = FlightEvents.begin(FlightEvents.Kind.CHUNK_DECODE);
+    boolean decoded = false;
+    try {
+      chunk.deserialize(slice);
+      decoded = true;
+    } finally {
+      if (event != null) {
+        FlightEvents.commit(event, source, decoded ? chunk.versionEra() : "", decoded ? chunk.getDataVersion() : 0,
+            decoded ? chunk.getDecodedLength() : slice.limit(), decoded ? "decoded" : "failed");
+      }
+    }
+  }
+
+  /** Decodes a range of chunk slots, splitting it in halves down to {@link #LEAF_SIZE} slots. */
+  @SuppressWarnings("serial")
+  private static final class DecodeTask extends RecursiveAction {
+
+    /** Small enough to balance a region whose chunks vary wildly in size, large enough to amortize a task. */
+    private static final int LEAF_SIZE = 16;
+
+    private final Chunk[] chunks;
+    private final ByteBuffer[] slices;
+    private final String source;
+    private final int from;
+    private final int to;
+
+    DecodeTask(Chunk[] chunks, ByteBuffer[] slices, String source, int from, int to) {
+      this.chunks = chunks;
+      this.slices = slices;
+      this.source = source;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > LEAF_SIZE) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new DecodeTask(chunks, slices, source, from, mid), new DecodeTask(chunks, slices, source, mid, to));
+        return;
+      }
+      for (int i = from; i < to; i++) {
+        if (chunks[i] == null) {
+          continue;
+        }
+        try {
+          decode(chunks[i], slices[i], source);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
     }
   }
 
   /**
-   * Serializes this object to an .mca file.
+   * Serializes this object to an .mca file, packing chunks back-to-back after the header.
+   * Chunks that were not changed since reading are copied as their original compressed bytes
+   * (see {@link Chunk#serialize(RandomAccessFile)}); only changed chunks are re-encoded.
    * This method does not perform any cleanups on the data.
    *
    * @param raf              The {@code RandomAccessFile} to write to.
@@ -116,10 +216,14 @@ public class MCAFile implements Iterable<Chunk> {
    * @throws IOException If something went wrong during serialization.
    */
   public int serialize(RandomAccessFile raf, boolean changeLastUpdate) throws IOException {
+    encodeNanos = 0;
+    encodedChunks = 0;
+    encodedBytes = 0;
     int globalOffset = 2;
     int lastWritten = 0;
     int timestamp = (int) (System.currentTimeMillis() / 1000L);
     int chunksWritten = 0;
+    ChunkEncoder encoder = new ChunkEncoder();
 
     if (chunks == null) {
       return 0;
@@ -133,13 +237,18 @@ public class MCAFile implements Iterable<Chunk> {
           continue;
         }
         raf.seek(4096L * globalOffset);
-        lastWritten = chunk.serialize(raf);
+        lastWritten = chunk.serialize(raf, encoder);
 
         if (lastWritten == 0) {
           continue;
         }
 
         chunksWritten++;
+        if (chunk.getEncodeNanos() > 0) {
+          encodeNanos += chunk.getEncodeNanos();
+          encodedChunks++;
+          encodedBytes += lastWritten;
+        }
 
         int sectors = (lastWritten >> 12) + (lastWritten % 4096 == 0 ? 0 : 1);
 
@@ -172,24 +281,24 @@ public class MCAFile implements Iterable<Chunk> {
    * back-to-back, an already-compacted file reports zero here, keeping the prune idempotent.
    */
   void analyzeLayout(byte[] raw) {
-    long fileSectors = (raw.length + 4095) / 4096;
+    analyzeLayout(ByteBuffer.wrap(raw));
+  }
+
+  /** @see #analyzeLayout(byte[]) */
+  void analyzeLayout(ByteBuffer raw) {
+    int limit = raw.limit();
+    RegionHeader header = RegionHeader.of(raw, limit);
+    long fileSectors = (limit + 4095) / 4096;
     long neededSectors = 2; // location + timestamp header tables
     for (int i = 0; i < CHUNK_COUNT; i++) {
-      int entry = i * 4;
-      if (entry + 3 >= raw.length) {
-        break;
-      }
-      int sectorCount = raw[entry + 3] & 0xFF;
-      if (sectorCount < 1) {
+      if (header.sectorCount(i) < 1) {
         continue;
       }
-      int offset = ((raw[entry] & 0xFF) << 16) | ((raw[entry + 1] & 0xFF) << 8) | (raw[entry + 2] & 0xFF);
-      int dataPos = offset * 4096;
-      if (dataPos < 0 || dataPos + 4 > raw.length) {
+      long dataPos = 4096L * header.offset(i);
+      if (dataPos + 4 > limit) {
         continue;
       }
-      int declaredLen = ((raw[dataPos] & 0xFF) << 24) | ((raw[dataPos + 1] & 0xFF) << 16)
-          | ((raw[dataPos + 2] & 0xFF) << 8) | (raw[dataPos + 3] & 0xFF);
+      int declaredLen = raw.getInt((int) dataPos);
       if (declaredLen < 1) {
         continue;
       }
@@ -198,6 +307,81 @@ public class MCAFile implements Iterable<Chunk> {
     reclaimableSectors = Math.max(0, fileSectors - neededSectors);
   }
 
+  /**
+   * @return the uncompressed NBT bytes read from every chunk currently in this region, a measure of
+   * the work decoding it took. Chunks scanned only as far as their keep/prune decision needed count
+   * what was read, not their full size.
+   */
+  public long getDecodedBytes() {
+    long decoded = 0;
+    if (chunks != null) {
+      for (Chunk chunk : chunks) {
+        if (chunk != null) {
+          decoded += chunk.getDecodedLength();
+        }
+      }
+    }
+    return decoded;
+  }
+
+  /**
+   * @return the heap this region holds on to while it is pruned: the file image its chunks are
+   * sliced from, unless the file was memory-mapped (see {@link MCAUtil#readRegion}), plus the NBT of
+   * every chunk decoded into a tree. Chunks that were only scanned hold no decoded data.
+   */
+  public long getHeldBytes() {
+    long held = heapImageBytes;
+    if (chunks != null) {
+      for (Chunk chunk : chunks) {
+        if (chunk != null) {
+          held += chunk.getTreeLength();
+        }
+      }
+    }
+    return held;
+  }
+
+  /** @return the time reading the chunks currently in this region spent inflating them, summed over threads. */
+  public long getInflateNanos() {
+    long nanos = 0;
+    if (chunks != null) {
+      for (Chunk chunk : chunks) {
+        if (chunk != null) {
+          nanos += chunk.getInflateNanos();
+        }
+      }
+    }
+    return nanos;
+  }
+
+  /** @return the time reading the chunks currently in this region spent scanning their NBT, summed over threads. */
+  public long getParseNanos() {
+    long nanos = 0;
+    if (chunks != null) {
+      for (Chunk chunk : chunks) {
+        if (chunk != null) {
+          nanos += chunk.getParseNanos();
+        }
+      }
+    }
+    return nanos;
+  }
+
+  /** @return the time the last {@link #serialize} spent re-encoding changed chunks. */
+  public long getEncodeNanos() {
+    return encodeNanos;
+  }
+
+  /** @return the chunks the last {@link #serialize} re-encoded rather than copied. */
+  public int getEncodedChunks() {
+    return encodedChunks;
+  }
+
+  /** @return the bytes the last {@link #serialize} wrote for re-encoded chunks. */
+  public long getEncodedBytes() {
+    return encodedBytes;
+  }
+
   /** @return wasted sectors a defragmenting rewrite would reclaim; see {@link #analyzeLayout}. */
   public long getReclaimableSectors() {
     return reclaimableSectors;
@@ -1,11 +1,16 @@
 package net.querz.mca;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,6 +22,17 @@ public final class MCAUtil {
 
   private static final Pattern mcaFilePattern = Pattern.compile("^.*r\\.(?<regionX>-?\\d+)\\.(?<regionZ>-?\\d+)\\.mca$");
 
+  /**
+   * Files at least this large are memory-mapped rather than read onto the heap. Below it a plain
+   * read is cheaper than setting up (and later tearing down) a mapping.
+   */
+  private static final int MAP_THRESHOLD = 1 << 20;
+  /**
+   * Windows refuses to replace or delete a file while a mapping of it is alive, and a mapping is
+   * only released once collected, so pruning there always reads onto the heap.
+   */
+  private static final boolean CAN_MAP = !System.getProperty("os.name", "").startsWith("Windows");
+
   /**
    * Reads an MCA file and loads all of its chunks.
    *
@@ -25,13 +41,99 @@ public final class MCAUtil {
    * @throws IOException if something during deserialization goes wrong.
    */
   public static MCAFile read(File file) throws IOException {
-    byte[] bytes = Files.readAllBytes(file.toPath());
+    return read(file, null);
+  }
+
+  /**
+   * Reads an MCA file and loads all of its chunks, decoding them across {@code pool}.
+   *
+   * @param file The file to read the data from.
+   * @param pool The pool decoding the chunks, or {@code null} to decode them on this thread.
+   * @return An in-memory representation of the MCA file with decompressed chunk data
+   * @throws IOException if something during deserialization goes wrong.
+   * @see MCAFile#deserialize(ByteBuffer, ForkJoinPool)
+   */
+  public static MCAFile read(File file, ForkJoinPool pool) throws IOException {
+    ByteBuffer region;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      region = load(channel);
+    }
+    return decode(file, region, pool);
+  }
+
+  /**
+   * The I/O half of {@link #read(File, ForkJoinPool)}: loads the whole file, for {@link #decode}.
+   * A large file is mapped and its pages faulted in here, so decoding it later does not wait on
+   * the disk.
+   *
+   * @param file The file to read.
+   * @return The file's bytes, from position 0 up to its limit.
+   * @throws IOException if the file cannot be read.
+   */
+  public static ByteBuffer readRegion(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer region = load(channel);
+      if (region instanceof MappedByteBuffer) {
+        ((MappedByteBuffer) region).load();
+      }
+      return region;
+    }
+  }
+
+  /**
+   * The CPU half of {@link #read(File, ForkJoinPool)}: decodes the chunks of a file loaded by
+   * {@link #readRegion(File)}, and checks its layout for reclaimable space.
+   *
+   * @param file   The file {@code region} was read from, which names the region.
+   * @param region The whole file; it is retained by the chunks and must not be modified.
+   * @param pool   The pool decoding the chunks, or {@code null} to decode them on this thread.
+   * @throws IOException if a chunk cannot be decoded.
+   */
+  public static MCAFile decode(File file, ByteBuffer region, ForkJoinPool pool) throws IOException {
     MCAFile mcaFile = newMCAFile(file);
-    mcaFile.deserialize(new ByteArrayInputStream(bytes));
-    mcaFile.analyzeLayout(bytes);
+    mcaFile.deserialize(region, pool);
+    mcaFile.analyzeLayout(region);
     return mcaFile;
   }
 
+  /**
+   * Loads a whole region file for {@link MCAFile#deserialize(ByteBuffer)}: large files are mapped
+   * read-only, so chunks read straight from the page cache with no heap copy of the file; small
+   * ones (and every file on Windows) are read into a heap buffer of exactly their size. The mapping
+   * outlives the channel.
+   */
+  static ByteBuffer load(FileChannel channel) throws IOException {
+    long size = channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("region file too large: " + size + " bytes");
+    }
+    if (CAN_MAP && size >= MAP_THRESHOLD) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    ByteBuffer region = ByteBuffer.allocate((int) size);
+    while (region.hasRemaining()) {
+      if (channel.read(region, region.position()) < 0) {
+        break;
+      }
+    }
+    ((Buffer) region).flip();
+    return region;
+  }
+
+  /**
+   * Reads only the 8 KiB location/timestamp header of an MCA file, so the file can be triaged
+   * (see {@link RegionHeader#triage()}) before paying for a full read and decompression.
+   *
+   * @param file The file to read the header from.
+   * @return The file's header; shorter files yield a truncated header that triages as empty.
+   * @throws IOException if the file cannot be read.
+   */
+  public static RegionHeader readHeader(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return RegionHeader.read(channel);
+    }
+  }
+
   /**
    * Calls {@link MCAUtil#write(MCAFile, File, boolean)} without changing the timestamps.
    *
@@ -86,7 +188,9 @@ public final class MCAUtil {
   public static MCAFile newMCAFile(File file) {
     Matcher m = mcaFilePattern.matcher(file.getName());
     if (m.find()) {
-      return new MCAFile(Integer.parseInt(m.group("regionX")), Integer.parseInt(m.group("regionZ")));
+      MCAFile mcaFile = new MCAFile(Integer.parseInt(m.group("regionX")), Integer.parseInt(m.group("regionZ")));
+      mcaFile.source = file.getPath();
+      return mcaFile;
     }
     throw new IllegalArgumentException("invalid mca file name: " + file.getName());
   }
@@ -0,0 +1,328 @@
+package net.querz.mca;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Defragments a region file in place, without the full rewrite through a temporary file that
+ * {@link MCAUtil#write(MCAFile, File, boolean)} performs: chunks are slid toward the header in
+ * offset order, the location table is rewritten and the file truncated. Chunks already in their
+ * final place are not touched at all.
+ *
+ * <p>The move is crash-safe through an intent journal next to the region file
+ * ({@code r.X.Z.mca.compact}). It holds the plan, the new location table and a copy of every chunk
+ * whose source sectors the compaction itself may overwrite; chunks moved from beyond the new end of
+ * file are read from the region, which is only truncated once every move is durable. Until the
+ * journal is committed the region is untouched; from then on {@link #recover(File)} finishes the
+ * compaction, and replaying it any number of times yields the same file.</p>
+ */
+public final class RegionCompactor {
+
+  /** Appended to a region file's name to name its journal. */
+  public static final String JOURNAL_SUFFIX = ".compact";
+
+  private static final int MAGIC = 0x41504A31; // "APJ1"
+  private static final byte PREPARED = 0;
+  private static final byte APPLIED = 1;
+  private static final int PHASE_POSITION = 4;
+  private static final int MOVE_SIZE = 20;
+
+  private RegionCompactor() {
+  }
+
+  public static File journalFile(File region) {
+    return new File(region.getPath() + JOURNAL_SUFFIX);
+  }
+
+  /**
+   * Compacts {@code region} in place.
+   *
+   * @return {@code false} if the file's layout cannot be slid safely (overlapping slots, or a chunk
+   * whose declared length does not fit its slot), in which case it is left untouched and should be
+   * rewritten instead.
+   * @throws IOException if the compaction fails; a journal left behind is finished by {@link #recover(File)}.
+   */
+  public static boolean compact(File region) throws IOException {
+    File journal = journalFile(region);
+    try (FileChannel channel = FileChannel.open(region.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      Plan plan = plan(channel);
+      if (plan == null) {
+        return false;
+      }
+      try (FileChannel log = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        writeJournal(log, plan, channel);
+        finish(channel, log, plan);
+      }
+    }
+    Files.delete(journal.toPath());
+    return true;
+  }
+
+  /**
+   * Finishes a compaction of {@code region} that was interrupted, if its journal exists. A journal
+   * that was never committed is discarded, since the region was not modified before the commit.
+   *
+   * @return {@code true} if a journal was found and dealt with.
+   * @throws IOException if the journal cannot be replayed; it is then kept for another attempt.
+   */
+  public static boolean recover(File region) throws IOException {
+    File journal = journalFile(region);
+    if (!journal.isFile()) {
+      return false;
+    }
+    try (FileChannel log = FileChannel.open(journal.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      Plan plan = readJournal(log);
+      if (plan != null) {
+        try (FileChannel channel = FileChannel.open(region.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+          if (!plan.applied && channel.size() != plan.fileSize) {
+            throw new IOException("region file changed since its compaction was journaled: " + region);
+          }
+          finish(channel, log, plan);
+        }
+      }
+    }
+    Files.delete(journal.toPath());
+    return true;
+  }
+
+  /** What a compaction does: the new location table, and every chunk that has to move. */
+  static final class Plan {
+
+    final long fileSize;
+    final long newSize;
+    final ByteBuffer locations;
+    /** Sector offsets before and after the move, ascending. */
+    final int[] source;
+    final int[] target;
+    /** Bytes to move, including the 4-byte length prefix. */
+    final int[] length;
+    /** Position of the chunk's copy in the journal, or -1 when it is read from the region. */
+    final long[] stashed;
+    boolean applied;
+
+    Plan(long fileSize, long newSize, ByteBuffer locations, int moves) {
+      this.fileSize = fileSize;
+      this.newSize = newSize;
+      this.locations = locations;
+      this.source = new int[moves];
+      this.target = new int[moves];
+      this.length = new int[moves];
+      this.stashed = new long[moves];
+    }
+
+    int moves() {
+      return source.length;
+    }
+  }
+
+  /** @return the compaction of the region open on {@code channel}, or {@code null} if it cannot be slid. */
+  static Plan plan(FileChannel channel) throws IOException {
+    RegionHeader header = RegionHeader.read(channel);
+    long fileSize = header.getFileSize();
+    if (fileSize < RegionHeader.SIZE) {
+      return null;
+    }
+    // Sort key: offset in the high bits, slot index in the low ten.
+    long[] slots = new long[MCAFile.CHUNK_COUNT];
+    int occupied = 0;
+    for (int i = 0; i < MCAFile.CHUNK_COUNT; i++) {
+      if (header.sectorCount(i) > 0) {
+        slots[occupied++] = ((long) header.offset(i) << 10) | i;
+      }
+    }
+    if (occupied == 0) {
+      return null;
+    }
+    Arrays.sort(slots, 0, occupied);
+
+    ByteBuffer locations = ByteBuffer.allocate(RegionHeader.SECTOR_SIZE);
+    int[] source = new int[occupied];
+    int[] target = new int[occupied];
+    int[] length = new int[occupied];
+    int moves = 0;
+    long claimedEnd = RegionHeader.SIZE / RegionHeader.SECTOR_SIZE;
+    int next = (int) claimedEnd;
+    ByteBuffer prefix = ByteBuffer.allocate(4);
+    for (int s = 0; s < occupied; s++) {
+      int slot = (int) (slots[s] & 0x3FF);
+      int offset = (int) (slots[s] >>> 10);
+      int sectorCount = header.sectorCount(slot);
+      if (offset < claimedEnd) {
+        return null; // overlaps the header or the previous slot
+      }
+      claimedEnd = (long) offset + sectorCount;
+      long position = (long) offset * RegionHeader.SECTOR_SIZE;
+      ((Buffer) prefix).clear();
+      readFully(channel, prefix, position);
+      int bytes = prefix.getInt(0) + 4; //+4: the length prefix itself
+      if (bytes < 5 || bytes > sectorCount * RegionHeader.SECTOR_SIZE || position + bytes > fileSize) {
+        return null;
+      }
+      int sectors = (bytes + RegionHeader.SECTOR_SIZE - 1) / RegionHeader.SECTOR_SIZE;
+      locations.putInt(slot * 4, next << 8 | sectors);
+      if (offset != next) {
+        source[moves] = offset;
+        target[moves] = next;
+        length[moves] = bytes;
+        moves++;
+      }
+      next += sectors;
+    }
+
+    Plan plan = new Plan(fileSize, (long) next * RegionHeader.SECTOR_SIZE, locations, moves);
+    System.arraycopy(source, 0, plan.source, 0, moves);
+    System.arraycopy(target, 0, plan.target, 0, moves);
+    System.arraycopy(length, 0, plan.length, 0, moves);
+    return plan;
+  }
+
+  /**
+   * Writes and commits the journal for {@code plan}, copying into it every chunk whose source lies
+   * inside the compacted file, where a later (or its own) move may overwrite it before it is durable.
+   */
+  static void writeJournal(FileChannel log, Plan plan, FileChannel channel) throws IOException {
+    int metadataSize = PHASE_POSITION + 1 + 20 + plan.moves() * MOVE_SIZE + RegionHeader.SECTOR_SIZE;
+    long position = metadataSize;
+    for (int i = 0; i < plan.moves(); i++) {
+      if ((long) plan.source[i] * RegionHeader.SECTOR_SIZE < plan.newSize) {
+        plan.stashed[i] = position;
+        position += plan.length[i];
+      } else {
+        plan.stashed[i] = -1;
+      }
+    }
+
+    ByteBuffer metadata = ByteBuffer.allocate(metadataSize);
+    metadata.putInt(MAGIC).put(PREPARED);
+    metadata.putLong(plan.fileSize).putLong(plan.newSize).putInt(plan.moves());
+    for (int i = 0; i < plan.moves(); i++) {
+      metadata.putInt(plan.source[i]).putInt(plan.target[i]).putInt(plan.length[i]).putLong(plan.stashed[i]);
+    }
+    metadata.put(plan.locations.duplicate());
+    ((Buffer) metadata).flip();
+    writeFully(log, metadata, 0);
+    for (int i = 0; i < plan.moves(); i++) {
+      if (plan.stashed[i] >= 0) {
+        transferFully(channel, (long) plan.source[i] * RegionHeader.SECTOR_SIZE, plan.length[i], log, plan.stashed[i]);
+      }
+    }
+    log.force(true);
+
+    // Commit: a journal without this trailer is discarded on recovery.
+    ByteBuffer trailer = ByteBuffer.allocate(8);
+    trailer.putInt(checksum(metadata)).putInt(MAGIC);
+    ((Buffer) trailer).flip();
+    writeFully(log, trailer, position);
+    log.force(true);
+  }
+
+  /** @return the committed plan in {@code log}, or {@code null} if the journal was never committed. */
+  static Plan readJournal(FileChannel log) throws IOException {
+    long size = log.size();
+    int headerSize = PHASE_POSITION + 1 + 20;
+    if (size < headerSize + RegionHeader.SECTOR_SIZE + 8) {
+      return null;
+    }
+    ByteBuffer head = ByteBuffer.allocate(headerSize);
+    readFully(log, head, 0);
+    int moves = head.getInt(headerSize - 4);
+    if (head.getInt(0) != MAGIC || moves < 0 || moves > MCAFile.CHUNK_COUNT) {
+      return null;
+    }
+    int metadataSize = headerSize + moves * MOVE_SIZE + RegionHeader.SECTOR_SIZE;
+    ByteBuffer metadata = ByteBuffer.allocate(metadataSize);
+    readFully(log, metadata, 0);
+    ByteBuffer trailer = ByteBuffer.allocate(8);
+    readFully(log, trailer, size - 8);
+    byte phase = metadata.get(PHASE_POSITION);
+    metadata.put(PHASE_POSITION, PREPARED); // the checksum covers the journal as committed
+    if (trailer.getInt(4) != MAGIC || trailer.getInt(0) != checksum(metadata)) {
+      return null;
+    }
+
+    ((Buffer) metadata).position(PHASE_POSITION + 1);
+    long fileSize = metadata.getLong();
+    long newSize = metadata.getLong();
+    metadata.getInt();
+    ByteBuffer locations = metadata.duplicate();
+    ((Buffer) locations).position(headerSize + moves * MOVE_SIZE);
+    Plan plan = new Plan(fileSize, newSize, locations.slice(), moves);
+    for (int i = 0; i < moves; i++) {
+      plan.source[i] = metadata.getInt();
+      plan.target[i] = metadata.getInt();
+      plan.length[i] = metadata.getInt();
+      plan.stashed[i] = metadata.getLong();
+    }
+    plan.applied = phase == APPLIED;
+    return plan;
+  }
+
+  /** Performs the moves of a committed plan (unless already done), then the header and the truncation. */
+  private static void finish(FileChannel channel, FileChannel log, Plan plan) throws IOException {
+    if (!plan.applied) {
+      for (int i = 0; i < plan.moves(); i++) {
+        long target = (long) plan.target[i] * RegionHeader.SECTOR_SIZE;
+        if (plan.stashed[i] >= 0) {
+          transferFully(log, plan.stashed[i], plan.length[i], channel, target);
+        } else {
+          transferFully(channel, (long) plan.source[i] * RegionHeader.SECTOR_SIZE, plan.length[i], channel, target);
+        }
+      }
+      channel.force(false);
+      // Sources beyond the new end are only safe until the truncation; past this point a replay
+      // must not read them again.
+      ByteBuffer phase = ByteBuffer.wrap(new byte[] {APPLIED});
+      writeFully(log, phase, PHASE_POSITION);
+      log.force(false);
+      plan.applied = true;
+    }
+    writeFully(channel, plan.locations.duplicate(), 0);
+    channel.truncate(plan.newSize);
+    channel.force(true);
+  }
+
+  private static int checksum(ByteBuffer metadata) {
+    CRC32 crc = new CRC32();
+    ByteBuffer all = metadata.duplicate();
+    ((Buffer) all).clear();
+    byte[] bytes = new byte[all.remaining()];
+    all.get(bytes);
+    crc.update(bytes, 0, bytes.length);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Copies {@code count} bytes between positions of two channels (which may be the same one) through
+   * a heap buffer; {@code FileChannel#transferTo} makes no promise for overlapping ranges of one file.
+   */
+  private static void transferFully(FileChannel from, long position, int count, FileChannel to, long target) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(count);
+    readFully(from, buffer, position);
+    ((Buffer) buffer).flip();
+    writeFully(to, buffer, target);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("unexpected end of file at " + position);
+      }
+      position += read;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package net.querz.mca;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The 8 KiB location/timestamp header of a region file, read on its own so a file can be triaged
+ * before any chunk is read or decompressed.
+ *
+ * <p>Each of the {@link MCAFile#CHUNK_COUNT} location entries packs a 3-byte sector offset and a
+ * 1-byte sector count; a count of 0 marks an unused slot. The header alone can prove a file holds no
+ * chunk at all, and whether its allocated sectors are laid out back-to-back, but not whether the
+ * chunks it does hold are empty — that still needs the decoder.</p>
+ */
+public final class RegionHeader {
+
+  /** Size in bytes of one sector, and of each of the two header tables. */
+  public static final int SECTOR_SIZE = 4096;
+  /** Size in bytes of the location and timestamp tables together. */
+  public static final int SIZE = 2 * SECTOR_SIZE;
+
+  /** What the header alone says about a region file. */
+  public enum Triage {
+    /** No chunk can be stored: the file is shorter than the header, or every slot is unused. */
+    EMPTY,
+    /** Slots are allocated back-to-back from the end of the header to the end of the file, with no gaps or trailing sectors. */
+    PACKED,
+    /** Gaps, trailing sectors or an inconsistent layout: the file needs a full parse to tell. */
+    NEEDS_PARSE
+  }
+
+  private final long fileSize;
+  private final IntBuffer locations;
+  private final IntBuffer timestamps;
+
+  private RegionHeader(long fileSize, IntBuffer locations, IntBuffer timestamps) {
+    this.fileSize = fileSize;
+    this.locations = locations;
+    this.timestamps = timestamps;
+  }
+
+  /**
+   * Reads the header of a region file with a single positional read, leaving the channel's
+   * position untouched.
+   */
+  public static RegionHeader read(FileChannel channel) throws IOException {
+    long size = channel.size();
+    ByteBuffer header = ByteBuffer.allocate((int) Math.min(size, SIZE));
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) {
+        break;
+      }
+    }
+    ((Buffer) header).flip();
+    return of(header, size);
+  }
+
+  /**
+   * Decodes the header at the start of {@code region} (which may be shorter than {@link #SIZE}
+   * for a truncated file) without copying it.
+   */
+  static RegionHeader of(ByteBuffer region, long fileSize) {
+    ByteBuffer header = region.duplicate();
+    int available = Math.min(header.limit(), SIZE);
+    ((Buffer) header).limit(Math.min(available, SECTOR_SIZE));
+    IntBuffer locations = header.slice().asIntBuffer();
+    IntBuffer timestamps;
+    if (available > SECTOR_SIZE) {
+      ((Buffer) header).limit(available);
+      ((Buffer) header).position(SECTOR_SIZE);
+      timestamps = header.slice().asIntBuffer();
+    } else {
+      timestamps = IntBuffer.allocate(0);
+    }
+    return new RegionHeader(fileSize, locations, timestamps);
+  }
+
+  public Triage triage() {
+    if (fileSize < SIZE) {
+      return Triage.EMPTY;
+    }
+    int occupied = 0;
+    long[] slots = new long[MCAFile.CHUNK_COUNT];
+    for (int i = 0; i < MCAFile.CHUNK_COUNT; i++) {
+      int count = sectorCount(i);
+      if (count > 0) {
+        // Sort key: offset in the high bits, sector count in the low byte.
+        slots[occupied++] = ((long) offset(i) << 8) | count;
+      }
+    }
+    if (occupied == 0) {
+      return Triage.EMPTY;
+    }
+    Arrays.sort(slots, 0, occupied);
+    long next = SIZE / SECTOR_SIZE;
+    for (int i = 0; i < occupied; i++) {
+      if (slots[i] >>> 8 != next) {
+        return Triage.NEEDS_PARSE;
+      }
+      next += slots[i] & 0xFF;
+    }
+    return next == fileSectors() ? Triage.PACKED : Triage.NEEDS_PARSE;
+  }
+
+  /** @return the number of slots holding a chunk. */
+  public int getOccupiedSlots() {
+    int occupied = 0;
+    for (int i = 0; i < MCAFile.CHUNK_COUNT; i++) {
+      if (sectorCount(i) > 0) {
+        occupied++;
+      }
+    }
+    return occupied;
+  }
+
+  /**
+   * @return sectors past the header that no slot claims (gaps and trailing sectors), a lower bound
+   * on what compaction reclaims; over-allocated slots are only visible once chunks are read.
+   */
+  public long getUnclaimedSectors() {
+    long claimed = 0;
+    for (int i = 0; i < MCAFile.CHUNK_COUNT; i++) {
+      claimed += sectorCount(i);
+    }
+    return Math.max(0, fileSectors() - SIZE / SECTOR_SIZE - claimed);
+  }
+
+  public long getFileSize() {
+    return fileSize;
+  }
+
+  private long fileSectors() {
+    return (fileSize + SECTOR_SIZE - 1) / SECTOR_SIZE;
+  }
+
+  /** @return the sector offset of slot {@code index}, or 0 if the header does not cover it. */
+  public int offset(int index) {
+    return index < locations.limit() ? locations.get(index) >>> 8 : 0;
+  }
+
+  /** @return the sector count of slot {@code index}; 0 marks an unused slot. */
+  public int sectorCount(int index) {
+    return index < locations.limit() ? locations.get(index) & 0xFF : 0;
+  }
+
+  /** @return the last-update timestamp of slot {@code index}, or 0 if the header does not cover it. */
+  public int timestamp(int index) {
+    return index < timestamps.limit() ? timestamps.get(index) : 0;
+  }
+}
@@ -0,0 +1,250 @@
+package net.querz.nbt.io;
+
+import net.querz.io.MaxDepthIO;
+import net.querz.nbt.tag.ByteArrayTag;
+import net.querz.nbt.tag.ByteTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.DoubleTag;
+import net.querz.nbt.tag.EndTag;
+import net.querz.nbt.tag.FloatTag;
+import net.querz.nbt.tag.IntArrayTag;
+import net.querz.nbt.tag.IntTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.LongArrayTag;
+import net.querz.nbt.tag.LongTag;
+import net.querz.nbt.tag.ShortTag;
+import net.querz.nbt.tag.StringTag;
+import net.querz.nbt.tag.Tag;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Builds a tag tree from uncompressed NBT, like {@link NBTInputStream}, but faster on the payloads
+ * chunks are made of. It reads the input through a buffer of its own and decodes from that:
+ * tags are dispatched by a {@code switch} on their id, the long and int arrays holding most of a
+ * chunk's bytes (block states, heightmaps, biomes) are converted in bulk, big-endian, rather than a
+ * value per call, and names and strings come from the thread's {@link StringTable}, which hands out
+ * one shared instance of each recurring key and block name instead of decoding it again. Byte arrays
+ * are always read in full, however the input hands them over.
+ *
+ * <p>The decoder may read ahead of the tag it returns, so the input should hold nothing else
+ * after it.</p>
+ */
+public class NBTDecoder implements NBTInput, MaxDepthIO {
+
+  private static final int BUFFER_SIZE = 8192;
+  /** Byte arrays at least this long are read straight into the array rather than through the buffer. */
+  private static final int DIRECT_READ = BUFFER_SIZE / 2;
+  /** Initial capacity limit of a list, so a corrupt length cannot force a huge allocation up front. */
+  private static final int MAX_INITIAL_LIST_CAPACITY = 1024;
+
+  /** The tag class of each tag id, for typing lists. */
+  private static final Class<?>[] TAG_CLASSES = {
+      EndTag.class, ByteTag.class, ShortTag.class, IntTag.class, LongTag.class, FloatTag.class,
+      DoubleTag.class, ByteArrayTag.class, StringTag.class, ListTag.class, CompoundTag.class,
+      IntArrayTag.class, LongArrayTag.class
+  };
+
+  private final InputStream in;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  /** Big-endian view of {@link #buffer}, for bulk array conversion. */
+  private final ByteBuffer view = ByteBuffer.wrap(buffer);
+  private int position;
+  private int limit;
+  /** The reading thread's string table, taken up by each {@link #readTag}. */
+  private StringTable strings;
+
+  public NBTDecoder(InputStream in) {
+    this.in = in;
+  }
+
+  @Override
+  public NamedTag readTag(int maxDepth) throws IOException {
+    strings = StringTable.forThread();
+    byte id = readByte();
+    return new NamedTag(readUTF(), readPayload(id, maxDepth));
+  }
+
+  private Tag<?> readPayload(byte id, int maxDepth) throws IOException {
+    switch (id) {
+      case EndTag.ID:
+        return EndTag.INSTANCE;
+      case ByteTag.ID:
+        return new ByteTag(readByte());
+      case ShortTag.ID:
+        return new ShortTag(readShort());
+      case IntTag.ID:
+        return new IntTag(readInt());
+      case LongTag.ID:
+        return new LongTag(readLong());
+      case FloatTag.ID:
+        return new FloatTag(Float.intBitsToFloat(readInt()));
+      case DoubleTag.ID:
+        return new DoubleTag(Double.longBitsToDouble(readLong()));
+      case ByteArrayTag.ID:
+        return new ByteArrayTag(readByteArray());
+      case StringTag.ID:
+        return new StringTag(readUTF());
+      case ListTag.ID:
+        return readList(maxDepth);
+      case CompoundTag.ID:
+        return readCompound(maxDepth);
+      case IntArrayTag.ID:
+        return new IntArrayTag(readIntArray());
+      case LongArrayTag.ID:
+        return new LongArrayTag(readLongArray());
+      default:
+        throw new IOException("invalid tag id \"" + id + "\"");
+    }
+  }
+
+  private ListTag<?> readList(int maxDepth) throws IOException {
+    byte elementId = readByte();
+    int length = Math.max(0, readInt());
+    Class<?> elementClass = elementId >= 0 && elementId < TAG_CLASSES.length ? TAG_CLASSES[elementId] : null;
+    ListTag<?> list = ListTag.createUnchecked(elementClass, Math.min(length, MAX_INITIAL_LIST_CAPACITY));
+    for (int i = 0; i < length; i++) {
+      list.addUnchecked(readPayload(elementId, decrementMaxDepth(maxDepth)));
+    }
+    return list;
+  }
+
+  private CompoundTag readCompound(int maxDepth) throws IOException {
+    CompoundTag compound = new CompoundTag();
+    for (byte id = readByte(); id != EndTag.ID; id = readByte()) {
+      String key = readUTF();
+      compound.put(key, readPayload(id, decrementMaxDepth(maxDepth)));
+    }
+    return compound;
+  }
+
+  private byte readByte() throws IOException {
+    require(1);
+    return buffer[position++];
+  }
+
+  private short readShort() throws IOException {
+    require(2);
+    int p = position;
+    position = p + 2;
+    return (short) ((buffer[p] & 0xFF) << 8 | buffer[p + 1] & 0xFF);
+  }
+
+  private int readInt() throws IOException {
+    require(4);
+    int p = position;
+    position = p + 4;
+    return (buffer[p] & 0xFF) << 24 | (buffer[p + 1] & 0xFF) << 16 | (buffer[p + 2] & 0xFF) << 8 | buffer[p + 3] & 0xFF;
+  }
+
+  private long readLong() throws IOException {
+    require(8);
+    int p = position;
+    position = p + 8;
+    return (long) ((buffer[p] & 0xFF) << 24 | (buffer[p + 1] & 0xFF) << 16 | (buffer[p + 2] & 0xFF) << 8 | buffer[p + 3] & 0xFF) << 32
+        | ((buffer[p + 4] & 0xFF) << 24 | (buffer[p + 5] & 0xFF) << 16 | (buffer[p + 6] & 0xFF) << 8 | buffer[p + 7] & 0xFF) & 0xFFFFFFFFL;
+  }
+
+  private int readLength() throws IOException {
+    int length = readInt();
+    if (length < 0) {
+      throw new IOException("negative array length " + length);
+    }
+    return length;
+  }
+
+  private byte[] readByteArray() throws IOException {
+    byte[] value = new byte[readLength()];
+    int buffered = Math.min(limit - position, value.length);
+    System.arraycopy(buffer, position, value, 0, buffered);
+    position += buffered;
+    int done = buffered;
+    if (value.length - done >= DIRECT_READ) {
+      // Too large to be worth copying twice; the input may hand it over in any number of pieces.
+      while (done < value.length) {
+        int read = in.read(value, done, value.length - done);
+        if (read < 0) {
+          throw new EOFException();
+        }
+        done += read;
+      }
+      return value;
+    }
+    while (done < value.length) {
+      int n = Math.min(BUFFER_SIZE, value.length - done);
+      require(n);
+      System.arraycopy(buffer, position, value, done, n);
+      position += n;
+      done += n;
+    }
+    return value;
+  }
+
+  private int[] readIntArray() throws IOException {
+    int[] value = new int[readLength()];
+    for (int done = 0; done < value.length; ) {
+      require(4);
+      int n = Math.min((limit - position) >> 2, value.length - done);
+      ((Buffer) view).limit(position + n * 4).position(position);
+      view.asIntBuffer().get(value, done, n);
+      position += n * 4;
+      done += n;
+    }
+    return value;
+  }
+
+  private long[] readLongArray() throws IOException {
+    long[] value = new long[readLength()];
+    for (int done = 0; done < value.length; ) {
+      require(8);
+      int n = Math.min((limit - position) >> 3, value.length - done);
+      ((Buffer) view).limit(position + n * 8).position(position);
+      view.asLongBuffer().get(value, done, n);
+      position += n * 8;
+      done += n;
+    }
+    return value;
+  }
+
+  /** Reads a modified UTF-8 string, as written by {@link java.io.DataOutput#writeUTF}. */
+  private String readUTF() throws IOException {
+    int length = readShort() & 0xFFFF;
+    if (length > BUFFER_SIZE) {
+      byte[] bytes = new byte[length];
+      for (int done = 0; done < length; ) {
+        int n = Math.min(BUFFER_SIZE, length - done);
+        require(n);
+        System.arraycopy(buffer, position, bytes, done, n);
+        position += n;
+        done += n;
+      }
+      return strings.get(bytes, 0, length);
+    }
+    require(length);
+    int start = position;
+    position += length;
+    return strings.get(buffer, start, length);
+  }
+
+  /** Makes at least {@code n} (at most {@link #BUFFER_SIZE}) bytes available from {@link #position}. */
+  private void require(int n) throws IOException {
+    if (limit - position >= n) {
+      return;
+    }
+    int left = limit - position;
+    System.arraycopy(buffer, position, buffer, 0, left);
+    position = 0;
+    limit = left;
+    while (limit < n) {
+      int read = in.read(buffer, limit, BUFFER_SIZE - limit);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      limit += read;
+    }
+  }
+}
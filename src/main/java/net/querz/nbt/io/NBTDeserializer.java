@@ -25,7 +25,7 @@ public class NBTDeserializer implements Deserializer<NamedTag> {
       input = stream;
     }
 
-    nbtIn = new NBTInputStream(input);
+    nbtIn = new NBTDecoder(input);
     return nbtIn.readTag(Tag.DEFAULT_MAX_DEPTH);
   }
 }
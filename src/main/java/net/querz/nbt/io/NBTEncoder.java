@@ -0,0 +1,254 @@
+package net.querz.nbt.io;
+
+import net.querz.io.MaxDepthIO;
+import net.querz.nbt.tag.ByteArrayTag;
+import net.querz.nbt.tag.ByteTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.DoubleTag;
+import net.querz.nbt.tag.EndTag;
+import net.querz.nbt.tag.FloatTag;
+import net.querz.nbt.tag.IntArrayTag;
+import net.querz.nbt.tag.IntTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.LongArrayTag;
+import net.querz.nbt.tag.LongTag;
+import net.querz.nbt.tag.ShortTag;
+import net.querz.nbt.tag.StringTag;
+import net.querz.nbt.tag.Tag;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Writes a tag tree as uncompressed NBT, like {@link NBTOutputStream}, but into a single array
+ * rather than a stream. The tree's encoded size is measured first ({@link #sizeOf}), the array is
+ * grown to it if it is too small, and the tree is then written straight into it: tags are
+ * dispatched by a {@code switch} on their id, and long, int and byte arrays are copied in bulk,
+ * big-endian, rather than a value per call.
+ *
+ * <p>An encoder keeps its array between calls, so one encoder writing many chunks, one after the
+ * other, allocates only when a chunk is larger than any before it. It is not thread-safe.</p>
+ */
+public class NBTEncoder implements MaxDepthIO {
+
+  private byte[] buffer = new byte[0];
+  private ByteBuffer out = ByteBuffer.wrap(buffer);
+
+  /**
+   * Encodes a named tag.
+   *
+   * @return The encoded bytes: a view of this encoder's array, valid until it next encodes.
+   * @throws IOException When the tree holds an end tag in a compound, a string longer than 65535
+   *                     encoded bytes, or is more than {@code maxDepth} deep.
+   */
+  public ByteBuffer encode(NamedTag tag, int maxDepth) throws IOException {
+    long size = sizeOf(tag);
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new IOException("tag too large to encode: " + size + " bytes");
+    }
+    if (buffer.length < size) {
+      buffer = new byte[(int) size];
+      out = ByteBuffer.wrap(buffer);
+    }
+    ((Buffer) out).clear();
+    Tag<?> root = tag.getTag();
+    out.put(root.getID());
+    if (root.getID() != EndTag.ID) {
+      writeUTF(tag.getName() == null ? "" : tag.getName());
+    }
+    writePayload(root, maxDepth);
+    return ByteBuffer.wrap(buffer, 0, out.position());
+  }
+
+  /** @return the number of bytes {@link #encode} writes for {@code tag}. */
+  public static long sizeOf(NamedTag tag) {
+    Tag<?> root = tag.getTag();
+    if (root.getID() == EndTag.ID) {
+      return 1;
+    }
+    return 1 + sizeOfUTF(tag.getName() == null ? "" : tag.getName()) + sizeOfPayload(root);
+  }
+
+  private static long sizeOfPayload(Tag<?> tag) {
+    switch (tag.getID()) {
+      case EndTag.ID:
+        return 0;
+      case ByteTag.ID:
+        return 1;
+      case ShortTag.ID:
+        return 2;
+      case IntTag.ID:
+      case FloatTag.ID:
+        return 4;
+      case LongTag.ID:
+      case DoubleTag.ID:
+        return 8;
+      case ByteArrayTag.ID:
+        return 4 + (long) ((ByteArrayTag) tag).length();
+      case StringTag.ID:
+        return sizeOfUTF(((StringTag) tag).getValue());
+      case ListTag.ID: {
+        long size = 5;
+        for (Tag<?> element : (ListTag<?>) tag) {
+          size += sizeOfPayload(element);
+        }
+        return size;
+      }
+      case CompoundTag.ID: {
+        long size = 1;
+        for (Map.Entry<String, Tag<?>> entry : (CompoundTag) tag) {
+          size += 1 + sizeOfUTF(entry.getKey()) + sizeOfPayload(entry.getValue());
+        }
+        return size;
+      }
+      case IntArrayTag.ID:
+        return 4 + 4L * ((IntArrayTag) tag).length();
+      case LongArrayTag.ID:
+        return 4 + 8L * ((LongArrayTag) tag).length();
+      default:
+        // Rejected by writePayload; counted as nothing so the encoder gets that far.
+        return 0;
+    }
+  }
+
+  /** @return the length of {@code s} in modified UTF-8, as written by {@link java.io.DataOutput#writeUTF}, with its length prefix. */
+  private static long sizeOfUTF(String s) {
+    int length = s.length();
+    long size = 2 + length;
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x80 || c == 0) {
+        size += c >= 0x800 ? 2 : 1;
+      }
+    }
+    return size;
+  }
+
+  private void writePayload(Tag<?> tag, int maxDepth) throws IOException {
+    switch (tag.getID()) {
+      case EndTag.ID:
+        break;
+      case ByteTag.ID:
+        out.put(((ByteTag) tag).asByte());
+        break;
+      case ShortTag.ID:
+        out.putShort(((ShortTag) tag).asShort());
+        break;
+      case IntTag.ID:
+        out.putInt(((IntTag) tag).asInt());
+        break;
+      case LongTag.ID:
+        out.putLong(((LongTag) tag).asLong());
+        break;
+      case FloatTag.ID:
+        out.putFloat(((FloatTag) tag).asFloat());
+        break;
+      case DoubleTag.ID:
+        out.putDouble(((DoubleTag) tag).asDouble());
+        break;
+      case ByteArrayTag.ID: {
+        byte[] value = ((ByteArrayTag) tag).getValue();
+        out.putInt(value.length);
+        out.put(value);
+        break;
+      }
+      case StringTag.ID:
+        writeUTF(((StringTag) tag).getValue());
+        break;
+      case ListTag.ID:
+        writeList((ListTag<?>) tag, maxDepth);
+        break;
+      case CompoundTag.ID:
+        writeCompound((CompoundTag) tag, maxDepth);
+        break;
+      case IntArrayTag.ID: {
+        int[] value = ((IntArrayTag) tag).getValue();
+        out.putInt(value.length);
+        out.asIntBuffer().put(value);
+        ((Buffer) out).position(out.position() + value.length * 4);
+        break;
+      }
+      case LongArrayTag.ID: {
+        long[] value = ((LongArrayTag) tag).getValue();
+        out.putInt(value.length);
+        out.asLongBuffer().put(value);
+        ((Buffer) out).position(out.position() + value.length * 8);
+        break;
+      }
+      default:
+        throw new IOException("invalid tag \"" + tag.getID() + "\"");
+    }
+  }
+
+  private void writeList(ListTag<?> list, int maxDepth) throws IOException {
+    out.put(list.size() > 0 ? list.get(0).getID() : idFromClass(list.getTypeClass()));
+    out.putInt(list.size());
+    for (Tag<?> element : list) {
+      writePayload(element, decrementMaxDepth(maxDepth));
+    }
+  }
+
+  /**
+   * The id of an empty list's element class. A list holds one class only, so a non-empty list
+   * takes its id from its first element instead; this avoids {@link NBTOutputStream}'s class map.
+   */
+  private static byte idFromClass(Class<?> clazz) throws IOException {
+    if (clazz == EndTag.class) return EndTag.ID;
+    if (clazz == ByteTag.class) return ByteTag.ID;
+    if (clazz == ShortTag.class) return ShortTag.ID;
+    if (clazz == IntTag.class) return IntTag.ID;
+    if (clazz == LongTag.class) return LongTag.ID;
+    if (clazz == FloatTag.class) return FloatTag.ID;
+    if (clazz == DoubleTag.class) return DoubleTag.ID;
+    if (clazz == ByteArrayTag.class) return ByteArrayTag.ID;
+    if (clazz == StringTag.class) return StringTag.ID;
+    if (clazz == ListTag.class) return ListTag.ID;
+    if (clazz == CompoundTag.class) return CompoundTag.ID;
+    if (clazz == IntArrayTag.class) return IntArrayTag.ID;
+    if (clazz == LongArrayTag.class) return LongArrayTag.ID;
+    throw new IOException("invalid list element class \"" + clazz.getName() + "\"");
+  }
+
+  private void writeCompound(CompoundTag compound, int maxDepth) throws IOException {
+    for (Map.Entry<String, Tag<?>> entry : compound) {
+      byte id = entry.getValue().getID();
+      if (id == EndTag.ID) {
+        throw new IOException("end tag not allowed");
+      }
+      out.put(id);
+      writeUTF(entry.getKey());
+      writePayload(entry.getValue(), decrementMaxDepth(maxDepth));
+    }
+    out.put(EndTag.ID);
+  }
+
+  /** Writes {@code s} in modified UTF-8, as {@link java.io.DataOutput#writeUTF} does. */
+  private void writeUTF(String s) throws UTFDataFormatException {
+    int length = s.length();
+    int start = out.position() + 2;
+    int p = start;
+    byte[] bytes = buffer;
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c > 0 && c < 0x80) {
+        bytes[p++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[p++] = (byte) (0xC0 | c >> 6);
+        bytes[p++] = (byte) (0x80 | c & 0x3F);
+      } else {
+        bytes[p++] = (byte) (0xE0 | c >> 12);
+        bytes[p++] = (byte) (0x80 | c >> 6 & 0x3F);
+        bytes[p++] = (byte) (0x80 | c & 0x3F);
+      }
+    }
+    int encoded = p - start;
+    if (encoded > 0xFFFF) {
+      throw new UTFDataFormatException("encoded string too long: " + encoded + " bytes");
+    }
+    out.putShort((short) encoded);
+    ((Buffer) out).position(p);
+  }
+}
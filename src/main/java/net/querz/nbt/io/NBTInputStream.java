@@ -44,6 +44,9 @@ public class NBTInputStream extends DataInputStream implements NBTInput, MaxDept
     put(LongArrayTag.ID, (i, d) -> readLongArray(i), LongArrayTag.class);
   }
 
+  /** The reading thread's string table, taken up by each {@link #readTag(int)}. */
+  private StringTable strings;
+
   public NBTInputStream(InputStream in) {
     super(in);
   }
@@ -78,13 +81,13 @@ public class NBTInputStream extends DataInputStream implements NBTInput, MaxDept
   }
 
   private static StringTag readString(NBTInputStream in) throws IOException {
-    return new StringTag(in.readUTF());
+    return new StringTag(in.readInterned());
   }
 
   private static ByteArrayTag readByteArray(NBTInputStream in) throws IOException {
     ByteArrayTag bat = new ByteArrayTag(new byte[in.readInt()]);
-    byte[] bytes = bat.getValue();
-    in.in.read(bytes, 0, bytes.length);
+    // A single read() may return fewer bytes than asked for, e.g. at an inflater's block boundary.
+    in.readFully(bat.getValue());
     return bat;
   }
 
@@ -124,7 +127,7 @@ public class NBTInputStream extends DataInputStream implements NBTInput, MaxDept
   private static CompoundTag readCompound(NBTInputStream in, int maxDepth) throws IOException {
     CompoundTag comp = new CompoundTag();
     for (int id = in.readByte() & 0xFF; id != 0; id = in.readByte() & 0xFF) {
-      String key = in.readUTF();
+      String key = in.readInterned();
       Tag<?> element = in.readTag((byte) id, in.decrementMaxDepth(maxDepth));
       comp.put(key, element);
     }
@@ -132,8 +135,14 @@ public class NBTInputStream extends DataInputStream implements NBTInput, MaxDept
   }
 
   public NamedTag readTag(int maxDepth) throws IOException {
+    strings = StringTable.forThread();
     byte id = readByte();
-    return new NamedTag(readUTF(), readTag(id, maxDepth));
+    return new NamedTag(readInterned(), readTag(id, maxDepth));
+  }
+
+  /** Reads a name or string through {@link #strings}, so recurring ones come back as one shared instance. */
+  private String readInterned() throws IOException {
+    return strings.read(this);
   }
 
   private Tag<?> readTag(byte type, int maxDepth) throws IOException {
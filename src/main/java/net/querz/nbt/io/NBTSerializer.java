@@ -5,6 +5,7 @@ import net.querz.nbt.tag.Tag;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.zip.GZIPOutputStream;
 
 public class NBTSerializer implements Serializer<NamedTag> {
@@ -17,7 +18,6 @@ public class NBTSerializer implements Serializer<NamedTag> {
 
   @Override
   public void toStream(NamedTag object, OutputStream out) throws IOException {
-    NBTOutput nbtOut;
     OutputStream output;
     if (compressed) {
       output = new GZIPOutputStream(out, true);
@@ -25,8 +25,8 @@ public class NBTSerializer implements Serializer<NamedTag> {
       output = out;
     }
 
-    nbtOut = new NBTOutputStream(output);
-    nbtOut.writeTag(object, Tag.DEFAULT_MAX_DEPTH);
-    nbtOut.flush();
+    ByteBuffer encoded = new NBTEncoder().encode(object, Tag.DEFAULT_MAX_DEPTH);
+    output.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+    output.flush();
   }
 }
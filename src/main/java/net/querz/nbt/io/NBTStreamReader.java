@@ -0,0 +1,265 @@
+package net.querz.nbt.io;
+
+import net.querz.io.MaxDepthIO;
+import net.querz.nbt.tag.ByteArrayTag;
+import net.querz.nbt.tag.ByteTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.DoubleTag;
+import net.querz.nbt.tag.EndTag;
+import net.querz.nbt.tag.FloatTag;
+import net.querz.nbt.tag.IntArrayTag;
+import net.querz.nbt.tag.IntTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.LongArrayTag;
+import net.querz.nbt.tag.LongTag;
+import net.querz.nbt.tag.ShortTag;
+import net.querz.nbt.tag.StringTag;
+import net.querz.nbt.tag.Tag;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Event-driven counterpart to {@link NBTInputStream}: reports an uncompressed NBT document to an
+ * {@link NBTVisitor} instead of building a tag tree. Values the visitor skips are stepped over in
+ * the input without being allocated, and a visitor that returns {@link NBTVisitor.Result#STOP}
+ * leaves the rest of the input unread, so a caller only looking for a few paths pays for little
+ * more than the bytes in front of them. Names and strings the visitor is shown come from the thread's
+ * {@link StringTable}, so the recurring ones are not decoded or allocated again.
+ */
+public class NBTStreamReader extends DataInputStream implements MaxDepthIO {
+
+  /** The reading thread's string table, taken up by each {@link #accept(NBTVisitor, int)}. */
+  private StringTable strings;
+
+  public NBTStreamReader(InputStream in) {
+    super(in);
+  }
+
+  /**
+   * Calls {@link #accept(NBTVisitor, int)} with {@link Tag#DEFAULT_MAX_DEPTH}.
+   */
+  public boolean accept(NBTVisitor visitor) throws IOException {
+    return accept(visitor, Tag.DEFAULT_MAX_DEPTH);
+  }
+
+  /**
+   * Reads one named root tag, reporting it to {@code visitor}.
+   *
+   * @return {@code false} if the visitor stopped reading early, {@code true} if the whole tag was read.
+   */
+  public boolean accept(NBTVisitor visitor, int maxDepth) throws IOException {
+    strings = StringTable.forThread();
+    byte id = readByte();
+    switch (visitor.visitEntry(id, readString())) {
+      case STOP:
+        return false;
+      case SKIP:
+        skipPayload(id, maxDepth);
+        return true;
+      default:
+        return readPayload(id, visitor, maxDepth);
+    }
+  }
+
+  private boolean readPayload(byte id, NBTVisitor visitor, int maxDepth) throws IOException {
+    switch (id) {
+      case EndTag.ID:
+        return true;
+      case ByteTag.ID:
+        return visitor.visitByte(readByte()) != NBTVisitor.Result.STOP;
+      case ShortTag.ID:
+        return visitor.visitShort(readShort()) != NBTVisitor.Result.STOP;
+      case IntTag.ID:
+        return visitor.visitInt(readInt()) != NBTVisitor.Result.STOP;
+      case LongTag.ID:
+        return visitor.visitLong(readLong()) != NBTVisitor.Result.STOP;
+      case FloatTag.ID:
+        return visitor.visitFloat(readFloat()) != NBTVisitor.Result.STOP;
+      case DoubleTag.ID:
+        return visitor.visitDouble(readDouble()) != NBTVisitor.Result.STOP;
+      case StringTag.ID:
+        return visitor.visitString(readString()) != NBTVisitor.Result.STOP;
+      case ByteArrayTag.ID: {
+        byte[] value = new byte[readLength()];
+        readFully(value);
+        return visitor.visitByteArray(value) != NBTVisitor.Result.STOP;
+      }
+      case IntArrayTag.ID: {
+        int[] value = new int[readLength()];
+        for (int i = 0; i < value.length; i++) {
+          value[i] = readInt();
+        }
+        return visitor.visitIntArray(value) != NBTVisitor.Result.STOP;
+      }
+      case LongArrayTag.ID: {
+        long[] value = new long[readLength()];
+        for (int i = 0; i < value.length; i++) {
+          value[i] = readLong();
+        }
+        return visitor.visitLongArray(value) != NBTVisitor.Result.STOP;
+      }
+      case ListTag.ID:
+        return readList(visitor, maxDepth);
+      case CompoundTag.ID:
+        return readCompound(visitor, maxDepth);
+      default:
+        throw new IOException("invalid tag id \"" + id + "\"");
+    }
+  }
+
+  private boolean readList(NBTVisitor visitor, int maxDepth) throws IOException {
+    byte elementId = readByte();
+    int length = Math.max(0, readInt());
+    switch (visitor.visitListStart(elementId, length)) {
+      case STOP:
+        return false;
+      case SKIP:
+        skipListElements(elementId, length, maxDepth);
+        return true;
+      default:
+        for (int i = 0; i < length; i++) {
+          if (!readPayload(elementId, visitor, decrementMaxDepth(maxDepth))) {
+            return false;
+          }
+        }
+        return visitor.visitListEnd() != NBTVisitor.Result.STOP;
+    }
+  }
+
+  private boolean readCompound(NBTVisitor visitor, int maxDepth) throws IOException {
+    switch (visitor.visitCompoundStart()) {
+      case STOP:
+        return false;
+      case SKIP:
+        skipCompound(maxDepth);
+        return true;
+      default:
+        for (byte id = readByte(); id != EndTag.ID; id = readByte()) {
+          String name = readString();
+          switch (visitor.visitEntry(id, name)) {
+            case STOP:
+              return false;
+            case SKIP:
+              skipPayload(id, decrementMaxDepth(maxDepth));
+              break;
+            default:
+              if (!readPayload(id, visitor, decrementMaxDepth(maxDepth))) {
+                return false;
+              }
+          }
+        }
+        return visitor.visitCompoundEnd() != NBTVisitor.Result.STOP;
+    }
+  }
+
+  private void skipPayload(byte id, int maxDepth) throws IOException {
+    switch (id) {
+      case EndTag.ID:
+        break;
+      case ByteTag.ID:
+        skipFully(1);
+        break;
+      case ShortTag.ID:
+        skipFully(2);
+        break;
+      case IntTag.ID:
+      case FloatTag.ID:
+        skipFully(4);
+        break;
+      case LongTag.ID:
+      case DoubleTag.ID:
+        skipFully(8);
+        break;
+      case StringTag.ID:
+        skipFully(readUnsignedShort());
+        break;
+      case ByteArrayTag.ID:
+        skipFully(readLength());
+        break;
+      case IntArrayTag.ID:
+        skipFully(4L * readLength());
+        break;
+      case LongArrayTag.ID:
+        skipFully(8L * readLength());
+        break;
+      case ListTag.ID: {
+        byte elementId = readByte();
+        skipListElements(elementId, Math.max(0, readInt()), maxDepth);
+        break;
+      }
+      case CompoundTag.ID:
+        skipCompound(maxDepth);
+        break;
+      default:
+        throw new IOException("invalid tag id \"" + id + "\"");
+    }
+  }
+
+  private void skipListElements(byte elementId, int length, int maxDepth) throws IOException {
+    int fixedSize = fixedPayloadSize(elementId);
+    if (fixedSize >= 0) {
+      skipFully((long) fixedSize * length);
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      skipPayload(elementId, decrementMaxDepth(maxDepth));
+    }
+  }
+
+  private void skipCompound(int maxDepth) throws IOException {
+    for (byte id = readByte(); id != EndTag.ID; id = readByte()) {
+      skipFully(readUnsignedShort());
+      skipPayload(id, decrementMaxDepth(maxDepth));
+    }
+  }
+
+  /** @return the payload size of a fixed-width tag type, or -1 if it is variable-length. */
+  private static int fixedPayloadSize(byte id) {
+    switch (id) {
+      case EndTag.ID:
+        return 0;
+      case ByteTag.ID:
+        return 1;
+      case ShortTag.ID:
+        return 2;
+      case IntTag.ID:
+      case FloatTag.ID:
+        return 4;
+      case LongTag.ID:
+      case DoubleTag.ID:
+        return 8;
+      default:
+        return -1;
+    }
+  }
+
+  /** Reads a name or string through {@link #strings}, so recurring ones come back as one shared instance. */
+  private String readString() throws IOException {
+    return strings.read(this);
+  }
+
+  private int readLength() throws IOException {
+    int length = readInt();
+    if (length < 0) {
+      throw new IOException("negative array length " + length);
+    }
+    return length;
+  }
+
+  private void skipFully(long n) throws IOException {
+    while (n > 0) {
+      long skipped = in.skip(n);
+      if (skipped <= 0) {
+        // skip() may legitimately return 0 before EOF; fall back to read() to tell the two apart.
+        if (in.read() < 0) {
+          throw new EOFException();
+        }
+        skipped = 1;
+      }
+      n -= skipped;
+    }
+  }
+}
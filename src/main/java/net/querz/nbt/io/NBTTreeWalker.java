@@ -0,0 +1,119 @@
+package net.querz.nbt.io;
+
+import net.querz.io.MaxDepthIO;
+import net.querz.nbt.tag.ByteArrayTag;
+import net.querz.nbt.tag.ByteTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.DoubleTag;
+import net.querz.nbt.tag.FloatTag;
+import net.querz.nbt.tag.IntArrayTag;
+import net.querz.nbt.tag.IntTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.LongArrayTag;
+import net.querz.nbt.tag.LongTag;
+import net.querz.nbt.tag.ShortTag;
+import net.querz.nbt.tag.StringTag;
+import net.querz.nbt.tag.Tag;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Replays an in-memory tag tree to an {@link NBTVisitor} with the same events
+ * {@link NBTStreamReader} would produce for its serialized form, so a visitor can serve both
+ * parsed and streamed data.
+ */
+public final class NBTTreeWalker implements MaxDepthIO {
+
+  private static final NBTTreeWalker INSTANCE = new NBTTreeWalker();
+
+  private NBTTreeWalker() {
+  }
+
+  /**
+   * Reports {@code tag} to {@code visitor} as a root tag named {@code name}.
+   *
+   * @return {@code false} if the visitor stopped early, {@code true} otherwise.
+   */
+  public static boolean accept(NamedTag tag, NBTVisitor visitor) throws IOException {
+    Tag<?> root = tag.getTag();
+    switch (visitor.visitEntry(root.getID(), tag.getName() == null ? "" : tag.getName())) {
+      case STOP:
+        return false;
+      case SKIP:
+        return true;
+      default:
+        return INSTANCE.walk(root, visitor, Tag.DEFAULT_MAX_DEPTH);
+    }
+  }
+
+  private boolean walk(Tag<?> tag, NBTVisitor visitor, int maxDepth) throws IOException {
+    switch (tag.getID()) {
+      case ByteTag.ID:
+        return visitor.visitByte(((ByteTag) tag).asByte()) != NBTVisitor.Result.STOP;
+      case ShortTag.ID:
+        return visitor.visitShort(((ShortTag) tag).asShort()) != NBTVisitor.Result.STOP;
+      case IntTag.ID:
+        return visitor.visitInt(((IntTag) tag).asInt()) != NBTVisitor.Result.STOP;
+      case LongTag.ID:
+        return visitor.visitLong(((LongTag) tag).asLong()) != NBTVisitor.Result.STOP;
+      case FloatTag.ID:
+        return visitor.visitFloat(((FloatTag) tag).asFloat()) != NBTVisitor.Result.STOP;
+      case DoubleTag.ID:
+        return visitor.visitDouble(((DoubleTag) tag).asDouble()) != NBTVisitor.Result.STOP;
+      case StringTag.ID:
+        return visitor.visitString(((StringTag) tag).getValue()) != NBTVisitor.Result.STOP;
+      case ByteArrayTag.ID:
+        return visitor.visitByteArray(((ByteArrayTag) tag).getValue()) != NBTVisitor.Result.STOP;
+      case IntArrayTag.ID:
+        return visitor.visitIntArray(((IntArrayTag) tag).getValue()) != NBTVisitor.Result.STOP;
+      case LongArrayTag.ID:
+        return visitor.visitLongArray(((LongArrayTag) tag).getValue()) != NBTVisitor.Result.STOP;
+      case ListTag.ID:
+        return walkList((ListTag<?>) tag, visitor, maxDepth);
+      case CompoundTag.ID:
+        return walkCompound((CompoundTag) tag, visitor, maxDepth);
+      default:
+        return true;
+    }
+  }
+
+  private boolean walkList(ListTag<?> list, NBTVisitor visitor, int maxDepth) throws IOException {
+    switch (visitor.visitListStart(NBTOutputStream.idFromClass(list.getTypeClass()), list.size())) {
+      case STOP:
+        return false;
+      case SKIP:
+        return true;
+      default:
+        for (Tag<?> element : list) {
+          if (!walk(element, visitor, decrementMaxDepth(maxDepth))) {
+            return false;
+          }
+        }
+        return visitor.visitListEnd() != NBTVisitor.Result.STOP;
+    }
+  }
+
+  private boolean walkCompound(CompoundTag compound, NBTVisitor visitor, int maxDepth) throws IOException {
+    switch (visitor.visitCompoundStart()) {
+      case STOP:
+        return false;
+      case SKIP:
+        return true;
+      default:
+        for (Map.Entry<String, Tag<?>> entry : compound) {
+          switch (visitor.visitEntry(entry.getValue().getID(), entry.getKey())) {
+            case STOP:
+              return false;
+            case SKIP:
+              break;
+            default:
+              if (!walk(entry.getValue(), visitor, decrementMaxDepth(maxDepth))) {
+                return false;
+              }
+          }
+        }
+        return visitor.visitCompoundEnd() != NBTVisitor.Result.STOP;
+    }
+  }
+}
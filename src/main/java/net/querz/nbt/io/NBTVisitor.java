@@ -0,0 +1,90 @@
+package net.querz.nbt.io;
+
+import java.io.IOException;
+
+/**
+ * Receives the structure of an NBT document one event at a time, SAX-style, as it is read by
+ * {@link NBTStreamReader} (or replayed from a tag tree by {@link NBTTreeWalker}), without a
+ * {@link net.querz.nbt.tag.Tag} tree ever being built.
+ *
+ * <p>Every callback returns a {@link Result} steering the reader:</p>
+ * <ul>
+ *   <li>{@link Result#CONTINUE} reads on as normal.</li>
+ *   <li>{@link Result#SKIP} skips the value just announced by {@link #visitEntry}, or the rest of
+ *       the container just opened by {@link #visitListStart}/{@link #visitCompoundStart}, without
+ *       allocating it. A skipped container gets no matching end event. Returned from any other
+ *       callback it behaves like {@code CONTINUE}.</li>
+ *   <li>{@link Result#STOP} ends reading immediately; the rest of the input is left unread.</li>
+ * </ul>
+ *
+ * <p>All callbacks default to {@code CONTINUE}, so implementations only override what they need.
+ * Values arrive in document order: {@code visitEntry} announces each named compound member (and the
+ * root tag), followed by that member's value event(s). List elements have no entry event; their
+ * values follow {@code visitListStart} directly.</p>
+ */
+public interface NBTVisitor {
+
+  enum Result { CONTINUE, SKIP, STOP }
+
+  /** A named compound member (or the root tag) of type {@code id}; its value follows unless skipped. */
+  default Result visitEntry(byte id, String name) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitCompoundStart() throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitCompoundEnd() throws IOException {
+    return Result.CONTINUE;
+  }
+
+  /** A list of {@code length} elements of type {@code elementId}; the elements follow unless skipped. */
+  default Result visitListStart(byte elementId, int length) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitListEnd() throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitByte(byte value) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitShort(short value) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitInt(int value) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitLong(long value) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitFloat(float value) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitDouble(double value) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitString(String value) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitByteArray(byte[] value) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitIntArray(int[] value) throws IOException {
+    return Result.CONTINUE;
+  }
+
+  default Result visitLongArray(long[] value) throws IOException {
+    return Result.CONTINUE;
+  }
+}
@@ -0,0 +1,174 @@
+package net.querz.nbt.io;
+
+import net.querz.io.Threads;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns the modified UTF-8 of NBT names and strings into {@link String}s, handing out one shared
+ * instance per distinct short ASCII string instead of a new one per read. Chunk NBT reuses a small
+ * vocabulary ({@code Name}, {@code Properties}, {@code palette}, {@code data}, {@code Y}, block names
+ * such as {@code minecraft:air}) thousands of times per region, so nearly every read is a hit:
+ * the raw bytes are hashed and compared against the table in place, and nothing is decoded or
+ * allocated.
+ *
+ * <p>The table starts with that vocabulary and learns other ASCII strings of up to
+ * {@link #MAX_LENGTH} bytes as they are read, until {@link #CAPACITY} are held; after that, new
+ * strings are decoded but not kept.</p>
+ *
+ * <p>Tables are per thread, see {@link #forThread()}, and are not thread-safe. A table only pays off
+ * once it has learned a thread's strings, which a virtual thread, running one file and ending, never
+ * gets to; virtual threads share one table instead that holds just the starting vocabulary and
+ * learns nothing, so it can be read by any number of threads at once.</p>
+ */
+final class StringTable {
+
+  /** Longest string, in bytes, the table learns. */
+  static final int MAX_LENGTH = 64;
+  /** Most strings a table holds. */
+  static final int CAPACITY = 4096;
+  /** Twice {@link #CAPACITY}, so probes stay short and always reach an empty slot. */
+  private static final int SLOTS = CAPACITY * 2;
+
+  private static final String[] VOCABULARY = {
+      // Chunk keys, every era
+      "DataVersion", "Level", "xPos", "yPos", "zPos", "Status", "LastUpdate", "InhabitedTime",
+      "isLightOn", "Heightmaps", "PostProcessing", "structures", "Structures", "References", "Starts",
+      "sections", "Sections", "Y", "block_states", "biomes", "palette", "Palette", "data", "BlockStates",
+      "BlockLight", "SkyLight", "Name", "Properties", "Blocks", "Add", "Data", "Biomes", "HeightMap",
+      "LightPopulated", "TerrainPopulated", "V", "CarvingMasks", "Lights", "ToBeTicked", "LiquidsToBeTicked",
+      "TileTicks", "LiquidTicks", "block_ticks", "fluid_ticks", "Entities", "TileEntities", "block_entities",
+      "MOTION_BLOCKING", "MOTION_BLOCKING_NO_LEAVES", "OCEAN_FLOOR", "OCEAN_FLOOR_WG", "WORLD_SURFACE",
+      "WORLD_SURFACE_WG", "id", "x", "y", "z", "i", "p", "t", "keepPacked", "Pos", "Motion", "Rotation",
+      "UUID", "Position",
+      // Values the keep/prune decision looks for
+      "minecraft:air", "minecraft:cave_air", "minecraft:void_air", "minecraft:plains",
+      // Common values
+      "minecraft:full", "full", "minecraft:stone", "minecraft:deepslate", "minecraft:bedrock",
+      "minecraft:dirt", "minecraft:grass_block", "minecraft:water", "minecraft:lava",
+      "axis", "facing", "half", "waterlogged", "level", "snowy", "type", "true", "false"
+  };
+
+  private static final ThreadLocal<StringTable> TABLES = ThreadLocal.withInitial(() -> new StringTable(true));
+  private static final StringTable VOCABULARY_ONLY = new StringTable(false);
+
+  /** Held strings by slot; a string's slot follows from its hash, probed linearly. */
+  private final String[] strings = new String[SLOTS];
+  private int size;
+  /** Whether strings read are added to the table; {@code false} for the table shared between threads. */
+  private final boolean learns;
+  /** Holds a string read by {@link #read} while it is looked up; {@code null} unless the table learns. */
+  private byte[] scratch;
+
+  private StringTable(boolean learns) {
+    this.learns = learns;
+    this.scratch = learns ? new byte[256] : null;
+    for (String s : VOCABULARY) {
+      int slot = spread(s.hashCode()) & SLOTS - 1;
+      while (strings[slot] != null) {
+        slot = slot + 1 & SLOTS - 1;
+      }
+      strings[slot] = s;
+      size++;
+    }
+  }
+
+  /** @return the calling thread's table, or on a virtual thread the shared vocabulary-only one. */
+  static StringTable forThread() {
+    return Threads.isVirtual() ? VOCABULARY_ONLY : TABLES.get();
+  }
+
+  /** Reads a string written by {@link java.io.DataOutput#writeUTF}. */
+  String read(DataInput in) throws IOException {
+    int length = in.readUnsignedShort();
+    byte[] bytes = scratch;
+    if (bytes == null) {
+      bytes = new byte[length];
+    } else if (bytes.length < length) {
+      bytes = scratch = new byte[Math.max(length, bytes.length * 2)];
+    }
+    in.readFully(bytes, 0, length);
+    return get(bytes, 0, length);
+  }
+
+  /** @return the string held by {@code length} bytes of modified UTF-8 at {@code offset}. */
+  String get(byte[] bytes, int offset, int length) throws UTFDataFormatException {
+    // Plain ASCII hashes like the String it spells, so it can be matched without decoding.
+    int hash = 0;
+    int ascii = 0;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      byte b = bytes[i];
+      hash = 31 * hash + b;
+      ascii |= b;
+    }
+    if (ascii < 0) {
+      return decode(bytes, offset, length);
+    }
+    if (length > MAX_LENGTH) {
+      return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+    for (int slot = spread(hash) & SLOTS - 1; ; slot = slot + 1 & SLOTS - 1) {
+      String s = strings[slot];
+      if (s == null) {
+        // Plain ASCII reads the same in Latin-1, which is a straight copy.
+        s = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        if (learns && size < CAPACITY) {
+          strings[slot] = s;
+          size++;
+        }
+        return s;
+      }
+      if (s.hashCode() == hash && matches(s, bytes, offset, length)) {
+        return s;
+      }
+    }
+  }
+
+  private static boolean matches(String s, byte[] bytes, int offset, int length) {
+    if (s.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (s.charAt(i) != bytes[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ hash >>> 16;
+  }
+
+  /** Decodes modified UTF-8, as written by {@link java.io.DataOutput#writeUTF}. */
+  private static String decode(byte[] bytes, int offset, int length) throws UTFDataFormatException {
+    char[] chars = new char[length];
+    int count = 0;
+    int end = offset + length;
+    for (int i = offset; i < end; ) {
+      int a = bytes[i] & 0xFF;
+      if (a < 0x80) {
+        chars[count++] = (char) a;
+        i++;
+      } else if ((a & 0xE0) == 0xC0) {
+        if (i + 1 >= end || (bytes[i + 1] & 0xC0) != 0x80) {
+          throw new UTFDataFormatException("malformed input around byte " + (i - offset));
+        }
+        chars[count++] = (char) ((a & 0x1F) << 6 | bytes[i + 1] & 0x3F);
+        i += 2;
+      } else if ((a & 0xF0) == 0xE0) {
+        if (i + 2 >= end || (bytes[i + 1] & 0xC0) != 0x80 || (bytes[i + 2] & 0xC0) != 0x80) {
+          throw new UTFDataFormatException("malformed input around byte " + (i - offset));
+        }
+        chars[count++] = (char) ((a & 0x0F) << 12 | (bytes[i + 1] & 0x3F) << 6 | bytes[i + 2] & 0x3F);
+        i += 3;
+      } else {
+        throw new UTFDataFormatException("malformed input around byte " + (i - offset));
+      }
+    }
+    return new String(chars, 0, count);
+  }
+}
@@ -0,0 +1,311 @@
+package net.querz.nbt.tag;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The map behind a {@link CompoundTag}: keys and values in two flat arrays, in insertion order.
+ * Most compounds in a chunk are tiny (a palette entry holds just {@code Name} and
+ * {@code Properties}), so up to {@link #LINEAR_LIMIT} entries a key is found by scanning the keys;
+ * past that an open-addressing index of positions, probed linearly, is kept alongside. Nothing is
+ * allocated per entry, unlike {@link java.util.HashMap}'s nodes, and entries read back in the order
+ * they were put, so a compound is written in the order it was read.
+ *
+ * <p>Null keys and values are not allowed, including through {@link Map.Entry#setValue}.
+ * Removing an entry shifts the ones after it and rebuilds the index, which compounds rarely need.</p>
+ */
+final class CompoundMap extends AbstractMap<String, Tag<?>> {
+
+  /** Largest size at which keys are scanned rather than looked up in {@link #index}. */
+  static final int LINEAR_LIMIT = 8;
+  private static final int DEFAULT_CAPACITY = 4;
+  private static final String[] EMPTY_KEYS = {};
+  private static final Tag<?>[] EMPTY_VALUES = {};
+
+  private String[] keys;
+  private Tag<?>[] values;
+  private int size;
+  /** Position + 1 of the entry hashed to each slot, 0 for an empty slot; {@code null} while small. */
+  private int[] index;
+  private int modCount;
+  private Set<Map.Entry<String, Tag<?>>> entrySet;
+
+  CompoundMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  CompoundMap(int initialCapacity) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("illegal capacity " + initialCapacity);
+    }
+    keys = initialCapacity == 0 ? EMPTY_KEYS : new String[initialCapacity];
+    values = initialCapacity == 0 ? EMPTY_VALUES : new Tag<?>[initialCapacity];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return find(key) >= 0;
+  }
+
+  @Override
+  public Tag<?> get(Object key) {
+    int i = find(key);
+    return i < 0 ? null : values[i];
+  }
+
+  @Override
+  public Tag<?> put(String key, Tag<?> value) {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    int i = find(key);
+    if (i >= 0) {
+      Tag<?> old = values[i];
+      values[i] = value;
+      return old;
+    }
+    if (size == keys.length) {
+      int capacity = Math.max(DEFAULT_CAPACITY, size * 2);
+      keys = Arrays.copyOf(keys, capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+    keys[size] = key;
+    values[size] = value;
+    size++;
+    modCount++;
+    if (index != null && size * 2 <= index.length) {
+      insert(index, key, size - 1);
+    } else if (size > LINEAR_LIMIT) {
+      rebuildIndex();
+    }
+    return null;
+  }
+
+  @Override
+  public Tag<?> remove(Object key) {
+    int i = find(key);
+    if (i < 0) {
+      return null;
+    }
+    Tag<?> old = values[i];
+    removeAt(i);
+    return old;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(keys, 0, size, null);
+    Arrays.fill(values, 0, size, null);
+    size = 0;
+    index = null;
+    modCount++;
+  }
+
+  @Override
+  public Set<Map.Entry<String, Tag<?>>> entrySet() {
+    Set<Map.Entry<String, Tag<?>>> entries = entrySet;
+    return entries != null ? entries : (entrySet = new EntrySet());
+  }
+
+  private int find(Object key) {
+    if (key == null) {
+      return -1;
+    }
+    int[] index = this.index;
+    if (index == null) {
+      String[] keys = this.keys;
+      for (int i = 0; i < size; i++) {
+        if (key.equals(keys[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    int mask = index.length - 1;
+    for (int slot = hash(key) & mask; ; slot = slot + 1 & mask) {
+      int position = index[slot];
+      if (position == 0) {
+        return -1;
+      }
+      if (key.equals(keys[position - 1])) {
+        return position - 1;
+      }
+    }
+  }
+
+  private void removeAt(int i) {
+    int moved = size - i - 1;
+    System.arraycopy(keys, i + 1, keys, i, moved);
+    System.arraycopy(values, i + 1, values, i, moved);
+    size--;
+    keys[size] = null;
+    values[size] = null;
+    modCount++;
+    if (index != null) {
+      rebuildIndex();
+    }
+  }
+
+  /** Sizes the index to keep it at most half full as the arrays fill, and refills it. */
+  private void rebuildIndex() {
+    if (size <= LINEAR_LIMIT) {
+      index = null;
+      return;
+    }
+    int slots = Integer.highestOneBit(Math.max(keys.length, size) * 2 - 1) << 1;
+    int[] rebuilt = new int[slots];
+    for (int i = 0; i < size; i++) {
+      insert(rebuilt, keys[i], i);
+    }
+    index = rebuilt;
+  }
+
+  private static void insert(int[] index, String key, int position) {
+    int mask = index.length - 1;
+    int slot = hash(key) & mask;
+    while (index[slot] != 0) {
+      slot = slot + 1 & mask;
+    }
+    index[slot] = position + 1;
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ h >>> 16;
+  }
+
+  private final class EntrySet extends AbstractSet<Map.Entry<String, Tag<?>>> {
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      int i = find(e.getKey());
+      return i >= 0 && values[i].equals(e.getValue());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      if (!contains(o)) {
+        return false;
+      }
+      removeAt(find(((Map.Entry<?, ?>) o).getKey()));
+      return true;
+    }
+
+    @Override
+    public void clear() {
+      CompoundMap.this.clear();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, Tag<?>>> iterator() {
+      return new EntryIterator();
+    }
+  }
+
+  private final class EntryIterator implements Iterator<Map.Entry<String, Tag<?>>> {
+
+    private int next;
+    private int last = -1;
+    private int expectedModCount = modCount;
+
+    @Override
+    public boolean hasNext() {
+      return next < size;
+    }
+
+    @Override
+    public Map.Entry<String, Tag<?>> next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (next >= size) {
+        throw new NoSuchElementException();
+      }
+      last = next++;
+      return new Entry(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeAt(last);
+      next = last;
+      last = -1;
+      expectedModCount = modCount;
+    }
+  }
+
+  /** A view of the entry at a position, as long as no entry before it is removed. */
+  private final class Entry implements Map.Entry<String, Tag<?>> {
+
+    private final int position;
+
+    Entry(int position) {
+      this.position = position;
+    }
+
+    @Override
+    public String getKey() {
+      return keys[position];
+    }
+
+    @Override
+    public Tag<?> getValue() {
+      return values[position];
+    }
+
+    @Override
+    public Tag<?> setValue(Tag<?> value) {
+      if (value == null) {
+        throw new NullPointerException(CompoundTag.class.getSimpleName() + " does not allow setting null");
+      }
+      Tag<?> old = values[position];
+      values[position] = value;
+      return old;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      return getKey().equals(e.getKey()) && getValue().equals(e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return getKey().hashCode() ^ getValue().hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + "=" + getValue();
+    }
+  }
+}
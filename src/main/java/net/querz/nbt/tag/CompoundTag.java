@@ -3,7 +3,6 @@ package net.querz.nbt.tag;
 import net.querz.io.MaxDepthIO;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
@@ -19,11 +18,11 @@ public class CompoundTag extends Tag<Map<String, Tag<?>>>
   }
 
   public CompoundTag(int initialCapacity) {
-    super(new HashMap<>(initialCapacity));
+    super(new CompoundMap(initialCapacity));
   }
 
   private static Map<String, Tag<?>> createEmptyValue() {
-    return new HashMap<>(8);
+    return new CompoundMap();
   }
 
   @Override
@@ -44,7 +43,7 @@ public class CompoundTag extends Tag<Map<String, Tag<?>>>
   }
 
   public Set<Map.Entry<String, Tag<?>>> entrySet() {
-    return new NonNullEntrySet<>(getValue().entrySet());
+    return getValue().entrySet();
   }
 
   @Override
@@ -187,8 +186,7 @@ public class CompoundTag extends Tag<Map<String, Tag<?>>>
 
   @Override
   public CompoundTag clone() {
-    // Choose initial capacity based on default load factor (0.75) so all entries fit in map without resizing
-    CompoundTag copy = new CompoundTag((int) Math.ceil(getValue().size() / 0.75f));
+    CompoundTag copy = new CompoundTag(getValue().size());
     for (Map.Entry<String, Tag<?>> e : getValue().entrySet()) {
       copy.put(e.getKey(), e.getValue().clone());
     }
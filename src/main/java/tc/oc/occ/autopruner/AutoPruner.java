@@ -1,13 +1,8 @@
 package tc.oc.occ.autopruner;
 
-import net.querz.mca.Chunk;
-import net.querz.mca.MCAFile;
-import net.querz.mca.MCAUtil;
-
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.text.DecimalFormat;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
@@ -34,7 +29,23 @@ public interface AutoPruner {
 
   /** Prunes (or, when {@code dryRun}, only previews) a single region file via the shared logger. */
   static void pruneMCAFileLogger(String filePath, boolean dryRun) {
-    pruneMCAFile(filePath, logger::info, logger::warning, dryRun, null);
+    pruneMCAFileLogger(filePath, dryRun, null);
+  }
+
+  /**
+   * Prunes (or previews) a single region file via the shared logger, decoding its chunks across
+   * {@code chunkPool} when it is non-null.
+   */
+  static void pruneMCAFileLogger(String filePath, boolean dryRun, ForkJoinPool chunkPool) {
+    pruneMCAFileLogger(filePath, dryRun, chunkPool, null);
+  }
+
+  /**
+   * Prunes (or previews) a single region file via the shared logger, skipping it if {@code index}
+   * shows it unchanged since it was last found fully pruned.
+   */
+  static void pruneMCAFileLogger(String filePath, boolean dryRun, ForkJoinPool chunkPool, RunIndex index) {
+    pruneMCAFile(filePath, logger::info, logger::warning, dryRun, null, chunkPool, index);
   }
 
   /** Recursively prunes a directory tree, logging through the shared logger. */
@@ -49,8 +60,32 @@ public interface AutoPruner {
    * logger, printing a per-era summary once {@link #SUMMARY_THRESHOLD} files have changed.
    */
   static long recursivelyProcessFiles(File file, long depth, boolean dryRun) {
+    return recursivelyProcessFiles(file, depth, dryRun, null);
+  }
+
+  /**
+   * Like {@link #recursivelyProcessFiles(File, long, boolean)}, decoding the chunks of each region
+   * file across {@code chunkPool} when it is non-null.
+   */
+  static long recursivelyProcessFiles(File file, long depth, boolean dryRun, ForkJoinPool chunkPool) {
+    return recursivelyProcessFiles(file, depth, dryRun, chunkPool, null);
+  }
+
+  /**
+   * Like {@link #recursivelyProcessFiles(File, long, boolean, ForkJoinPool)}, skipping region files
+   * that {@code index} shows unchanged since they were last found fully pruned.
+   */
+  static long recursivelyProcessFiles(File file, long depth, boolean dryRun, ForkJoinPool chunkPool, RunIndex index) {
+    return recursivelyProcessFiles(file, depth, dryRun, chunkPool, index, null);
+  }
+
+  /**
+   * Like {@link #recursivelyProcessFiles(File, long, boolean, ForkJoinPool, RunIndex)}, counting
+   * each finished region file into {@code progress} when it is non-null.
+   */
+  static long recursivelyProcessFiles(File file, long depth, boolean dryRun, ForkJoinPool chunkPool, RunIndex index, Progress progress) {
     PruneSummary summary = new PruneSummary();
-    long sizeDeleted = recursivelyProcessFiles(file, depth, logger::info, logger::warning, dryRun, summary);
+    long sizeDeleted = recursivelyProcessFiles(file, depth, logger::info, logger::warning, dryRun, summary, chunkPool, index, progress);
     logger.info((dryRun ? "Would delete " : "Deleted ") + readableFileSize(sizeDeleted) + " from: " + file.getAbsolutePath());
     if (summary.changedFiles() >= SUMMARY_THRESHOLD) {
       logger.info(System.lineSeparator() + summary.format(dryRun));
@@ -81,31 +116,49 @@ public interface AutoPruner {
    * @return bytes removed
    */
   static long recursivelyProcessFiles(File file, long depth, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun, PruneSummary summary) {
-    if (depth > MAX_RECURSION_DEPTH) {
-      return 0;
-    }
-    long sizeDeleted = 0;
-    File[] files = file.listFiles();
-    if (files != null) {
-      for (File childFile : files) {
-        if (childFile.isDirectory()) {
-          sizeDeleted += recursivelyProcessFiles(childFile, depth + 1, infoLogging, warnLogging, dryRun, summary);
-        } else if (childFile.isFile() && childFile.getName().endsWith(".mca")) {
-          sizeDeleted += pruneMCAFile(childFile.getAbsolutePath(), infoLogging, warnLogging, dryRun, summary);
-        }
-      }
-    }
-    return sizeDeleted;
+    return recursivelyProcessFiles(file, depth, infoLogging, warnLogging, dryRun, summary, null);
+  }
+
+  /**
+   * Like {@link #recursivelyProcessFiles(File, long, Consumer, Consumer, boolean, PruneSummary)},
+   * decoding the chunks of each region file across {@code chunkPool} when it is non-null.
+   *
+   * @return bytes removed
+   */
+  static long recursivelyProcessFiles(File file, long depth, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun, PruneSummary summary, ForkJoinPool chunkPool) {
+    return recursivelyProcessFiles(file, depth, infoLogging, warnLogging, dryRun, summary, chunkPool, null);
+  }
+
+  /**
+   * Like {@link #recursivelyProcessFiles(File, long, Consumer, Consumer, boolean, PruneSummary, ForkJoinPool)},
+   * consulting and updating {@code index} when it is non-null.
+   *
+   * @return bytes removed
+   */
+  static long recursivelyProcessFiles(File file, long depth, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun, PruneSummary summary, ForkJoinPool chunkPool, RunIndex index) {
+    return recursivelyProcessFiles(file, depth, infoLogging, warnLogging, dryRun, summary, chunkPool, index, null);
+  }
+
+  /**
+   * Like {@link #recursivelyProcessFiles(File, long, Consumer, Consumer, boolean, PruneSummary, ForkJoinPool, RunIndex)},
+   * counting each finished region file into {@code progress} when it is non-null. A world's
+   * {@code region}, {@code entities} and {@code poi} files for one {@code r.X.Z} are pruned
+   * together, as a {@link RegionGroup}, when all of them lie under {@code file}.
+   *
+   * @return bytes removed
+   */
+  static long recursivelyProcessFiles(File file, long depth, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun, PruneSummary summary, ForkJoinPool chunkPool, RunIndex index, Progress progress) {
+    return RegionGroup.pruneTree(file, depth, file.toPath().toAbsolutePath(), (path, group) ->
+        new RegionPrune(path.toString(), infoLogging, warnLogging, dryRun, summary, chunkPool, index, null, group, progress));
   }
 
   /**
-   * Locates and reads the sibling entity region for a block region file. In modern worlds
-   * (1.17+) entities are stored under {@code entities/r.X.Z.mca} next to the block
-   * {@code region/r.X.Z.mca}. Returns {@code null} when the file is not laid out that way or the
-   * sibling cannot be read.
+   * @return where the entity region for a block region file lives ({@code entities/r.X.Z.mca} next
+   * to {@code region/r.X.Z.mca}), whether or not it exists; {@code null} when the file is not laid
+   * out that way.
    */
-  static MCAFile readSiblingEntityRegion(File regionFile) {
-    File regionDir = regionFile.getParentFile();
+  static File siblingEntityFile(File regionFile) {
+    File regionDir = regionFile.getAbsoluteFile().getParentFile();
     if (regionDir == null || !"region".equals(regionDir.getName())) {
       return null;
     }
@@ -113,15 +166,7 @@ public interface AutoPruner {
     if (worldDir == null) {
       return null;
     }
-    File entityFile = new File(new File(worldDir, "entities"), regionFile.getName());
-    if (!entityFile.isFile()) {
-      return null;
-    }
-    try {
-      return MCAUtil.read(entityFile);
-    } catch (Exception e) {
-      return null; // Best effort: treat an unreadable entity region as no entity data.
-    }
+    return new File(new File(worldDir, "entities"), regionFile.getName());
   }
 
   /** Prunes a single region file without logging; returns bytes removed. */
@@ -147,96 +192,40 @@ public interface AutoPruner {
    * @return bytes removed
    */
   static long pruneMCAFile(String path, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun, PruneSummary summary) {
-    long sizeChange = 0;
-    boolean actionTaken = false;
-    int removedChunks = 0;
-    try {
-      File regionFile = new File(path);
-      long initialSize = regionFile.length();
-      MCAFile mcaFile = MCAUtil.read(regionFile);
-      // From 1.17 onwards entities live in a sibling "entities" region; consult it so we never
-      // prune a block chunk that still has entity data stored alongside it.
-      MCAFile entityRegion = readSiblingEntityRegion(regionFile);
-      boolean regionFileEmpty = true;
-      Chunk versionSample = null;
-      boolean mixedVersions = false;
-
-      for (int i = 0; i < MCAFile.CHUNK_COUNT; i++) {
-        Chunk chunk = mcaFile.getChunk(i);
-        if (chunk == null) {
-          continue;
-        }
-        if (versionSample == null) {
-          versionSample = chunk;
-        } else if (chunk.getDataVersion() != versionSample.getDataVersion()) {
-          mixedVersions = true;
-        }
-        if (chunk.changesMade()) {
-          actionTaken = true;
-        }
-        Chunk entityChunk = entityRegion == null ? null : entityRegion.getChunk(i);
-        if (chunk.hasContent(entityChunk)) {
-          regionFileEmpty = false;
-        } else {
-          mcaFile.setChunk(i, null);
-          actionTaken = true;
-          removedChunks++;
-        }
-      }
-
-      String era = versionSample == null ? "empty region file" : versionSample.versionEra();
-      String version = versionSample == null ? ""
-          : " (" + versionSample.describeVersion() + (mixedVersions ? ", mixed" : "") + ")";
-
-      if (regionFileEmpty) {
-        if (!dryRun) {
-          Files.deleteIfExists(Paths.get(path));
-        }
-        sizeChange = initialSize;
-        if (summary != null) {
-          summary.record(era, PruneSummary.Outcome.DELETED, removedChunks, sizeChange);
-        }
-        infoLogging.accept((dryRun ? "Would delete file (" : "Deleted file (") + readableFileSize(initialSize) + ") : " + path + version);
-      } else if (actionTaken) {
-        if (!dryRun) {
-          MCAUtil.write(mcaFile, path);
-          sizeChange = initialSize - regionFile.length();
-        }
-        if (summary != null) {
-          summary.record(era, PruneSummary.Outcome.PRUNED, removedChunks, sizeChange);
-        }
-        if (dryRun) {
-          infoLogging.accept("Would prune " + removedChunks + " empty chunk(s) from: " + path + version);
-        } else {
-          infoLogging.accept("Deleted " + readableFileSize(sizeChange) + " from: " + path + version);
-        }
-      } else if (mcaFile.hasReclaimableSpace()) {
-        // No empty chunks, but the file wastes sectors (gaps, trailing padding, over-allocated
-        // slots). Rewriting it back-to-back reclaims that space without altering chunk content.
-        if (!dryRun) {
-          MCAUtil.write(mcaFile, path);
-          sizeChange = initialSize - regionFile.length();
-        } else {
-          sizeChange = mcaFile.getReclaimableBytes(); // estimate; the real rewrite measures exactly
-        }
-        if (summary != null) {
-          summary.record(era, PruneSummary.Outcome.COMPACTED, 0, sizeChange);
-        }
-        if (dryRun) {
-          infoLogging.accept("Would compact (reclaim ~" + readableFileSize(sizeChange) + "): " + path + version);
-        } else {
-          infoLogging.accept("Compacted " + readableFileSize(sizeChange) + " from: " + path + version);
-        }
-      } else {
-        if (summary != null) {
-          summary.record(era, PruneSummary.Outcome.SKIPPED, 0, 0);
-        }
-        infoLogging.accept("Skipping already Pruned File: " + path + version);
-      }
-    } catch (Exception e) {
-      warnLogging.accept("Failed to parse file: " + path + ", " + e.getMessage());
-    }
-    return sizeChange;
+    return pruneMCAFile(path, infoLogging, warnLogging, dryRun, summary, null);
+  }
+
+  /**
+   * Like {@link #pruneMCAFile(String, Consumer, Consumer, boolean, PruneSummary)}, inflating and
+   * scanning the region's chunks (and its entity sibling's) across {@code chunkPool} when it is
+   * non-null, so a single huge region file is not decoded on one core.
+   *
+   * @return bytes removed
+   */
+  static long pruneMCAFile(String path, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun, PruneSummary summary, ForkJoinPool chunkPool) {
+    return pruneMCAFile(path, infoLogging, warnLogging, dryRun, summary, chunkPool, null);
+  }
+
+  /**
+   * Like {@link #pruneMCAFile(String, Consumer, Consumer, boolean, PruneSummary, ForkJoinPool)}, but
+   * when {@code index} is non-null a file it shows unchanged since it was last found fully pruned is
+   * skipped without being opened, and each file left fully pruned is recorded into it.
+   *
+   * @return bytes removed
+   */
+  static long pruneMCAFile(String path, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun, PruneSummary summary, ForkJoinPool chunkPool, RunIndex index) {
+    return pruneMCAFile(path, infoLogging, warnLogging, dryRun, summary, chunkPool, index, null);
+  }
+
+  /**
+   * Like {@link #pruneMCAFile(String, Consumer, Consumer, boolean, PruneSummary, ForkJoinPool, RunIndex)},
+   * reporting to {@code budget}, when it is non-null, how much NBT the file decoded to, so the
+   * footprint of the files admitted after it is estimated from what was actually seen.
+   *
+   * @return bytes removed
+   */
+  static long pruneMCAFile(String path, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun, PruneSummary summary, ForkJoinPool chunkPool, RunIndex index, MemoryBudget budget) {
+    return new RegionPrune(path, infoLogging, warnLogging, dryRun, summary, chunkPool, index, budget).run();
   }
 
   /**
@@ -9,10 +9,22 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Locale;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class AutoPrunerCLIMain {
-  public static void main(String[] args) throws ExecutionException, InterruptedException {
+  /** How often the progress line is redrawn on a console. */
+  private static final long PROGRESS_LINE_INTERVAL_MILLIS = 500;
+  /** How often progress is logged when output is not a console, such as a log file. */
+  private static final long PROGRESS_LOG_INTERVAL_MILLIS = 60_000;
+
+  public static void main(String[] args) throws ExecutionException, InterruptedException, IOException {
     CommandLine cmd = processOptions(args);
     if (cmd == null) return;
 
@@ -21,26 +33,153 @@ public class AutoPrunerCLIMain {
       AutoPruner.logger.info("Dry run: previewing changes, no files will be modified.");
     }
 
+    int chunkThreads = cmd.hasOption("chunk-threads") ? Integer.parseInt(cmd.getOptionValue("chunk-threads")) : 0;
+    RunIndex index = null;
+    if (cmd.hasOption("index")) {
+      index = RunIndex.load(Paths.get(cmd.getOptionValue("index")), cmd.hasOption("verify-index"));
+      AutoPruner.logger.info("Loaded run index with " + index.size() + " fully pruned file(s).");
+    }
+
     if (cmd.hasOption("file")) {
       String filePath = cmd.getOptionValue("file");
-      AutoPruner.pruneMCAFileLogger(filePath, dryRun);
+      ForkJoinPool chunkPool = chunkThreads > 0 ? new ForkJoinPool(chunkThreads) : null;
+      try {
+        AutoPruner.pruneMCAFileLogger(filePath, dryRun, chunkPool, index);
+      } finally {
+        if (chunkPool != null) {
+          chunkPool.shutdown();
+        }
+      }
     } else if (cmd.hasOption("directory")) {
       String directoryPath = cmd.getOptionValue("directory");
+      Progress progress = null;
+      Progress.Reporter reporter = null;
+      ProgressLine progressLine = null;
+      if (!cmd.hasOption("no-progress")) {
+        progress = Progress.discover(new File(directoryPath));
+        AutoPruner.logger.info("Found " + progress.totalFiles() + " region file(s), "
+            + AutoPruner.readableFileSize(progress.totalBytes()) + ".");
+        if (System.console() != null) {
+          ProgressLine line = ProgressLine.install(AutoPruner.logger, System.err);
+          progressLine = line;
+          reporter = progress.report(PROGRESS_LINE_INTERVAL_MILLIS, p -> line.update(p.sample()));
+        } else {
+          reporter = progress.report(PROGRESS_LOG_INTERVAL_MILLIS, p -> AutoPruner.logger.info("Progress: " + p.sample()));
+        }
+      }
+      try {
+        pruneDirectory(cmd, new File(directoryPath), dryRun, chunkThreads, index, progress);
+      } finally {
+        if (reporter != null) {
+          reporter.close();
+        }
+        if (progressLine != null) {
+          progressLine.close();
+        }
+      }
+    } else {
+      new AutoPrunerGui().buildAndRunGui();
+      return;
+    }
 
-      if (cmd.hasOption("threads")) {
-        int threads = Integer.parseInt(cmd.getOptionValue("threads"));
+    if (index != null && !dryRun) {
+      index.save();
+    }
+  }
 
-        ThreadPoolAutoPruner threadPoolAutoPruner = new ThreadPoolAutoPruner(threads);
-        threadPoolAutoPruner.recursivelyProcessFiles(new File(directoryPath), 0, dryRun);
-        threadPoolAutoPruner.close();
+  /** Prunes {@code directory}, on the threads the options ask for, counting files into {@code progress} when non-null. */
+  private static void pruneDirectory(CommandLine cmd, File directory, boolean dryRun, int chunkThreads, RunIndex index,
+                                     Progress progress) throws ExecutionException, InterruptedException {
+    boolean largestFirst = cmd.hasOption("largest-first");
+    Duration maxDuration = cmd.hasOption("max-duration") ? parseDuration(cmd.getOptionValue("max-duration")) : null;
+    boolean staged = cmd.hasOption("read-threads") || cmd.hasOption("write-threads");
+    boolean virtualThreads = cmd.hasOption("virtual-threads");
+    if (virtualThreads && !ThreadPoolAutoPruner.virtualThreadsSupported()) {
+      if (javaVersion() >= 21) {
+        AutoPruner.logger.warning("This build of AutoPruner lacks its Java 21 classes (build it with JDK 21 or later);"
+            + " using a fixed thread pool instead of virtual threads.");
+      } else {
+        AutoPruner.logger.warning("Virtual threads need Java 21 or later; using a fixed thread pool instead.");
+      }
+      virtualThreads = false;
+    }
+    boolean budgeted = cmd.hasOption("memory-budget");
+    if (cmd.hasOption("threads") || budgeted || largestFirst || maxDuration != null || staged || virtualThreads) {
+      int threads = cmd.hasOption("threads") ? Integer.parseInt(cmd.getOptionValue("threads"))
+          : staged || virtualThreads ? Runtime.getRuntime().availableProcessors() : 1;
+      MemoryBudget memoryBudget = budgeted
+          ? new MemoryBudget(MemoryBudget.parseSize(cmd.getOptionValue("memory-budget"))) : null;
+
+      ThreadPoolAutoPruner threadPoolAutoPruner;
+      if (virtualThreads) {
+        threadPoolAutoPruner = ThreadPoolAutoPruner.withVirtualThreads(threads, chunkThreads, memoryBudget, largestFirst);
+      } else if (staged) {
+        int readThreads = cmd.hasOption("read-threads") ? Integer.parseInt(cmd.getOptionValue("read-threads")) : 1;
+        int writeThreads = cmd.hasOption("write-threads") ? Integer.parseInt(cmd.getOptionValue("write-threads")) : 1;
+        threadPoolAutoPruner = new ThreadPoolAutoPruner(readThreads, threads, writeThreads, chunkThreads, memoryBudget, largestFirst);
       } else {
-        AutoPruner.recursivelyProcessFiles(new File(directoryPath), 0, dryRun);
+        threadPoolAutoPruner = new ThreadPoolAutoPruner(threads, chunkThreads, memoryBudget, largestFirst);
+      }
+      try {
+        threadPoolAutoPruner.recursivelyProcessFiles(directory, 0, dryRun, index, maxDuration, progress);
+      } finally {
+        threadPoolAutoPruner.close();
       }
     } else {
-      new AutoPrunerGui().buildAndRunGui();
+      ForkJoinPool chunkPool = chunkThreads > 0 ? new ForkJoinPool(chunkThreads) : null;
+      try {
+        AutoPruner.recursivelyProcessFiles(directory, 0, dryRun, chunkPool, index, progress);
+      } finally {
+        if (chunkPool != null) {
+          chunkPool.shutdown();
+        }
+      }
     }
   }
 
+  /** @return the feature version of the running Java, such as 8 or 21. */
+  private static int javaVersion() {
+    String version = System.getProperty("java.specification.version", "1.8");
+    if (version.startsWith("1.")) {
+      version = version.substring(2);
+    }
+    try {
+      return Integer.parseInt(version);
+    } catch (NumberFormatException e) {
+      return 8;
+    }
+  }
+
+  /** Parses {@code 2h}, {@code 90m}, {@code 1h30m}, {@code 45s}, or an ISO-8601 duration such as {@code PT2H}. */
+  private static Duration parseDuration(String text) {
+    String value = text.trim().toLowerCase(Locale.ROOT);
+    if (value.startsWith("p")) {
+      return Duration.parse(value.toUpperCase(Locale.ROOT));
+    }
+    Matcher matcher = Pattern.compile("(\\d+)([hms])").matcher(value);
+    Duration duration = Duration.ZERO;
+    int end = 0;
+    while (matcher.find() && matcher.start() == end) {
+      long amount = Long.parseLong(matcher.group(1));
+      switch (matcher.group(2)) {
+        case "h":
+          duration = duration.plusHours(amount);
+          break;
+        case "m":
+          duration = duration.plusMinutes(amount);
+          break;
+        default:
+          duration = duration.plusSeconds(amount);
+          break;
+      }
+      end = matcher.end();
+    }
+    if (end == 0 || end != value.length()) {
+      throw new IllegalArgumentException("not a duration: " + text);
+    }
+    return duration;
+  }
+
   private static CommandLine processOptions(String[] args) {
     Options options = new Options();
 
@@ -68,6 +207,86 @@ public class AutoPrunerCLIMain {
     threadOption.setRequired(false);
     options.addOption(threadOption);
 
+    Option readThreadOption = new Option(
+        null,
+        "read-threads",
+        true,
+        "Read files ahead on this many threads, separately from decoding (-t, default: all cores) and writing");
+    readThreadOption.setRequired(false);
+    options.addOption(readThreadOption);
+
+    Option writeThreadOption = new Option(
+        null,
+        "write-threads",
+        true,
+        "Write and delete files on this many threads, separately from reading and decoding");
+    writeThreadOption.setRequired(false);
+    options.addOption(writeThreadOption);
+
+    Option virtualThreadOption = new Option(
+        null,
+        "virtual-threads",
+        false,
+        "Run each file on a virtual thread (Java 21+), with at most -t (default: all cores) decoding at once");
+    virtualThreadOption.setRequired(false);
+    options.addOption(virtualThreadOption);
+
+    Option chunkThreadOption = new Option(
+        "c",
+        "chunk-threads",
+        true,
+        "Number of threads decoding the chunks of each region file");
+    chunkThreadOption.setRequired(false);
+    options.addOption(chunkThreadOption);
+
+    Option memoryBudgetOption = new Option(
+        "m",
+        "memory-budget",
+        true,
+        "Cap the estimated heap held by the files pruned at once (on -t threads, default 1), e.g. 2g");
+    memoryBudgetOption.setRequired(false);
+    options.addOption(memoryBudgetOption);
+
+    Option largestFirstOption = new Option(
+        "p",
+        "largest-first",
+        false,
+        "Find every file in the directory first, then prune the largest first");
+    largestFirstOption.setRequired(false);
+    options.addOption(largestFirstOption);
+
+    Option maxDurationOption = new Option(
+        null,
+        "max-duration",
+        true,
+        "Prune the files with the most reclaimable space first, starting none after this long, e.g. 2h or 1h30m");
+    maxDurationOption.setRequired(false);
+    options.addOption(maxDurationOption);
+
+    Option indexOption = new Option(
+        "i",
+        "index",
+        true,
+        "Index file remembering fully pruned files, so later runs skip them while unchanged");
+    indexOption.setRequired(false);
+    options.addOption(indexOption);
+
+    Option verifyIndexOption = new Option(
+        null,
+        "verify-index",
+        false,
+        "With --index, also compare a checksum of each file's header before skipping it");
+    verifyIndexOption.setRequired(false);
+    options.addOption(verifyIndexOption);
+
+    Option noProgressOption = new Option(
+        null,
+        "no-progress",
+        false,
+        "With --directory, do not count the files up front or report progress and time left");
+    noProgressOption.setRequired(false);
+    options.addOption(noProgressOption);
+
     Option dryRunOption = new Option(
         "n",
         "dry-run",
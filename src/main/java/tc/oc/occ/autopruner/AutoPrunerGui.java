@@ -4,10 +4,12 @@ import com.formdev.flatlaf.FlatLightLaf;
 
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
+import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.io.File;
 import java.util.function.Consumer;
@@ -16,6 +18,11 @@ public class AutoPrunerGui {
 
   //TODO: Refactor and improve this class
 
+  /** How often the progress bar is updated. */
+  private static final long PROGRESS_INTERVAL_MILLIS = 500;
+  /** Steps of the progress bar, which shows a share of the bytes to prune. */
+  private static final int PROGRESS_STEPS = 1000;
+
   public AutoPrunerGui() {
     FlatLightLaf.setup();
   }
@@ -33,7 +40,12 @@ public class AutoPrunerGui {
           JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
       areaScrollPane.setPreferredSize(new Dimension(900, 400));
 
-      frame.add(areaScrollPane);
+      JProgressBar progressBar = new JProgressBar(0, PROGRESS_STEPS);
+      progressBar.setStringPainted(true);
+      progressBar.setString("");
+
+      frame.add(areaScrollPane, BorderLayout.CENTER);
+      frame.add(progressBar, BorderLayout.SOUTH);
       frame.pack();
       frame.setVisible(true);
 
@@ -51,7 +63,22 @@ public class AutoPrunerGui {
           protected Long doInBackground() {
             Consumer<String> log = message -> textArea.append(message + "\n");
             PruneSummary summary = new PruneSummary();
-            long sizeDeleted = AutoPruner.recursivelyProcessFiles(file, 0, log, log, false, summary);
+            Progress progress = Progress.discover(file);
+            log.accept("Found " + progress.totalFiles() + " region file(s), " + AutoPruner.readableFileSize(progress.totalBytes()));
+            long sizeDeleted;
+            Progress.Reporter reporter = progress.report(PROGRESS_INTERVAL_MILLIS, p -> {
+              String status = p.sample();
+              int value = (int) (p.fraction() * PROGRESS_STEPS);
+              SwingUtilities.invokeLater(() -> {
+                progressBar.setValue(value);
+                progressBar.setString(status);
+              });
+            });
+            try {
+              sizeDeleted = AutoPruner.recursivelyProcessFiles(file, 0, log, log, false, summary, null, null, progress);
+            } finally {
+              reporter.close();
+            }
             if (summary.changedFiles() >= AutoPruner.SUMMARY_THRESHOLD) {
               log.accept(System.lineSeparator() + summary.format(false));
             }
@@ -0,0 +1,125 @@
+package tc.oc.occ.autopruner;
+
+import java.util.Locale;
+
+/**
+ * Caps the heap the region files being pruned by the {@link ThreadPoolAutoPruner} workers hold on
+ * to at once. Before a region file is handed to a worker it is admitted against the budget by its
+ * estimated footprint: its size times the heap held per byte of file by the files processed so far,
+ * as measured by {@link net.querz.mca.MCAFile#getHeldBytes()}. A file that does not fit is held back
+ * until running files release enough; a file larger than the whole budget still runs, but only once
+ * nothing else is running.
+ *
+ * <p>What a file holds is its image when it is read onto the heap (files under 1 MiB; larger ones
+ * are memory-mapped, and their pages are the OS's to reclaim) plus the chunks decoded into trees,
+ * which only legacy chunks with empty sections to strip are. Chunks that are only scanned hold
+ * nothing decoded, and the few KiB of buffers each worker decodes through are not counted. Since
+ * small files hold their whole size and mapped ones next to nothing, the measured ratio averages
+ * over the mix of sizes seen: a file under 1 MiB may be underestimated, by less than its size.</p>
+ *
+ * <p>Safe to share across threads.</p>
+ */
+public final class MemoryBudget {
+
+  /**
+   * Heap per byte of file assumed until the first file has been measured. Legacy worlds, whose
+   * chunks are decoded into trees to strip their empty sections, hold about 12; later eras hold
+   * about 1 for files read onto the heap and close to nothing for mapped ones.
+   */
+  static final double INITIAL_RATIO = 12;
+
+  private final long budget;
+  private long reserved;
+  private int running;
+  private long observedSize;
+  private long observedHeld;
+
+  public MemoryBudget(long budget) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("memory budget must be positive: " + budget);
+    }
+    this.budget = budget;
+  }
+
+  /**
+   * Parses a byte count with an optional binary suffix: {@code 512m}, {@code 2g}, {@code 65536}.
+   *
+   * @throws IllegalArgumentException if {@code text} is not such a count.
+   */
+  public static long parseSize(String text) {
+    String value = text.trim().toLowerCase(Locale.ROOT);
+    if (value.endsWith("b")) {
+      value = value.substring(0, value.length() - 1);
+    }
+    long unit = 1;
+    if (!value.isEmpty()) {
+      switch (value.charAt(value.length() - 1)) {
+        case 'k':
+          unit = 1L << 10;
+          break;
+        case 'm':
+          unit = 1L << 20;
+          break;
+        case 'g':
+          unit = 1L << 30;
+          break;
+        case 't':
+          unit = 1L << 40;
+          break;
+        default:
+          break;
+      }
+    }
+    if (unit != 1) {
+      value = value.substring(0, value.length() - 1);
+    }
+    try {
+      return Math.round(Double.parseDouble(value) * unit);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("not a size: " + text);
+    }
+  }
+
+  /** @return the footprint a file of {@code fileSize} bytes is expected to need. */
+  public synchronized long estimate(long fileSize) {
+    double ratio = observedSize > 0 ? (double) observedHeld / observedSize : INITIAL_RATIO;
+    return (long) (fileSize * ratio);
+  }
+
+  /**
+   * Reserves {@code footprint} bytes if they fit in what is left of the budget, or if nothing is
+   * running (so a file larger than the whole budget is not held back forever).
+   *
+   * @return whether the reservation was made; if so it must be given back with {@link #release}.
+   */
+  public synchronized boolean tryReserve(long footprint) {
+    if (running > 0 && reserved + footprint > budget) {
+      return false;
+    }
+    reserved += footprint;
+    running++;
+    return true;
+  }
+
+  /** Gives back a reservation made by {@link #tryReserve}. */
+  public synchronized void release(long footprint) {
+    reserved -= footprint;
+    running--;
+  }
+
+  /**
+   * Records what processing a file took: a file of {@code fileSize} bytes held {@code heldBytes} of
+   * heap once decoded. Later estimates follow the ratio over every file recorded so far.
+   */
+  public synchronized void observe(long fileSize, long heldBytes) {
+    if (fileSize > 0) {
+      observedSize += fileSize;
+      observedHeld += heldBytes;
+    }
+  }
+
+  /** @return the budget, in bytes. */
+  public long budget() {
+    return budget;
+  }
+}
@@ -0,0 +1,180 @@
+package tc.oc.occ.autopruner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * How far a directory run has got: region files and bytes done out of the totals a discovery walk
+ * found before the run, the current throughput and the time left at that rate. Every region file
+ * counts once it is finished, whatever became of it (skipped, pruned, deleted or failed).
+ *
+ * <p>Files are counted from any thread; {@link #sample()} is meant for one reporting thread, such as
+ * the one {@link #report} starts.</p>
+ */
+public final class Progress {
+
+  /** Weight of the latest interval in the current rate; the rest is the rate before it. */
+  private static final double RATE_SMOOTHING = 0.3;
+
+  private final long totalFiles;
+  private final long totalBytes;
+  private final LongAdder files = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final long startNanos = System.nanoTime();
+
+  // Only touched by sample()
+  private long sampledNanos = startNanos;
+  private long sampledBytes;
+  private double bytesPerSecond = -1;
+
+  public Progress(long totalFiles, long totalBytes) {
+    this.totalFiles = totalFiles;
+    this.totalBytes = totalBytes;
+  }
+
+  /**
+   * Walks {@code root} the way a directory run does, without opening any file, and counts the
+   * region files it would prune and their size.
+   */
+  public static Progress discover(File root) {
+    long[] found = new long[2];
+    try {
+      Files.walkFileTree(root.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), AutoPruner.MAX_RECURSION_DEPTH + 1,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+              if (attributes.isRegularFile() && path.getFileName().toString().endsWith(".mca")) {
+                found[0]++;
+                found[1] += attributes.size();
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    } catch (IOException e) {
+      // Whatever was counted before the walk failed still makes a usable, if low, total.
+    }
+    return new Progress(found[0], found[1]);
+  }
+
+  /** Counts a finished region file of {@code size} bytes. */
+  void fileDone(long size) {
+    files.increment();
+    bytes.add(size);
+  }
+
+  public long filesDone() {
+    return files.sum();
+  }
+
+  public long bytesDone() {
+    return bytes.sum();
+  }
+
+  public long totalFiles() {
+    return totalFiles;
+  }
+
+  public long totalBytes() {
+    return totalBytes;
+  }
+
+  /** @return the share of the bytes done, from 0 to 1; by files when the files found are all empty. */
+  public double fraction() {
+    double fraction = totalBytes > 0 ? (double) bytesDone() / totalBytes
+        : totalFiles > 0 ? (double) filesDone() / totalFiles : 1;
+    return Math.min(1, fraction);
+  }
+
+  /**
+   * Measures the rate since the previous call and renders a one-line status, e.g.
+   * {@code 120/4,000 files (3%), 1.2 GB/40 GB, 85 MB/s, ETA 7m 40s}.
+   */
+  public synchronized String sample() {
+    long now = System.nanoTime();
+    long done = bytesDone();
+    long elapsed = now - sampledNanos;
+    if (elapsed > 0) {
+      double rate = (done - sampledBytes) * 1e9 / elapsed;
+      bytesPerSecond = bytesPerSecond < 0 ? rate : RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * bytesPerSecond;
+      sampledNanos = now;
+      sampledBytes = done;
+    }
+    long left = Math.max(0, totalBytes - done);
+    String eta;
+    if (left == 0) {
+      eta = "done";
+    } else if (bytesPerSecond > 0) {
+      eta = "ETA " + formatSeconds((long) (left / bytesPerSecond));
+    } else {
+      eta = "ETA unknown";
+    }
+    return String.format("%,d/%,d files (%d%%), %s/%s, %s/s, %s, %s elapsed",
+        filesDone(), totalFiles, (int) (fraction() * 100),
+        AutoPruner.readableFileSize(done), AutoPruner.readableFileSize(totalBytes),
+        AutoPruner.readableFileSize((long) Math.max(0, bytesPerSecond)), eta,
+        formatSeconds(TimeUnit.NANOSECONDS.toSeconds(now - startNanos)));
+  }
+
+  /** @return e.g. {@code 45s}, {@code 7m 40s} or {@code 2h 05m}. */
+  static String formatSeconds(long seconds) {
+    if (seconds < 60) {
+      return seconds + "s";
+    }
+    if (seconds < 3600) {
+      return String.format("%dm %02ds", seconds / 60, seconds % 60);
+    }
+    return String.format("%dh %02dm", seconds / 3600, seconds % 3600 / 60);
+  }
+
+  /**
+   * Hands this progress to {@code listener} every {@code intervalMillis} on a daemon thread, and once
+   * more when the returned reporter is closed.
+   */
+  public Reporter report(long intervalMillis, Consumer<Progress> listener) {
+    return new Reporter(intervalMillis, listener);
+  }
+
+  /** Reports a {@link Progress} at a fixed interval until closed. */
+  public final class Reporter implements AutoCloseable {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "AutoPruner progress");
+      thread.setDaemon(true);
+      return thread;
+    });
+    private final Consumer<Progress> listener;
+
+    private Reporter(long intervalMillis, Consumer<Progress> listener) {
+      this.listener = listener;
+      timer.scheduleAtFixedRate(() -> listener.accept(Progress.this), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops reporting and reports the final state. */
+    @Override
+    public void close() {
+      timer.shutdownNow();
+      try {
+        timer.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      listener.accept(Progress.this);
+    }
+  }
+}
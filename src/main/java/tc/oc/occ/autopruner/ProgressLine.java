@@ -0,0 +1,79 @@
+package tc.oc.occ.autopruner;
+
+import java.io.PrintStream;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * A status line kept at the bottom of a console, rewritten in place on each {@link #update}. While
+ * installed it also prints the logger's records, erasing the status line first and redrawing it
+ * after, so log output scrolls by above it instead of breaking it up.
+ */
+final class ProgressLine extends Handler {
+
+  private final PrintStream out;
+  private final Logger logger;
+  private String line = "";
+
+  private ProgressLine(PrintStream out, Logger logger) {
+    this.out = out;
+    this.logger = logger;
+    setFormatter(new SimpleFormatter());
+  }
+
+  /** Prints {@code logger}'s records to {@code out} below the status line, instead of its parents' handlers. */
+  static ProgressLine install(Logger logger, PrintStream out) {
+    ProgressLine progressLine = new ProgressLine(out, logger);
+    logger.setUseParentHandlers(false);
+    logger.addHandler(progressLine);
+    return progressLine;
+  }
+
+  /** Replaces the status line. */
+  synchronized void update(String status) {
+    erase();
+    line = status;
+    out.print(line);
+    out.flush();
+  }
+
+  @Override
+  public synchronized void publish(LogRecord record) {
+    if (!isLoggable(record)) {
+      return;
+    }
+    erase();
+    out.print(getFormatter().format(record));
+    out.print(line);
+    out.flush();
+  }
+
+  private void erase() {
+    if (!line.isEmpty()) {
+      StringBuilder blank = new StringBuilder(line.length() + 2).append('\r');
+      for (int i = 0; i < line.length(); i++) {
+        blank.append(' ');
+      }
+      out.print(blank.append('\r'));
+    }
+  }
+
+  @Override
+  public synchronized void flush() {
+    out.flush();
+  }
+
+  /** Leaves the last status on its own line and hands the logger back to its parents' handlers. */
+  @Override
+  public synchronized void close() {
+    logger.removeHandler(this);
+    logger.setUseParentHandlers(true);
+    if (!line.isEmpty()) {
+      out.println();
+      line = "";
+    }
+    out.flush();
+  }
+}
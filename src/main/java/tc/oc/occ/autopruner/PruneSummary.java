@@ -1,100 +1,267 @@
 package tc.oc.occ.autopruner;
 
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Thread-safe tally of prune outcomes, grouped by world-format era. Populated as each region file is
  * processed and rendered into the summary block printed after a directory run. Safe to share across
  * the {@link ThreadPoolAutoPruner} worker threads.
+ *
+ * <p>Tallies are striped: each stripe has a lock of its own, and stripes are only merged when a
+ * {@link #snapshot()} is taken. A thread records into the stripe picked by its id or, when another
+ * thread holds that one, into the next free stripe, so recording only waits when every stripe is
+ * busy. A snapshot may be taken at any time, also mid-run; every file it counts is counted whole.</p>
  */
 public final class PruneSummary {
 
   /** What happened to a single region file. */
   public enum Outcome { SKIPPED, COMPACTED, PRUNED, DELETED }
 
-  private static final class EraTally {
-    long files;
-    long skipped;
-    long compacted;
-    long pruned;
-    long deleted;
-    long chunksRemoved;
-    long bytesReclaimed;
+  /**
+   * A stage of pruning a region file, in the order a file passes through them. Bytes are those the
+   * stage handled: read from disk, inflated, scanned, deflated and written; decide counts none.
+   */
+  public enum Stage {
+    READ("read"), INFLATE("inflate"), PARSE("parse"), DECIDE("decide"), DEFLATE("deflate"), WRITE("write");
+
+    private final String label;
+
+    Stage(String label) {
+      this.label = label;
+    }
+  }
+
+  /**
+   * Per era, one count per {@link Outcome} by ordinal, then chunks removed, then bytes reclaimed,
+   * then per {@link Stage} the {@link StageTimes} fields.
+   */
+  private static final int CHUNKS = Outcome.values().length;
+  private static final int BYTES = CHUNKS + 1;
+  private static final int STAGES = BYTES + 1;
+  private static final int FIELDS = STAGES + Stage.values().length * StageTimes.FIELDS;
+
+  /** One stripe's tallies; only ever touched while holding the stripe, which is its lock. */
+  @SuppressWarnings("serial")
+  private static final class Stripe extends ReentrantLock {
+    final Map<String, long[]> tallies = new HashMap<>();
   }
 
-  private final Map<String, EraTally> tallies = new LinkedHashMap<>();
-
-  synchronized void record(String era, Outcome outcome, long chunksRemoved, long bytesReclaimed) {
-    EraTally tally = tallies.computeIfAbsent(era, key -> new EraTally());
-    tally.files++;
-    tally.chunksRemoved += chunksRemoved;
-    tally.bytesReclaimed += bytesReclaimed;
-    switch (outcome) {
-      case SKIPPED:
-        tally.skipped++;
-        break;
-      case COMPACTED:
-        tally.compacted++;
-        break;
-      case PRUNED:
-        tally.pruned++;
-        break;
-      case DELETED:
-        tally.deleted++;
-        break;
+  private final Stripe[] stripes;
+  /** The order eras were first seen in, which is the order the summary lists them in. */
+  private final Map<String, Integer> eraOrder = new ConcurrentHashMap<>();
+  private final AtomicInteger nextEra = new AtomicInteger();
+
+  public PruneSummary() {
+    // A power of two comfortably above the core count keeps two busy threads off the same stripe.
+    int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1) << 1;
+    stripes = new Stripe[count];
+    for (int i = 0; i < count; i++) {
+      stripes[i] = new Stripe();
     }
   }
 
-  /** Region files that changed on disk — compacted, pruned, or deleted (the count a summary threshold is compared against). */
-  public synchronized long changedFiles() {
-    long changed = 0;
-    for (EraTally tally : tallies.values()) {
-      changed += tally.compacted + tally.pruned + tally.deleted;
+  void record(String era, Outcome outcome, long chunksRemoved, long bytesReclaimed) {
+    record(era, outcome, chunksRemoved, bytesReclaimed, null);
+  }
+
+  void record(String era, Outcome outcome, long chunksRemoved, long bytesReclaimed, StageTimes times) {
+    if (!eraOrder.containsKey(era)) {
+      eraOrder.putIfAbsent(era, nextEra.getAndIncrement());
+    }
+    Stripe stripe = lockStripe();
+    try {
+      long[] tally = stripe.tallies.computeIfAbsent(era, key -> new long[FIELDS]);
+      tally[outcome.ordinal()]++;
+      tally[CHUNKS] += chunksRemoved;
+      tally[BYTES] += bytesReclaimed;
+      if (times != null) {
+        for (Stage stage : Stage.values()) {
+          int base = STAGES + stage.ordinal() * StageTimes.FIELDS;
+          for (int field = 0; field < StageTimes.FIELDS; field++) {
+            tally[base + field] += times.get(stage, field);
+          }
+        }
+      }
+    } finally {
+      stripe.unlock();
+    }
+  }
+
+  /**
+   * @return a stripe locked by the calling thread: the first free one from the thread's own, or,
+   * when every stripe is busy, the thread's own once it is free.
+   */
+  private Stripe lockStripe() {
+    long id = Thread.currentThread().getId();
+    int mask = stripes.length - 1;
+    int home = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    for (int i = 0; i < stripes.length; i++) {
+      Stripe stripe = stripes[home + i & mask];
+      if (stripe.tryLock()) {
+        return stripe;
+      }
+    }
+    Stripe stripe = stripes[home];
+    stripe.lock();
+    return stripe;
+  }
+
+  /** @return the outcomes recorded so far, merged across every thread. */
+  public Snapshot snapshot() {
+    Map<String, long[]> merged = new HashMap<>();
+    for (Stripe stripe : stripes) {
+      stripe.lock();
+      try {
+        for (Map.Entry<String, long[]> entry : stripe.tallies.entrySet()) {
+          long[] sum = merged.computeIfAbsent(entry.getKey(), key -> new long[FIELDS]);
+          long[] tally = entry.getValue();
+          for (int i = 0; i < FIELDS; i++) {
+            sum[i] += tally[i];
+          }
+        }
+      } finally {
+        stripe.unlock();
+      }
+    }
+    List<String> eras = new ArrayList<>(merged.keySet());
+    eras.sort((a, b) -> Integer.compare(eraOrder.get(a), eraOrder.get(b)));
+    List<EraCounts> counts = new ArrayList<>(eras.size());
+    long[] total = new long[FIELDS];
+    for (String era : eras) {
+      long[] tally = merged.get(era);
+      counts.add(new EraCounts(era, tally));
+      for (int i = 0; i < FIELDS; i++) {
+        total[i] += tally[i];
+      }
     }
-    return changed;
+    return new Snapshot(Collections.unmodifiableList(counts), new EraCounts("Total", total));
+  }
+
+  /** Region files that changed on disk — compacted, pruned, or deleted (the count a summary threshold is compared against). */
+  public long changedFiles() {
+    return snapshot().changedFiles();
   }
 
   /** Renders a multi-line summary block, one row per era plus a total. */
-  public synchronized String format(boolean dryRun) {
-    long totalFiles = 0;
-    long totalSkipped = 0;
-    long totalCompacted = 0;
-    long totalPruned = 0;
-    long totalDeleted = 0;
-    long totalChunks = 0;
-    long totalBytes = 0;
-
-    StringBuilder out = new StringBuilder();
-    out.append(dryRun ? "Summary (dry run, no files modified):" : "Summary:");
-    for (Map.Entry<String, EraTally> entry : tallies.entrySet()) {
-      EraTally tally = entry.getValue();
-      out.append(System.lineSeparator()).append("  ").append(formatRow(entry.getKey(), tally));
-      totalFiles += tally.files;
-      totalSkipped += tally.skipped;
-      totalCompacted += tally.compacted;
-      totalPruned += tally.pruned;
-      totalDeleted += tally.deleted;
-      totalChunks += tally.chunksRemoved;
-      totalBytes += tally.bytesReclaimed;
-    }
-
-    EraTally total = new EraTally();
-    total.files = totalFiles;
-    total.skipped = totalSkipped;
-    total.compacted = totalCompacted;
-    total.pruned = totalPruned;
-    total.deleted = totalDeleted;
-    total.chunksRemoved = totalChunks;
-    total.bytesReclaimed = totalBytes;
-    out.append(System.lineSeparator()).append("  ").append(formatRow("Total", total));
-    return out.toString();
+  public String format(boolean dryRun) {
+    return snapshot().format(dryRun);
   }
 
-  private static String formatRow(String label, EraTally tally) {
-    return String.format(
-        "%-26s %d files (%d skipped, %d compacted, %d pruned, %d deleted), %d chunks removed, %s reclaimed",
-        label, tally.files, tally.skipped, tally.compacted, tally.pruned, tally.deleted,
-        tally.chunksRemoved, AutoPruner.readableFileSize(tally.bytesReclaimed));
+  /** The outcomes recorded up to some point of a run. */
+  public static final class Snapshot {
+    private final List<EraCounts> eras;
+    private final EraCounts total;
+
+    Snapshot(List<EraCounts> eras, EraCounts total) {
+      this.eras = eras;
+      this.total = total;
+    }
+
+    /** @return one entry per era, in the order the eras were first seen. */
+    public List<EraCounts> eras() {
+      return eras;
+    }
+
+    /** @return the sum over every era, labelled {@code Total}. */
+    public EraCounts total() {
+      return total;
+    }
+
+    /** @see PruneSummary#changedFiles() */
+    public long changedFiles() {
+      return total.compacted + total.pruned + total.deleted;
+    }
+
+    /** @see PruneSummary#format(boolean) */
+    public String format(boolean dryRun) {
+      StringBuilder out = new StringBuilder();
+      out.append(dryRun ? "Summary (dry run, no files modified):" : "Summary:");
+      for (EraCounts era : eras) {
+        out.append(System.lineSeparator()).append("  ").append(era.formatRow());
+      }
+      out.append(System.lineSeparator()).append("  ").append(total.formatRow());
+      if (total.hasStages()) {
+        // Busy time, so with several threads it adds up to more than the run took.
+        out.append(System.lineSeparator()).append("Stages (time summed over threads):");
+        for (Stage stage : Stage.values()) {
+          out.append(System.lineSeparator()).append("  ").append(total.formatStage(stage));
+        }
+      }
+      return out.toString();
+    }
+  }
+
+  /** The outcomes of one era's files. */
+  public static final class EraCounts {
+    public final String era;
+    public final long files;
+    public final long skipped;
+    public final long compacted;
+    public final long pruned;
+    public final long deleted;
+    public final long chunksRemoved;
+    public final long bytesReclaimed;
+    private final long[] stages;
+
+    EraCounts(String era, long[] tally) {
+      this.era = era;
+      this.skipped = tally[Outcome.SKIPPED.ordinal()];
+      this.compacted = tally[Outcome.COMPACTED.ordinal()];
+      this.pruned = tally[Outcome.PRUNED.ordinal()];
+      this.deleted = tally[Outcome.DELETED.ordinal()];
+      this.files = skipped + compacted + pruned + deleted;
+      this.chunksRemoved = tally[CHUNKS];
+      this.bytesReclaimed = tally[BYTES];
+      this.stages = Arrays.copyOfRange(tally, STAGES, FIELDS);
+    }
+
+    /** @return the time this era's files spent in the stage, summed over threads. */
+    public long stageNanos(Stage stage) {
+      return stages[stage.ordinal() * StageTimes.FIELDS + StageTimes.NANOS];
+    }
+
+    /** @return the bytes this era's files passed through the stage. */
+    public long stageBytes(Stage stage) {
+      return stages[stage.ordinal() * StageTimes.FIELDS + StageTimes.BYTES];
+    }
+
+    /** @return the chunks this era's files passed through the stage. */
+    public long stageChunks(Stage stage) {
+      return stages[stage.ordinal() * StageTimes.FIELDS + StageTimes.CHUNKS];
+    }
+
+    private boolean hasStages() {
+      for (Stage stage : Stage.values()) {
+        if (stageNanos(stage) > 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private String formatStage(Stage stage) {
+      long nanos = stageNanos(stage);
+      double seconds = nanos / 1e9;
+      long bytes = stageBytes(stage);
+      long chunks = stageChunks(stage);
+      return String.format("%-8s %8.3f s, %10s, %12s, %d chunks, %s chunks/s",
+          stage.label, seconds, AutoPruner.readableFileSize(bytes),
+          nanos == 0 || bytes == 0 ? "-" : AutoPruner.readableFileSize((long) (bytes / seconds)) + "/s",
+          chunks, nanos == 0 ? "-" : String.valueOf((long) (chunks / seconds)));
+    }
+
+    private String formatRow() {
+      return String.format(
+          "%-26s %d files (%d skipped, %d compacted, %d pruned, %d deleted), %d chunks removed, %s reclaimed",
+          era, files, skipped, compacted, pruned, deleted, chunksRemoved, AutoPruner.readableFileSize(bytesReclaimed));
+    }
   }
 }
@@ -0,0 +1,228 @@
+package tc.oc.occ.autopruner;
+
+import net.querz.mca.FlightEvents;
+import net.querz.mca.MCAFile;
+import net.querz.mca.MCAUtil;
+import net.querz.mca.RegionHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+
+/**
+ * The region files a world keeps for one {@code r.X.Z}: block chunks under {@code region/},
+ * entities (1.17+) under {@code entities/} and points of interest under {@code poi/}. A directory
+ * run prunes them as one unit of work, stage by stage in that order, so each file is read once:
+ * the entity region the block region consults is the same decoded view the entity file is then
+ * pruned from, and it is only rewritten or deleted once the block region is done with it.
+ */
+final class RegionGroup {
+
+  /** The directories of a world holding one region file per {@code r.X.Z}, the group's lead first. */
+  private static final String[] DIRECTORIES = {"region", "entities", "poi"};
+
+  private final List<RegionPrune> prunes;
+  /** The group's {@code entities/} file, or {@code null} when it has none. */
+  private final File entityFile;
+
+  // The shared entity view: read at most once, decoded at most once.
+  private boolean entitiesRead;
+  private ByteBuffer entityBytes;
+  private MCAFile entityRegion;
+  private IOException entityFailure;
+
+  /**
+   * @param members the group's files, as {@link #members} found them
+   * @param prunes  creates the prune of one member, sharing this group's entity view
+   */
+  RegionGroup(List<Path> members, BiFunction<Path, RegionGroup, RegionPrune> prunes) {
+    File entities = null;
+    List<RegionPrune> created = new ArrayList<>(members.size());
+    for (Path member : members) {
+      if (member.getParent() != null && "entities".equals(String.valueOf(member.getParent().getFileName()))) {
+        entities = member.toFile();
+      }
+      created.add(prunes.apply(member, this));
+    }
+    this.entityFile = entities;
+    this.prunes = created;
+  }
+
+  /**
+   * @return the existing files of the group {@code file} belongs to that lie under {@code root},
+   * in stage order; just {@code file} when it is not laid out in a world's region directories. The
+   * first file leads the group: a walk starts the group from it and passes over the others.
+   */
+  static List<Path> members(Path file, Path root) {
+    Path directory = file.getParent();
+    Path world = directory == null ? null : directory.getParent();
+    if (world == null || indexOf(String.valueOf(directory.getFileName())) < 0) {
+      return Collections.singletonList(file);
+    }
+    List<Path> members = new ArrayList<>(DIRECTORIES.length);
+    for (String name : DIRECTORIES) {
+      Path sibling = world.resolve(name).resolve(file.getFileName());
+      if (sibling.equals(file) || sibling.startsWith(root) && Files.isRegularFile(sibling)) {
+        members.add(sibling);
+      }
+    }
+    return members;
+  }
+
+  private static int indexOf(String directory) {
+    for (int i = 0; i < DIRECTORIES.length; i++) {
+      if (DIRECTORIES[i].equals(directory)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Prunes every region file under {@code directory} on the calling thread, each group as one unit
+   * from its lead, as {@link ThreadPoolAutoPruner} does across threads. Siblings outside
+   * {@code root} are not members; see {@link #members}.
+   *
+   * @return bytes removed
+   */
+  static long pruneTree(File directory, long depth, Path root, BiFunction<Path, RegionGroup, RegionPrune> prunes) {
+    if (depth > AutoPruner.MAX_RECURSION_DEPTH) {
+      return 0;
+    }
+    long sizeDeleted = 0;
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File childFile : files) {
+        if (childFile.isDirectory()) {
+          sizeDeleted += pruneTree(childFile, depth + 1, root, prunes);
+        } else if (childFile.isFile() && childFile.getName().endsWith(".mca")) {
+          Path absolute = childFile.toPath().toAbsolutePath();
+          List<Path> members = members(absolute, root);
+          if (members.get(0).equals(absolute)) {
+            sizeDeleted += new RegionGroup(members, prunes).run();
+          }
+        }
+      }
+    }
+    return sizeDeleted;
+  }
+
+  /** @return whether {@code file} is this group's {@code entities/} file. */
+  boolean isEntityFile(File file) {
+    return entityFile != null && entityFile.equals(file);
+  }
+
+  /**
+   * @return whether the group has an {@code entities/} member. When it has none, say because the
+   * walk started below the world, its block region looks its entity sibling up on its own.
+   */
+  boolean hasEntityFile() {
+    return entityFile != null;
+  }
+
+  /** Reads the group's entity region, unless it was already read or its header shows no chunks. */
+  synchronized void readEntities() {
+    if (entitiesRead) {
+      return;
+    }
+    entitiesRead = true;
+    if (entityFile == null) {
+      return;
+    }
+    Object event = FlightEvents.begin(FlightEvents.Kind.ENTITY_LOOKUP);
+    String outcome = "empty header";
+    try {
+      if (MCAUtil.readHeader(entityFile).triage() != RegionHeader.Triage.EMPTY) {
+        entityBytes = MCAUtil.readRegion(entityFile);
+        outcome = "read";
+      }
+    } catch (IOException e) {
+      entityFailure = e;
+      outcome = "failed";
+    } finally {
+      if (event != null) {
+        FlightEvents.commit(event, entityFile.getPath(), "", 0, entityBytes == null ? 0 : entityBytes.limit(), outcome);
+      }
+    }
+  }
+
+  /**
+   * @return the group's entity region, decoded on the first call; {@code null} when the group has
+   * none or its header shows no chunks. Every member is handed the same instance.
+   * @throws IOException if the entity region cannot be read or decoded
+   */
+  synchronized MCAFile entities(ForkJoinPool chunkPool) throws IOException {
+    readEntities();
+    if (entityFailure != null) {
+      throw entityFailure;
+    }
+    if (entityRegion == null && entityBytes != null) {
+      try {
+        entityRegion = MCAUtil.decode(entityFile, entityBytes, chunkPool);
+      } catch (IOException e) {
+        entityFailure = e;
+        throw e;
+      } finally {
+        entityBytes = null;
+      }
+    }
+    return entityRegion;
+  }
+
+  /** @see RegionPrune#read() */
+  void read() {
+    for (RegionPrune prune : prunes) {
+      prune.read();
+    }
+  }
+
+  /** @see RegionPrune#decide() */
+  void decide() {
+    for (RegionPrune prune : prunes) {
+      prune.decide();
+    }
+  }
+
+  /** @see RegionPrune#writeNeedsCpu() */
+  boolean writeNeedsCpu() {
+    for (RegionPrune prune : prunes) {
+      if (prune.writeNeedsCpu()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return bytes removed across the group
+   * @see RegionPrune#write()
+   */
+  long write() {
+    long sizeChange = 0;
+    for (RegionPrune prune : prunes) {
+      sizeChange += prune.write();
+    }
+    // Index entries hold the entity sibling's stat, final only now.
+    for (RegionPrune prune : prunes) {
+      prune.recordPendingIndex();
+    }
+    synchronized (this) {
+      entityRegion = null;
+    }
+    return sizeChange;
+  }
+
+  /** Runs every stage on the calling thread; see {@link RegionPrune#run()}. */
+  long run() {
+    read();
+    decide();
+    return write();
+  }
+}
@@ -0,0 +1,488 @@
+package tc.oc.occ.autopruner;
+
+import net.querz.mca.Chunk;
+import net.querz.mca.FlightEvents;
+import net.querz.mca.MCAFile;
+import net.querz.mca.MCAUtil;
+import net.querz.mca.RegionCompactor;
+import net.querz.mca.RegionHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * The pruning of one region file, split into three stages so a pipeline can run each on threads
+ * sized for it: {@link #read()} does the blocking reads, {@link #decide()} the CPU-heavy inflating
+ * and NBT scanning, and {@link #write()} the blocking writes and deletes. Run in that order, on any
+ * threads, the stages do exactly what {@link AutoPruner#pruneMCAFile} does; a stage that finishes
+ * the file early (a skip, or a failure, which is logged like any other) turns the later ones into
+ * no-ops. Within a {@link RegionGroup}, the entity region is read and decoded once for the
+ * whole group rather than once for each file that consults it.
+ */
+final class RegionPrune {
+
+  /** What {@link #decide()} chose to do with the file. */
+  private enum Action { DELETE, REWRITE, COMPACT, SKIP }
+
+  private final String path;
+  private final File regionFile;
+  private final Consumer<String> infoLogging;
+  private final Consumer<String> warnLogging;
+  private final boolean dryRun;
+  private final PruneSummary summary;
+  private final ForkJoinPool chunkPool;
+  private final RunIndex index;
+  private final MemoryBudget budget;
+  /** The group this file is pruned with, sharing its entity region; {@code null} when alone. */
+  private final RegionGroup group;
+  /** Counts this file once it is finished; {@code null} when the run reports no progress. */
+  private final Progress progress;
+
+  private boolean finished;
+  private long sizeChange;
+  private final StageTimes times = new StageTimes();
+
+  // Handed from read() to decide()
+  private long initialSize;
+  private boolean headerEmpty;
+  private ByteBuffer regionBytes;
+  private File entityFile;
+  private ByteBuffer entityBytes;
+
+  // Handed from decide() to write()
+  private MCAFile mcaFile;
+  /** Era to record the file under once its group is written; see {@link #recordIndex}. */
+  private String pendingIndexEra;
+  private Action action;
+  private int removedChunks;
+  private String era;
+  private int dataVersion;
+  private String version;
+
+  RegionPrune(String path, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun,
+              PruneSummary summary, ForkJoinPool chunkPool, RunIndex index, MemoryBudget budget) {
+    this(path, infoLogging, warnLogging, dryRun, summary, chunkPool, index, budget, null);
+  }
+
+  RegionPrune(String path, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun,
+              PruneSummary summary, ForkJoinPool chunkPool, RunIndex index, MemoryBudget budget,
+              RegionGroup group) {
+    this(path, infoLogging, warnLogging, dryRun, summary, chunkPool, index, budget, group, null);
+  }
+
+  RegionPrune(String path, Consumer<String> infoLogging, Consumer<String> warnLogging, boolean dryRun,
+              PruneSummary summary, ForkJoinPool chunkPool, RunIndex index, MemoryBudget budget,
+              RegionGroup group, Progress progress) {
+    this.path = path;
+    this.regionFile = new File(path);
+    this.infoLogging = infoLogging;
+    this.warnLogging = warnLogging;
+    this.dryRun = dryRun;
+    this.summary = summary;
+    this.chunkPool = chunkPool;
+    this.index = index;
+    this.budget = budget;
+    this.group = group;
+    this.progress = progress;
+  }
+
+  /**
+   * Runs every stage on the calling thread.
+   *
+   * @return bytes removed
+   */
+  long run() {
+    read();
+    decide();
+    return write();
+  }
+
+  /**
+   * Finishes an interrupted compaction or skips a file the run index shows unchanged, then reads
+   * the header and, unless it shows no chunks, the whole file and its entity sibling.
+   */
+  void read() {
+    try {
+      if (RegionCompactor.journalFile(regionFile).isFile()) {
+        // A previous in-place compaction was interrupted; the file may be mid-move until it is finished.
+        if (dryRun) {
+          warnLogging.accept("Interrupted compaction pending, skipping: " + path);
+          finished = true;
+          return;
+        }
+        RegionCompactor.recover(regionFile);
+        infoLogging.accept("Finished interrupted compaction of: " + path);
+      } else if (index != null) {
+        String indexedEra = index.unchangedEra(regionFile);
+        if (indexedEra != null) {
+          if (summary != null) {
+            summary.record(indexedEra, PruneSummary.Outcome.SKIPPED, 0, 0);
+          }
+          infoLogging.accept("Skipping unchanged File: " + path);
+          finished = true;
+          return;
+        }
+      }
+      readRegion();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  /** Reads the header and, unless it shows no chunks, the whole file and its entity sibling. */
+  private void readRegion() throws IOException {
+    Object event = FlightEvents.begin(FlightEvents.Kind.REGION_READ);
+    String outcome = "failed";
+    try {
+      long start = System.nanoTime();
+      initialSize = regionFile.length();
+      // The header alone proves a file with no used slots (or one shorter than the header) holds
+      // nothing; such files go straight to deletion without being read in full or decompressed.
+      headerEmpty = MCAUtil.readHeader(regionFile).triage() == RegionHeader.Triage.EMPTY;
+      if (headerEmpty) {
+        outcome = "empty header";
+        times.add(PruneSummary.Stage.READ, System.nanoTime() - start, RegionHeader.SIZE, 0);
+        return;
+      }
+      if (group != null && group.isEntityFile(regionFile)) {
+        // Whichever member reads the shared entity region first is timed for it; its bytes are this file's.
+        group.readEntities();
+        outcome = "read";
+        times.add(PruneSummary.Stage.READ, System.nanoTime() - start, initialSize, 0);
+        return;
+      }
+      regionBytes = MCAUtil.readRegion(regionFile);
+      outcome = "read";
+      if (sharesEntities()) {
+        group.readEntities();
+        times.add(PruneSummary.Stage.READ, System.nanoTime() - start, initialSize, 0);
+        return;
+      }
+      // From 1.17 onwards entities live in a sibling "entities" region; consult it so we never
+      // prune a block chunk that still has entity data stored alongside it.
+      entityFile = AutoPruner.siblingEntityFile(regionFile);
+      if (entityFile != null) {
+        entityBytes = readEntityRegion(entityFile);
+      }
+      times.add(PruneSummary.Stage.READ, System.nanoTime() - start,
+          initialSize + (entityBytes == null ? 0 : entityBytes.limit()), 0);
+    } finally {
+      if (event != null) {
+        FlightEvents.commit(event, path, "", 0, initialSize, outcome);
+      }
+    }
+  }
+
+  /**
+   * @return whether this file's entity region is the group's shared one, read and pruned by the
+   * group's {@code entities/} member; otherwise, it is looked up read-only from the sibling.
+   */
+  private boolean sharesEntities() {
+    return group != null && group.hasEntityFile();
+  }
+
+  /**
+   * @return the entity region at {@code entityFile}, read whole; {@code null} when there is none,
+   * its header shows no chunks, or it cannot be read.
+   */
+  private static ByteBuffer readEntityRegion(File entityFile) {
+    Object event = FlightEvents.begin(FlightEvents.Kind.ENTITY_LOOKUP);
+    String outcome = "absent";
+    ByteBuffer bytes = null;
+    try {
+      if (entityFile.isFile()) {
+        outcome = "empty header";
+        if (MCAUtil.readHeader(entityFile).triage() != RegionHeader.Triage.EMPTY) {
+          bytes = MCAUtil.readRegion(entityFile);
+          outcome = "read";
+        }
+      }
+    } catch (Exception e) {
+      outcome = "failed";
+      bytes = null; // Best effort: treat an unreadable entity region as no entity data.
+    } finally {
+      if (event != null) {
+        FlightEvents.commit(event, entityFile.getPath(), "", 0, bytes == null ? 0 : bytes.limit(), outcome);
+      }
+    }
+    return bytes;
+  }
+
+  /** Decodes the chunks read and decides, chunk by chunk, what stays. */
+  void decide() {
+    if (finished) {
+      return;
+    }
+    try {
+      MCAFile entityRegion = null;
+      if (headerEmpty) {
+        mcaFile = MCAUtil.newMCAFile(regionFile);
+      } else if (group != null && group.isEntityFile(regionFile)) {
+        mcaFile = group.entities(chunkPool);
+        if (mcaFile == null) {
+          mcaFile = MCAUtil.newMCAFile(regionFile); // emptied since its header was triaged
+        } else if (budget != null) {
+          budget.observe(initialSize, mcaFile.getHeldBytes());
+        }
+      } else if (sharesEntities()) {
+        mcaFile = MCAUtil.decode(regionFile, regionBytes, chunkPool);
+        try {
+          entityRegion = group.entities(chunkPool);
+        } catch (Exception e) {
+          entityRegion = null; // Best effort, as below.
+        }
+        if (budget != null) {
+          // The entity region's footprint is observed by its own prune.
+          budget.observe(initialSize, mcaFile.getHeldBytes());
+        }
+      } else {
+        mcaFile = MCAUtil.decode(regionFile, regionBytes, chunkPool);
+        if (entityBytes != null) {
+          try {
+            entityRegion = MCAUtil.decode(entityFile, entityBytes, chunkPool);
+          } catch (Exception e) {
+            entityRegion = null; // Best effort, as above.
+          }
+        }
+        if (budget != null) {
+          budget.observe(initialSize, mcaFile.getHeldBytes() + (entityRegion == null ? 0 : entityRegion.getHeldBytes()));
+        }
+      }
+      regionBytes = null;
+      entityBytes = null;
+      timeDecode(mcaFile);
+      if (!sharesEntities()) {
+        // A group's entity region is timed by the entity file's own prune.
+        timeDecode(entityRegion);
+      }
+
+      long start = System.nanoTime();
+      int examined = 0;
+      boolean actionTaken = false;
+      boolean regionFileEmpty = true;
+      Chunk versionSample = null;
+      boolean mixedVersions = false;
+
+      for (int i = 0; i < MCAFile.CHUNK_COUNT; i++) {
+        Chunk chunk = mcaFile.getChunk(i);
+        if (chunk == null) {
+          continue;
+        }
+        examined++;
+        if (versionSample == null) {
+          versionSample = chunk;
+        } else if (chunk.getDataVersion() != versionSample.getDataVersion()) {
+          mixedVersions = true;
+        }
+        if (chunk.changesMade()) {
+          actionTaken = true;
+        }
+        Chunk entityChunk = entityRegion == null ? null : entityRegion.getChunk(i);
+        Object event = FlightEvents.begin(FlightEvents.Kind.DECISION);
+        boolean keep = chunk.hasContent(entityChunk);
+        if (event != null) {
+          FlightEvents.commit(event, path, chunk.versionEra(), chunk.getDataVersion(), chunk.getDecodedLength(), keep ? "keep" : "prune");
+        }
+        if (keep) {
+          regionFileEmpty = false;
+        } else {
+          mcaFile.setChunk(i, null);
+          actionTaken = true;
+          removedChunks++;
+        }
+      }
+      times.add(PruneSummary.Stage.DECIDE, System.nanoTime() - start, 0, examined);
+
+      era = versionSample == null ? "empty region file" : versionSample.versionEra();
+      dataVersion = versionSample == null ? 0 : versionSample.getDataVersion();
+      version = versionSample == null ? ""
+          : " (" + versionSample.describeVersion() + (mixedVersions ? ", mixed" : "") + ")";
+      action = regionFileEmpty ? Action.DELETE
+          : actionTaken ? Action.REWRITE
+          : mcaFile.hasReclaimableSpace() ? Action.COMPACT
+          : Action.SKIP;
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  /** Adds what decoding the region took to the inflate and parse stages. */
+  private void timeDecode(MCAFile region) {
+    if (region == null) {
+      return;
+    }
+    int chunks = 0;
+    for (int i = 0; i < MCAFile.CHUNK_COUNT; i++) {
+      if (region.getChunk(i) != null) {
+        chunks++;
+      }
+    }
+    times.add(PruneSummary.Stage.INFLATE, region.getInflateNanos(), region.getDecodedBytes(), chunks);
+    times.add(PruneSummary.Stage.PARSE, region.getParseNanos(), region.getDecodedBytes(), chunks);
+  }
+
+  /** Adds a rewrite of the region to the deflate and write stages; writing is what deflating leaves. */
+  private void timeWrite(long start, MCAFile written, int chunks) {
+    long nanos = System.nanoTime() - start;
+    long encodeNanos = written == null ? 0 : written.getEncodeNanos();
+    if (written != null) {
+      times.add(PruneSummary.Stage.DEFLATE, encodeNanos, written.getEncodedBytes(), written.getEncodedChunks());
+    }
+    times.add(PruneSummary.Stage.WRITE, nanos - encodeNanos, regionFile.length(), chunks);
+  }
+
+  /**
+   * Records the file as fully pruned in the run index. An entry includes the stat of the file's
+   * {@code entities/} sibling, which its group writes after it, so a group member is only recorded
+   * by {@link #recordPendingIndex()} once the whole group is written.
+   */
+  private void recordIndex(String era) {
+    if (group != null) {
+      pendingIndexEra = era;
+    } else {
+      index.record(regionFile, era);
+    }
+  }
+
+  /** Records what {@link #recordIndex} held back until the group was written. */
+  void recordPendingIndex() {
+    if (pendingIndexEra != null) {
+      index.record(regionFile, pendingIndexEra);
+      pendingIndexEra = null;
+    }
+  }
+
+  /**
+   * @return whether {@link #write()} will re-encode chunks rather than only copy, compact or delete,
+   * which makes it CPU-bound as well as I/O-bound.
+   */
+  boolean writeNeedsCpu() {
+    return !finished && !dryRun && action == Action.REWRITE;
+  }
+
+  /**
+   * Carries out what {@link #decide()} chose, then records and logs the outcome.
+   *
+   * @return bytes removed
+   */
+  long write() {
+    if (finished) {
+      countProgress();
+      return sizeChange;
+    }
+    try {
+      switch (action) {
+        case DELETE:
+          if (!dryRun) {
+            Object event = FlightEvents.begin(FlightEvents.Kind.REGION_WRITE);
+            long start = System.nanoTime();
+            Files.deleteIfExists(Paths.get(path));
+            times.add(PruneSummary.Stage.WRITE, System.nanoTime() - start, 0, 0);
+            if (event != null) {
+              FlightEvents.commit(event, path, era, dataVersion, initialSize, "deleted");
+            }
+          }
+          sizeChange = initialSize;
+          if (index != null && !dryRun) {
+            index.forget(regionFile);
+          }
+          if (summary != null) {
+            summary.record(era, PruneSummary.Outcome.DELETED, removedChunks, sizeChange, times);
+          }
+          infoLogging.accept((dryRun ? "Would delete file (" : "Deleted file (") + AutoPruner.readableFileSize(initialSize) + ") : " + path + version);
+          break;
+        case REWRITE:
+          if (!dryRun) {
+            Object event = FlightEvents.begin(FlightEvents.Kind.REGION_WRITE);
+            long start = System.nanoTime();
+            int written = MCAUtil.write(mcaFile, path);
+            timeWrite(start, mcaFile, written);
+            if (event != null) {
+              FlightEvents.commit(event, path, era, dataVersion, regionFile.length(), "rewritten");
+            }
+            sizeChange = initialSize - regionFile.length();
+            if (index != null) {
+              recordIndex(era);
+            }
+          }
+          if (summary != null) {
+            summary.record(era, PruneSummary.Outcome.PRUNED, removedChunks, sizeChange, times);
+          }
+          if (dryRun) {
+            infoLogging.accept("Would prune " + removedChunks + " empty chunk(s) from: " + path + version);
+          } else {
+            infoLogging.accept("Deleted " + AutoPruner.readableFileSize(sizeChange) + " from: " + path + version);
+          }
+          break;
+        case COMPACT:
+          // No empty chunks, but the file wastes sectors (gaps, trailing padding, over-allocated
+          // slots). Sliding the chunks back-to-back in place reclaims that space without altering
+          // chunk content; a layout that cannot be slid safely is rewritten instead.
+          if (!dryRun) {
+            Object event = FlightEvents.begin(FlightEvents.Kind.COMPACTION);
+            long start = System.nanoTime();
+            boolean compacted = RegionCompactor.compact(regionFile);
+            if (compacted) {
+              timeWrite(start, null, 0);
+            } else {
+              int written = MCAUtil.write(mcaFile, path);
+              timeWrite(start, mcaFile, written);
+            }
+            sizeChange = initialSize - regionFile.length();
+            if (event != null) {
+              FlightEvents.commit(event, path, era, dataVersion, sizeChange, compacted ? "compacted" : "rewritten");
+            }
+            if (index != null) {
+              recordIndex(era);
+            }
+          } else {
+            sizeChange = mcaFile.getReclaimableBytes(); // estimate; the real rewrite measures exactly
+          }
+          if (summary != null) {
+            summary.record(era, PruneSummary.Outcome.COMPACTED, 0, sizeChange, times);
+          }
+          if (dryRun) {
+            infoLogging.accept("Would compact (reclaim ~" + AutoPruner.readableFileSize(sizeChange) + "): " + path + version);
+          } else {
+            infoLogging.accept("Compacted " + AutoPruner.readableFileSize(sizeChange) + " from: " + path + version);
+          }
+          break;
+        default:
+          if (index != null && !dryRun) {
+            recordIndex(era);
+          }
+          if (summary != null) {
+            summary.record(era, PruneSummary.Outcome.SKIPPED, 0, 0, times);
+          }
+          infoLogging.accept("Skipping already Pruned File: " + path + version);
+          break;
+      }
+    } catch (Exception e) {
+      fail(e);
+    }
+    mcaFile = null;
+    finished = true;
+    countProgress();
+    return sizeChange;
+  }
+
+  private void countProgress() {
+    if (progress != null) {
+      // A file skipped or failed before it was measured is still there to measure.
+      progress.fileDone(initialSize > 0 ? initialSize : regionFile.length());
+    }
+  }
+
+  private void fail(Exception e) {
+    warnLogging.accept("Failed to parse file: " + path + ", " + e.getMessage());
+    finished = true;
+    regionBytes = null;
+    entityBytes = null;
+    mcaFile = null;
+  }
+}
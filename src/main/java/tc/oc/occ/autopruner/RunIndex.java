@@ -0,0 +1,200 @@
+package tc.oc.occ.autopruner;
+
+import net.querz.mca.RegionHeader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers, across runs, which region files were left fully pruned and tightly packed, so a later
+ * run can skip them without opening them. A file is skipped only while its size and modification
+ * time, and those of its {@code entities/} sibling (whose entity data decides what is kept), still
+ * match what was recorded. With {@code verifyHeader} set, a checksum of the file's 8 KiB header must
+ * match as well; Minecraft rewrites the header whenever it saves a chunk, so this catches a change
+ * that kept size and timestamp, for the price of reading the header instead of the whole file.
+ * The checksum is only taken while verifying, so a file recorded by a run without verification is
+ * examined once more by the first run with it.
+ *
+ * <p>The index is a tab-separated text file, loaded up front and written back by {@link #save()};
+ * it is safe to share across the {@link ThreadPoolAutoPruner} worker threads. An index written by a
+ * different format version is ignored, so a change in pruning rules re-examines every file.</p>
+ */
+public final class RunIndex {
+
+  private static final String FORMAT = "AutoPruner-index 1";
+
+  private static final class Entry {
+    final long size;
+    final long modified;
+    final long headerChecksum;
+    final long siblingSize;
+    final long siblingModified;
+    final String era;
+
+    Entry(long size, long modified, long headerChecksum, long siblingSize, long siblingModified, String era) {
+      this.size = size;
+      this.modified = modified;
+      this.headerChecksum = headerChecksum;
+      this.siblingSize = siblingSize;
+      this.siblingModified = siblingModified;
+      this.era = era;
+    }
+  }
+
+  private final Path file;
+  private final boolean verifyHeader;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private RunIndex(Path file, boolean verifyHeader) {
+    this.file = file;
+    this.verifyHeader = verifyHeader;
+  }
+
+  /**
+   * Loads the index stored at {@code file}, or starts an empty one if it does not exist yet or was
+   * written by another format version.
+   */
+  public static RunIndex load(Path file, boolean verifyHeader) throws IOException {
+    RunIndex index = new RunIndex(file, verifyHeader);
+    if (!Files.isRegularFile(file)) {
+      return index;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      if (!FORMAT.equals(reader.readLine())) {
+        return index;
+      }
+      for (String line; (line = reader.readLine()) != null; ) {
+        String[] fields = line.split("\t", 7);
+        if (fields.length != 7) {
+          continue;
+        }
+        try {
+          index.entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+              Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]), fields[6]));
+        } catch (NumberFormatException e) {
+          // A damaged line only costs that file a re-examination.
+        }
+      }
+    }
+    return index;
+  }
+
+  /** Writes the index back to its file, replacing it atomically where the file system allows. */
+  public void save() throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        writer.write(FORMAT);
+        writer.newLine();
+        for (Map.Entry<String, Entry> mapping : new TreeMap<>(entries).entrySet()) {
+          Entry entry = mapping.getValue();
+          writer.write(mapping.getKey() + '\t' + entry.size + '\t' + entry.modified + '\t' + entry.headerChecksum
+              + '\t' + entry.siblingSize + '\t' + entry.siblingModified + '\t' + entry.era);
+          writer.newLine();
+        }
+      }
+      try {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /** @return the number of files currently recorded as fully pruned. */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the era recorded for {@code region} if it is unchanged since it was recorded as fully
+   * pruned, so it can be skipped; {@code null} if it has to be examined.
+   */
+  String unchangedEra(File region) {
+    Entry entry = entries.get(key(region));
+    if (entry == null) {
+      return null;
+    }
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(region.toPath(), BasicFileAttributes.class);
+      long[] sibling = siblingStat(region);
+      if (attributes.size() != entry.size || attributes.lastModifiedTime().toMillis() != entry.modified
+          || sibling[0] != entry.siblingSize || sibling[1] != entry.siblingModified) {
+        return null;
+      }
+      if (verifyHeader && headerChecksum(region) != entry.headerChecksum) {
+        return null;
+      }
+      return entry.era;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** Records {@code region}, as it is on disk now, as fully pruned and tightly packed. */
+  void record(File region, String era) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(region.toPath(), BasicFileAttributes.class);
+      long[] sibling = siblingStat(region);
+      entries.put(key(region), new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(),
+          verifyHeader ? headerChecksum(region) : 0, sibling[0], sibling[1], era.replace('\t', ' ').replace('\n', ' ')));
+    } catch (IOException e) {
+      forget(region);
+    }
+  }
+
+  /** Drops {@code region} from the index, so the next run examines it again. */
+  void forget(File region) {
+    entries.remove(key(region));
+  }
+
+  private static String key(File region) {
+    return region.getAbsoluteFile().toPath().normalize().toString();
+  }
+
+  /** @return size and modification time of the entity region next to {@code region}, or -1s if there is none. */
+  private static long[] siblingStat(File region) throws IOException {
+    File sibling = AutoPruner.siblingEntityFile(region);
+    if (sibling == null) {
+      return new long[] {-1, -1};
+    }
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(sibling.toPath(), BasicFileAttributes.class);
+      return new long[] {attributes.size(), attributes.lastModifiedTime().toMillis()};
+    } catch (NoSuchFileException e) {
+      return new long[] {-1, -1};
+    }
+  }
+
+  private static long headerChecksum(File region) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(RegionHeader.SIZE);
+    try (FileChannel channel = FileChannel.open(region.toPath(), StandardOpenOption.READ)) {
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) {
+          break;
+        }
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(header.array(), 0, header.position());
+    return crc.getValue();
+  }
+}
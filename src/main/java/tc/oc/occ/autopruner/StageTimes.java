@@ -0,0 +1,28 @@
+package tc.oc.occ.autopruner;
+
+/**
+ * The time, bytes and chunks one region file's prune spent in each {@link PruneSummary.Stage},
+ * gathered by a single {@link RegionPrune} and handed to {@link PruneSummary} with its outcome.
+ * Not thread-safe; the stages of one prune never run at the same time.
+ */
+final class StageTimes {
+
+  /** Per stage, by ordinal: nanoseconds, then bytes, then chunks. */
+  static final int NANOS = 0;
+  static final int BYTES = 1;
+  static final int CHUNKS = 2;
+  static final int FIELDS = 3;
+
+  private final long[] values = new long[PruneSummary.Stage.values().length * FIELDS];
+
+  void add(PruneSummary.Stage stage, long nanos, long bytes, long chunks) {
+    int base = stage.ordinal() * FIELDS;
+    values[base + NANOS] += nanos;
+    values[base + BYTES] += bytes;
+    values[base + CHUNKS] += chunks;
+  }
+
+  long get(PruneSummary.Stage stage, int field) {
+    return values[stage.ordinal() * FIELDS + field];
+  }
+}
@@ -1,23 +1,159 @@
 package tc.oc.occ.autopruner;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 public class ThreadPoolAutoPruner {
+  /** Prunes whole files; in staged mode, runs only the decode-and-decide stage of each. */
   private final ExecutorService threadPoolExecutor;
+  /** In staged mode, reads each file ahead of decoding it; {@code null} when files run whole. */
+  private final ExecutorService readPool;
+  /** In staged mode, writes or deletes each decided file; {@code null} when files run whole. */
+  private final ExecutorService writePool;
+  /**
+   * In per-file-thread mode, the permits a file's thread must hold while it inflates, scans or
+   * re-encodes chunks, so any number of files can wait on I/O while only so many use the CPU;
+   * {@code null} in the other modes, where the pool size bounds the CPU work.
+   */
+  private final Semaphore cpuPermits;
+  /** Decodes the chunks of each region file; {@code null} decodes them on the file's own thread. */
+  private final ForkJoinPool chunkPool;
+  /** Region files queued or running at once; the directory walk waits while this many are outstanding. */
+  private final int maxInFlight;
+  /** With a thread per file, files in flight per CPU permit: the rest of them wait on I/O. */
+  private static final int PER_FILE_THREADS_PER_PERMIT = 16;
+  /** Caps the estimated memory of the files running at once; {@code null} for no cap. */
+  private final MemoryBudget memoryBudget;
+  /** Whether files are planned and pruned largest first rather than as the walk finds them. */
+  private final boolean largestFirst;
   private final Logger logger = AutoPruner.logger;
 
   public ThreadPoolAutoPruner(int threadCount) {
+    this(threadCount, 0);
+  }
+
+  /**
+   * @param threadCount      Region files pruned at once.
+   * @param chunkThreadCount Threads shared by all files for decoding chunks, or 0 to decode each
+   *                         file's chunks on its own thread. Once few files are left (typically the
+   *                         largest), their chunks still spread over every chunk thread.
+   */
+  public ThreadPoolAutoPruner(int threadCount, int chunkThreadCount) {
+    this(threadCount, chunkThreadCount, null);
+  }
+
+  /**
+   * @param memoryBudget Admits region files to the workers only while their estimated footprint
+   *                     fits, holding large files back until running files release enough; or
+   *                     {@code null} to admit files as soon as a worker is free.
+   */
+  public ThreadPoolAutoPruner(int threadCount, int chunkThreadCount, MemoryBudget memoryBudget) {
+    this(threadCount, chunkThreadCount, memoryBudget, false);
+  }
+
+  /**
+   * @param largestFirst Find every region file first, then prune the largest ones first (by size,
+   *                     then by chunks in use), so a giant file found last does not set the end of
+   *                     the run; otherwise files are pruned as the walk finds them.
+   */
+  public ThreadPoolAutoPruner(int threadCount, int chunkThreadCount, MemoryBudget memoryBudget, boolean largestFirst) {
     this.threadPoolExecutor = Executors.newFixedThreadPool(threadCount);
+    this.readPool = null;
+    this.writePool = null;
+    this.cpuPermits = null;
+    this.maxInFlight = threadCount * 4;
+    this.memoryBudget = memoryBudget;
+    this.largestFirst = largestFirst;
+    this.chunkPool = chunkThreadCount > 0 ? new ForkJoinPool(chunkThreadCount) : null;
+  }
+
+  /**
+   * Runs each region file as a pipeline of three stages on pools sized on their own, so disks keep
+   * reading and writing while cores decode: files are read (and large ones faulted into memory) on
+   * {@code readThreadCount} threads, decoded and decided on {@code decodeThreadCount} threads, and
+   * written or deleted on {@code writeThreadCount} threads. The queue in front of each stage is
+   * bounded by the files allowed in flight at once.
+   *
+   * @see #ThreadPoolAutoPruner(int, int, MemoryBudget, boolean) for the other parameters.
+   */
+  public ThreadPoolAutoPruner(int readThreadCount, int decodeThreadCount, int writeThreadCount, int chunkThreadCount,
+                              MemoryBudget memoryBudget, boolean largestFirst) {
+    this.maxInFlight = decodeThreadCount * 4 + readThreadCount + writeThreadCount;
+    this.readPool = boundedPool(readThreadCount, maxInFlight);
+    this.threadPoolExecutor = boundedPool(decodeThreadCount, maxInFlight);
+    this.writePool = boundedPool(writeThreadCount, maxInFlight);
+    this.cpuPermits = null;
+    this.memoryBudget = memoryBudget;
+    this.largestFirst = largestFirst;
+    this.chunkPool = chunkThreadCount > 0 ? new ForkJoinPool(chunkThreadCount) : null;
+  }
+
+  /**
+   * Runs each region file on a thread of its own from {@code perFileExecutor}, which must start a
+   * thread per task. The thread holds one of the {@code cpuPermits} only while it decodes the
+   * file's chunks or re-encodes them for a rewrite, and none while it reads or writes.
+   */
+  ThreadPoolAutoPruner(ExecutorService perFileExecutor, Semaphore cpuPermits, int chunkThreadCount,
+                       MemoryBudget memoryBudget, boolean largestFirst) {
+    this.threadPoolExecutor = perFileExecutor;
+    this.readPool = null;
+    this.writePool = null;
+    this.cpuPermits = cpuPermits;
+    this.maxInFlight = cpuPermits.availablePermits() * PER_FILE_THREADS_PER_PERMIT;
+    this.memoryBudget = memoryBudget;
+    this.largestFirst = largestFirst;
+    this.chunkPool = chunkThreadCount > 0 ? new ForkJoinPool(chunkThreadCount) : null;
+  }
+
+  /**
+   * Runs each region file on a virtual thread of its own, so slow storage can have many files
+   * reading or writing at once, while at most {@code cpuPermitCount} of them decode or re-encode
+   * chunks at a time.
+   *
+   * @throws UnsupportedOperationException before Java 21; see {@link #virtualThreadsSupported()}.
+   * @see #ThreadPoolAutoPruner(int, int, MemoryBudget, boolean) for the other parameters.
+   */
+  public static ThreadPoolAutoPruner withVirtualThreads(int cpuPermitCount, int chunkThreadCount,
+                                                        MemoryBudget memoryBudget, boolean largestFirst) {
+    return new ThreadPoolAutoPruner(VirtualThreads.newPerTaskExecutor(), new Semaphore(cpuPermitCount), chunkThreadCount, memoryBudget, largestFirst);
+  }
+
+  /** @return whether this JVM runs {@link #withVirtualThreads}, which needs Java 21 or later. */
+  public static boolean virtualThreadsSupported() {
+    return VirtualThreads.supported();
+  }
+
+  /** A fixed pool whose queue holds at most {@code capacity} tasks; the dispatcher never offers more. */
+  private static ExecutorService boundedPool(int threads, int capacity) {
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity));
   }
 
   /**
@@ -36,11 +172,41 @@ public class ThreadPoolAutoPruner {
    * @return bytes removed
    */
   public long recursivelyProcessFiles(File file, long depth, boolean dryRun) throws ExecutionException, InterruptedException {
+    return recursivelyProcessFiles(file, depth, dryRun, null);
+  }
+
+  /**
+   * Like {@link #recursivelyProcessFiles(File, long, boolean)}, skipping region files that
+   * {@code index} shows unchanged since they were last found fully pruned, and recording the files
+   * this run leaves fully pruned into it.
+   *
+   * @return bytes removed
+   */
+  public long recursivelyProcessFiles(File file, long depth, boolean dryRun, RunIndex index) throws ExecutionException, InterruptedException {
+    return recursivelyProcessFiles(file, depth, dryRun, index, null);
+  }
+
+  /**
+   * Like {@link #recursivelyProcessFiles(File, long, boolean, RunIndex)}, but when
+   * {@code maxDuration} is non-null the files whose headers show the most reclaimable space are
+   * pruned first, and no file is started once that much time has passed; files already running
+   * are finished, and the rest are left for a later run.
+   *
+   * @return bytes removed
+   */
+  public long recursivelyProcessFiles(File file, long depth, boolean dryRun, RunIndex index, Duration maxDuration) throws ExecutionException, InterruptedException {
+    return recursivelyProcessFiles(file, depth, dryRun, index, maxDuration, null);
+  }
+
+  /**
+   * Like {@link #recursivelyProcessFiles(File, long, boolean, RunIndex, Duration)}, counting each
+   * finished region file into {@code progress} when it is non-null.
+   *
+   * @return bytes removed
+   */
+  public long recursivelyProcessFiles(File file, long depth, boolean dryRun, RunIndex index, Duration maxDuration, Progress progress) throws ExecutionException, InterruptedException {
     PruneSummary summary = new PruneSummary();
-    long sizeDeleted = 0;
-    for (Future<Long> future : recursivelyProcessFilesInternal(file, depth, logger::info, logger::warning, dryRun, summary)) {
-      sizeDeleted += future.get();
-    }
+    long sizeDeleted = recursivelyProcessFilesInternal(file, depth, logger::info, logger::warning, dryRun, summary, index, maxDuration, progress);
     logger.info((dryRun ? "Would delete " : "Deleted ") + AutoPruner.readableFileSize(sizeDeleted) + " from: " + file.getAbsolutePath());
     if (summary.changedFiles() >= AutoPruner.SUMMARY_THRESHOLD) {
       logger.info(System.lineSeparator() + summary.format(dryRun));
@@ -55,39 +221,279 @@ public class ThreadPoolAutoPruner {
 
   /** @return bytes removed */
   public long recursivelyProcessFiles(File file, long depth, Consumer<String> logging, Consumer<String> warnLogging, boolean dryRun) throws ExecutionException, InterruptedException {
-    long sizeDeleted = 0;
-    for (Future<Long> future : recursivelyProcessFilesInternal(file, depth, logging, warnLogging, dryRun, null)) {
-      sizeDeleted += future.get();
-    }
-    return sizeDeleted;
+    return recursivelyProcessFiles(file, depth, logging, warnLogging, dryRun, null);
   }
 
-  private List<Future<Long>> recursivelyProcessFilesInternal(
+  /** @return bytes removed; see {@link #recursivelyProcessFiles(File, long, boolean, RunIndex, Duration)} for {@code maxDuration}. */
+  public long recursivelyProcessFiles(File file, long depth, Consumer<String> logging, Consumer<String> warnLogging, boolean dryRun, Duration maxDuration) throws ExecutionException, InterruptedException {
+    return recursivelyProcessFilesInternal(file, depth, logging, warnLogging, dryRun, null, null, maxDuration, null);
+  }
+
+  /**
+   * Walks the tree on the calling thread. Unless files are to be planned, the pool prunes what the
+   * walk has found so far: every region file is submitted as soon as it is visited, and once
+   * {@link #maxInFlight} files are queued, running or held back the walk waits for one of them to
+   * finish. Pruning therefore starts on the first file found, and memory stays flat however many
+   * files the tree holds. When planning, the walk only reads each file's header, and the files are
+   * submitted the same way once sorted by {@link WorkPlanner}.
+   *
+   * @return bytes removed
+   */
+  private long recursivelyProcessFilesInternal(
       File file,
       long depth,
       Consumer<String> infoLogging,
       Consumer<String> warnLogging,
       boolean dryRun,
-      PruneSummary summary) {
-    if (depth > AutoPruner.MAX_RECURSION_DEPTH) {
-      return Collections.emptyList();
-    }
-    List<Future<Long>> futures = new ArrayList<>();
-    File[] files = file.listFiles();
-    if (files != null) {
-      for (File childFile : files) {
-        if (childFile.isDirectory()) {
-          futures.addAll(recursivelyProcessFilesInternal(childFile, depth + 1, infoLogging, warnLogging, dryRun, summary));
-        } else if (childFile.isFile() && childFile.getName().endsWith(".mca")) {
-          Callable<Long> callable = () -> AutoPruner.pruneMCAFile(childFile.getAbsolutePath(), infoLogging, warnLogging, dryRun, summary);
-          futures.add(threadPoolExecutor.submit(callable));
+      PruneSummary summary,
+      RunIndex index,
+      Duration maxDuration,
+      Progress progress) throws ExecutionException, InterruptedException {
+    if (depth > AutoPruner.MAX_RECURSION_DEPTH || !file.isDirectory()) {
+      return 0;
+    }
+    long deadline = maxDuration == null ? Long.MAX_VALUE : System.nanoTime() + maxDuration.toNanos();
+    WorkPlanner.Order order = maxDuration != null ? WorkPlanner.Order.MOST_RECLAIMABLE_FIRST
+        : largestFirst ? WorkPlanner.Order.LARGEST_FIRST : WorkPlanner.Order.FOUND;
+    Dispatcher dispatcher = new Dispatcher(planned -> new RegionGroup(planned.members, (path, group) ->
+        new RegionPrune(path.toString(), infoLogging, warnLogging, dryRun, summary, chunkPool, index, memoryBudget, group, progress)),
+        deadline);
+    List<WorkPlanner.PlannedFile> plan = order == WorkPlanner.Order.FOUND ? null : new ArrayList<>();
+    RegionFileVisitor visitor = new RegionFileVisitor(file.toPath().toAbsolutePath(), dispatcher, plan);
+    try {
+      // Files directly in {@code file} sit at walk depth 1 and belong to a directory at {@code depth}.
+      int maxDepth = (int) (AutoPruner.MAX_RECURSION_DEPTH - depth + 1);
+      Files.walkFileTree(file.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth, visitor);
+    } catch (IOException e) {
+      // The visitor passes over every per-entry failure, so this can only be the walk itself failing.
+      throw new ExecutionException(e);
+    }
+    visitor.rethrow();
+
+    int unstarted = 0;
+    long unstartedReclaim = 0;
+    if (plan != null) {
+      WorkPlanner.sort(plan, order);
+      for (int i = 0; i < plan.size(); i++) {
+        if (!dispatcher.offer(plan.get(i))) {
+          for (WorkPlanner.PlannedFile left : plan.subList(i, plan.size())) {
+            unstarted++;
+            unstartedReclaim += left.expectedReclaim;
+          }
+          break;
+        }
+      }
+    }
+    dispatcher.finish();
+    for (WorkPlanner.PlannedFile left : dispatcher.heldBack) {
+      unstarted++;
+      unstartedReclaim += left.expectedReclaim;
+    }
+    if (unstarted > 0) {
+      infoLogging.accept("Time budget reached, leaving " + unstarted + " file(s) for a later run ("
+          + AutoPruner.readableFileSize(unstartedReclaim) + " known reclaimable)");
+    }
+    return dispatcher.sizeDeleted;
+  }
+
+  /**
+   * Hands each region file it visits to the dispatcher, or to the plan when files are planned,
+   * together with its {@link RegionGroup} siblings; a sibling visited on its own is passed over,
+   * since the group's lead brings it.
+   */
+  private static final class RegionFileVisitor extends SimpleFileVisitor<Path> {
+    private final Path root;
+    private final Dispatcher dispatcher;
+    private final List<WorkPlanner.PlannedFile> plan;
+    private ExecutionException executionFailure;
+    private InterruptedException interrupted;
+
+    RegionFileVisitor(Path root, Dispatcher dispatcher, List<WorkPlanner.PlannedFile> plan) {
+      this.root = root;
+      this.dispatcher = dispatcher;
+      this.plan = plan;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+      if (!attributes.isRegularFile() || !path.getFileName().toString().endsWith(".mca")) {
+        return FileVisitResult.CONTINUE;
+      }
+      Path absolute = path.toAbsolutePath();
+      List<Path> members = RegionGroup.members(absolute, root);
+      if (!members.get(0).equals(absolute)) {
+        return FileVisitResult.CONTINUE;
+      }
+      List<WorkPlanner.PlannedFile> files = new ArrayList<>(members.size());
+      for (Path member : members) {
+        long size = member == absolute ? attributes.size() : sizeOf(member);
+        files.add(plan != null ? WorkPlanner.inspect(member, size) : WorkPlanner.found(member, size));
+      }
+      WorkPlanner.PlannedFile unit = WorkPlanner.group(files);
+      if (plan != null) {
+        plan.add(unit);
+        return FileVisitResult.CONTINUE;
+      }
+      try {
+        return dispatcher.offer(unit)
+            ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+      } catch (ExecutionException e) {
+        executionFailure = e;
+        return FileVisitResult.TERMINATE;
+      } catch (InterruptedException e) {
+        interrupted = e;
+        return FileVisitResult.TERMINATE;
+      }
+    }
+
+    private static long sizeOf(Path path) {
+      try {
+        return Files.size(path);
+      } catch (IOException e) {
+        return 0; // Left for the prune itself to report.
+      }
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path path, IOException e) {
+      // An unreadable entry or directory (or a symlink loop) is passed over, as File.listFiles did.
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+      return FileVisitResult.CONTINUE;
+    }
+
+    void rethrow() throws ExecutionException, InterruptedException {
+      if (interrupted != null) {
+        throw interrupted;
+      }
+      if (executionFailure != null) {
+        throw executionFailure;
+      }
+    }
+  }
+
+  /**
+   * Submits region files to the pool in the order offered, keeping at most {@link #maxInFlight} of
+   * them outstanding, and holding back those that do not fit the {@link #memoryBudget}. No file
+   * is started after the deadline.
+   */
+  private final class Dispatcher {
+    private final Function<WorkPlanner.PlannedFile, RegionGroup> prunes;
+    private final long deadline;
+    /** Files whose pruning has finished, in the order they finished. */
+    private final BlockingQueue<Future<Long>> completed = new LinkedBlockingQueue<>();
+    private final Deque<WorkPlanner.PlannedFile> heldBack = new ArrayDeque<>();
+    private int inFlight;
+    private long sizeDeleted;
+
+    Dispatcher(Function<WorkPlanner.PlannedFile, RegionGroup> prunes, long deadline) {
+      this.prunes = prunes;
+      this.deadline = deadline;
+    }
+
+    /** @return {@code false}, without taking {@code file}, once the deadline has passed. */
+    boolean offer(WorkPlanner.PlannedFile file) throws ExecutionException, InterruptedException {
+      if (inFlight > 0 && inFlight + heldBack.size() >= maxInFlight) {
+        collectOne();
+      }
+      if (pastDeadline()) {
+        return false;
+      }
+      heldBack.add(file);
+      admitHeldBack();
+      return true;
+    }
+
+    /** Waits for every submitted file; files still held back once the deadline passes stay there. */
+    void finish() throws ExecutionException, InterruptedException {
+      while (inFlight > 0) {
+        collectOne();
+      }
+    }
+
+    private boolean pastDeadline() {
+      return deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Submits, in the order they were offered, every held-back file whose footprint now fits the
+     * budget. Nothing is held back once nothing runs, since the budget then admits any one file.
+     */
+    private void admitHeldBack() {
+      if (pastDeadline()) {
+        return;
+      }
+      for (Iterator<WorkPlanner.PlannedFile> it = heldBack.iterator(); it.hasNext(); ) {
+        WorkPlanner.PlannedFile held = it.next();
+        long footprint = memoryBudget == null ? -1 : memoryBudget.estimate(held.size);
+        if (footprint >= 0 && !memoryBudget.tryReserve(footprint)) {
+          continue;
         }
+        it.remove();
+        CompletableFuture<Long> future = launch(prunes.apply(held));
+        inFlight++;
+        future.whenComplete((sizeDeleted, failure) -> {
+          if (footprint >= 0) {
+            memoryBudget.release(footprint);
+          }
+          completed.add(future);
+        });
       }
     }
-    return futures;
+
+    /** Waits for one submitted file to finish, then admits whatever its release made room for. */
+    private void collectOne() throws ExecutionException, InterruptedException {
+      Future<Long> done = completed.take();
+      inFlight--;
+      admitHeldBack();
+      sizeDeleted += done.get();
+    }
+  }
+
+  /** Starts {@code group}, whole on the pool or stage by stage on the staged pools. */
+  private CompletableFuture<Long> launch(RegionGroup group) {
+    if (cpuPermits != null) {
+      return CompletableFuture.supplyAsync(() -> runHoldingCpuPermits(group), threadPoolExecutor);
+    }
+    if (readPool == null) {
+      return CompletableFuture.supplyAsync(group::run, threadPoolExecutor);
+    }
+    return CompletableFuture.runAsync(group::read, readPool)
+        .thenRunAsync(group::decide, threadPoolExecutor)
+        .thenApplyAsync(ignored -> group.write(), writePool);
+  }
+
+  /** Runs every stage of {@code group}, holding a CPU permit only for the CPU-bound ones. */
+  private long runHoldingCpuPermits(RegionGroup group) {
+    group.read();
+    cpuPermits.acquireUninterruptibly();
+    try {
+      group.decide();
+    } finally {
+      cpuPermits.release();
+    }
+    if (!group.writeNeedsCpu()) {
+      return group.write();
+    }
+    cpuPermits.acquireUninterruptibly();
+    try {
+      return group.write();
+    } finally {
+      cpuPermits.release();
+    }
   }
 
   public void close() {
     threadPoolExecutor.shutdownNow();
+    if (readPool != null) {
+      readPool.shutdownNow();
+      writePool.shutdownNow();
+    }
+    if (chunkPool != null) {
+      chunkPool.shutdownNow();
+    }
   }
 }
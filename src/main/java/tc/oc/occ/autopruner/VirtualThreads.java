@@ -0,0 +1,27 @@
+package tc.oc.occ.autopruner;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Virtual threads, where the running JVM has them. This is the Java 8 build of the class, for JVMs
+ * that do not; the JAR also carries a Java 21 build of it under {@code META-INF/versions/21}, which
+ * a Java 21+ JVM loads instead.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /** @return whether {@link #newPerTaskExecutor()} is available on this JVM. */
+  static boolean supported() {
+    return false;
+  }
+
+  /**
+   * @return an executor starting a new virtual thread for each task.
+   * @throws UnsupportedOperationException unless {@link #supported()}.
+   */
+  static ExecutorService newPerTaskExecutor() {
+    throw new UnsupportedOperationException("virtual threads need Java 21 or later");
+  }
+}
@@ -0,0 +1,127 @@
+package tc.oc.occ.autopruner;
+
+import net.querz.mca.MCAUtil;
+import net.querz.mca.RegionHeader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders the region files of a directory run before any of them is pruned. Files are ordered by
+ * what their size and header say, without reading any chunk:
+ *
+ * <ul>
+ *   <li>{@link Order#LARGEST_FIRST}: longest processing time first, so the biggest files start
+ *       while the rest of the pool still has small ones to balance against, instead of one giant
+ *       file found last setting the end of the run.</li>
+ *   <li>{@link Order#MOST_RECLAIMABLE_FIRST}: files whose header already shows the most reclaimable
+ *       space first (a file with no chunks at all, then unclaimed sectors), and the rest largest
+ *       first, for runs cut short by a time budget.</li>
+ * </ul>
+ */
+final class WorkPlanner {
+
+  enum Order {
+    /** As the directory walk finds them; nothing is planned and pruning starts at once. */
+    FOUND,
+    LARGEST_FIRST,
+    MOST_RECLAIMABLE_FIRST
+  }
+
+  /**
+   * A region file found by the directory walk, with what its size and header tell about it; or a
+   * whole {@link RegionGroup}, planned as one unit led by its first file.
+   */
+  static final class PlannedFile {
+    final Path path;
+    /** The files pruned together as one unit, {@link #path} first. */
+    final List<Path> members;
+    final long size;
+    /** Chunk slots in use, or -1 when the header was not read. */
+    final int occupiedSlots;
+    /** Bytes the header alone shows a prune would reclaim; 0 when the header was not read. */
+    final long expectedReclaim;
+
+    PlannedFile(Path path, long size, int occupiedSlots, long expectedReclaim) {
+      this(Collections.singletonList(path), size, occupiedSlots, expectedReclaim);
+    }
+
+    PlannedFile(List<Path> members, long size, int occupiedSlots, long expectedReclaim) {
+      this.path = members.get(0);
+      this.members = members;
+      this.size = size;
+      this.occupiedSlots = occupiedSlots;
+      this.expectedReclaim = expectedReclaim;
+    }
+  }
+
+  private static final Comparator<PlannedFile> LARGEST_FIRST =
+      Comparator.<PlannedFile>comparingLong(file -> file.size)
+          .thenComparingInt(file -> file.occupiedSlots)
+          .reversed();
+
+  private static final Comparator<PlannedFile> MOST_RECLAIMABLE_FIRST =
+      Comparator.<PlannedFile>comparingLong(file -> file.expectedReclaim)
+          .reversed()
+          .thenComparing(LARGEST_FIRST);
+
+  private WorkPlanner() {
+  }
+
+  /** @return {@code path} as found, for a run that does not plan. */
+  static PlannedFile found(Path path, long size) {
+    return new PlannedFile(path, size, -1, 0);
+  }
+
+  /**
+   * @return {@code path} with its header inspected. An unreadable header is left for the prune
+   * itself to report, and only costs the file its place in the order.
+   */
+  static PlannedFile inspect(Path path, long size) {
+    try {
+      RegionHeader header = MCAUtil.readHeader(path.toFile());
+      long reclaim = header.triage() == RegionHeader.Triage.EMPTY
+          ? size
+          : header.getUnclaimedSectors() * RegionHeader.SECTOR_SIZE;
+      return new PlannedFile(path, size, header.getOccupiedSlots(), reclaim);
+    } catch (IOException e) {
+      return found(path, size);
+    }
+  }
+
+  /** @return the planned files of one {@link RegionGroup}, {@code files.get(0)} leading, as one unit. */
+  static PlannedFile group(List<PlannedFile> files) {
+    if (files.size() == 1) {
+      return files.get(0);
+    }
+    List<Path> members = new ArrayList<>(files.size());
+    long size = 0;
+    int occupiedSlots = 0;
+    long expectedReclaim = 0;
+    for (PlannedFile file : files) {
+      members.add(file.path);
+      size += file.size;
+      occupiedSlots = occupiedSlots < 0 || file.occupiedSlots < 0 ? -1 : occupiedSlots + file.occupiedSlots;
+      expectedReclaim += file.expectedReclaim;
+    }
+    return new PlannedFile(members, size, occupiedSlots, expectedReclaim);
+  }
+
+  /** Sorts {@code files} into {@code order}. */
+  static void sort(List<PlannedFile> files, Order order) {
+    switch (order) {
+      case LARGEST_FIRST:
+        files.sort(LARGEST_FIRST);
+        break;
+      case MOST_RECLAIMABLE_FIRST:
+        files.sort(MOST_RECLAIMABLE_FIRST);
+        break;
+      default:
+        break;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package net.querz.mca;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the work done on region files and their chunks. This is the
+ * Java 11 build of the class, which a Java 11+ JVM loads over the Java 8 build in the JAR; see that
+ * build for how callers use it. An event is only created while a recording has it enabled.
+ */
+public final class FlightEvents {
+
+  /** What an event times. */
+  public enum Kind {
+    REGION_READ, CHUNK_DECODE, DECISION, REGION_WRITE, COMPACTION, ENTITY_LOOKUP
+  }
+
+  /** Per {@link Kind}, by ordinal. */
+  private static final EventType[] TYPES = {
+      EventType.getEventType(RegionRead.class),
+      EventType.getEventType(ChunkDecode.class),
+      EventType.getEventType(Decision.class),
+      EventType.getEventType(RegionWrite.class),
+      EventType.getEventType(Compaction.class),
+      EventType.getEventType(EntityLookup.class),
+  };
+
+  private FlightEvents() {
+  }
+
+  public static Object begin(Kind kind) {
+    if (!TYPES[kind.ordinal()].isEnabled()) {
+      return null;
+    }
+    PruneEvent event;
+    switch (kind) {
+      case REGION_READ:
+        event = new RegionRead();
+        break;
+      case CHUNK_DECODE:
+        event = new ChunkDecode();
+        break;
+      case DECISION:
+        event = new Decision();
+        break;
+      case REGION_WRITE:
+        event = new RegionWrite();
+        break;
+      case COMPACTION:
+        event = new Compaction();
+        break;
+      default:
+        event = new EntityLookup();
+        break;
+    }
+    event.begin();
+    return event;
+  }
+
+  public static void commit(Object handle, String path, String era, int dataVersion, long bytes, String outcome) {
+    PruneEvent event = (PruneEvent) handle;
+    event.end();
+    if (event.shouldCommit()) {
+      event.path = path;
+      event.era = era;
+      event.dataVersion = dataVersion;
+      event.bytes = bytes;
+      event.outcome = outcome;
+      event.commit();
+    }
+  }
+
+  @Category("AutoPruner")
+  abstract static class PruneEvent extends Event {
+    @Label("Path")
+    String path;
+    @Label("Era")
+    String era;
+    @Label("Data Version")
+    int dataVersion;
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+    @Label("Outcome")
+    String outcome;
+  }
+
+  @Name("autopruner.RegionRead")
+  @Label("Region Read")
+  @Description("Reading a region file's header and, unless it holds no chunks, the whole file")
+  static final class RegionRead extends PruneEvent {
+  }
+
+  @Name("autopruner.ChunkDecode")
+  @Label("Chunk Decode")
+  @Description("Inflating and scanning one chunk; bytes are its uncompressed NBT")
+  static final class ChunkDecode extends PruneEvent {
+  }
+
+  @Name("autopruner.Decision")
+  @Label("Keep/Prune Decision")
+  @Description("Deciding whether one chunk is kept; bytes are its uncompressed NBT")
+  static final class Decision extends PruneEvent {
+  }
+
+  @Name("autopruner.RegionWrite")
+  @Label("Region Write")
+  @Description("Rewriting or deleting a region file; bytes are its size afterwards, or before deletion")
+  static final class RegionWrite extends PruneEvent {
+  }
+
+  @Name("autopruner.Compaction")
+  @Label("Compaction")
+  @Description("Defragmenting a region file in place; bytes are those reclaimed")
+  static final class Compaction extends PruneEvent {
+  }
+
+  @Name("autopruner.EntityLookup")
+  @Label("Entity Region Lookup")
+  @Description("Finding and reading the entity region a block region consults")
+  static final class EntityLookup extends PruneEvent {
+  }
+}
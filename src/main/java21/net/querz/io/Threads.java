@@ -0,0 +1,16 @@
+package net.querz.io;
+
+/**
+ * What kind of thread code runs on. This is the Java 21 build of the class, packed under
+ * {@code META-INF/versions/21} of the multi-release JAR; older JVMs load the Java 8 build.
+ */
+public final class Threads {
+
+  private Threads() {
+  }
+
+  /** @return whether the calling thread is a virtual thread. */
+  public static boolean isVirtual() {
+    return Thread.currentThread().isVirtual();
+  }
+}
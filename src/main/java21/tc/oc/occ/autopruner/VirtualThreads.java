@@ -0,0 +1,24 @@
+package tc.oc.occ.autopruner;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual threads, where the running JVM has them. This is the Java 21 build of the class, packed
+ * under {@code META-INF/versions/21} of the multi-release JAR; older JVMs load the Java 8 build.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /** @return whether {@link #newPerTaskExecutor()} is available on this JVM. */
+  static boolean supported() {
+    return true;
+  }
+
+  /** @return an executor starting a new virtual thread for each task. */
+  static ExecutorService newPerTaskExecutor() {
+    return Executors.newVirtualThreadPerTaskExecutor();
+  }
+}
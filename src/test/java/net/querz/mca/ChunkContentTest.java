@@ -1,10 +1,24 @@
 package net.querz.mca;
 
+import net.querz.nbt.io.NBTDeserializer;
+import net.querz.nbt.io.NBTSerializer;
+import net.querz.nbt.io.NamedTag;
 import net.querz.nbt.tag.CompoundTag;
 import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.LongArrayTag;
 import net.querz.nbt.tag.StringTag;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -201,10 +215,81 @@ public class ChunkContentTest {
     assertTrue(new Chunk(data).hasContent(null));
   }
 
+  // ---------------------------------------------------------------------------------------------
+  // Streaming: chunks read from compressed data decide exactly like parsed ones
+  // ---------------------------------------------------------------------------------------------
+
+  @Test
+  public void streamedDecisionMatchesParsedDecision() throws IOException {
+    CompoundTag modernBiome = modernSection(0, "minecraft:air");
+    setBiome(modernBiome, "minecraft:the_void");
+    CompoundTag flattenedEntities = legacyChunk(DV_1_14, paletteSection("minecraft:air"));
+    addInlineEntities(flattenedEntities, named("minecraft:cow"));
+    byte[] legacyBlocks = new byte[4096];
+    legacyBlocks[7] = 3;
+
+    CompoundTag[] chunks = {
+        modernChunk(modernSection(-4, "minecraft:air"), modernSection(0, "minecraft:air")),
+        modernChunk(modernSection(0, "minecraft:air", "minecraft:stone")),
+        modernChunk(modernBiome),
+        entityChunk(DV_1_21),
+        entityChunk(DV_1_21, named("minecraft:item_frame")),
+        legacyChunk(DV_1_14, paletteSection("minecraft:air")),
+        legacyChunk(DV_1_14, paletteSection("minecraft:air", "minecraft:dirt")),
+        flattenedEntities,
+        legacyChunk(DV_LEGACY, numericSection(new byte[4096])),
+        legacyChunk(DV_LEGACY, numericSection(legacyBlocks), numericSection(new byte[4096])),
+    };
+    for (CompoundTag data : chunks) {
+      Chunk parsed = new Chunk(data.clone());
+      Chunk streamed = streamed(data);
+      assertEquals("decision for " + data, parsed.hasContent(null), streamed.hasContent(null));
+      assertEquals("entity chunk for " + data, parsed.isEntityChunk(), streamed.isEntityChunk());
+      assertEquals("strip for " + data, parsed.changesMade(), streamed.changesMade());
+      assertEquals(parsed.getDataVersion(), streamed.getDataVersion());
+    }
+
+    Chunk blockChunk = streamed(legacyChunk(DV_1_17, paletteSection("minecraft:air")));
+    assertTrue(blockChunk.hasContent(streamed(entityChunk(DV_1_17, named("minecraft:painting")))));
+    assertFalse(blockChunk.hasContent(streamed(entityChunk(DV_1_17))));
+  }
+
+  @Test
+  public void streamedChunkRewritesItsFullTag() throws IOException {
+    // The scan stops as soon as the stone is seen; a rewrite must still carry every field.
+    CompoundTag data = modernChunk(modernSection(0, "minecraft:stone"), modernSection(1, "minecraft:air"));
+    data.put("Heightmap", new LongArrayTag(new long[37]));
+    Chunk chunk = streamed(data);
+    assertTrue(chunk.hasContent(null));
+
+    File file = Files.createTempFile("autopruner-chunk", ".bin").toFile();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      chunk.serialize(raf);
+    }
+    byte[] written = Files.readAllBytes(file.toPath());
+    Files.delete(file.toPath());
+    assertEquals(CompressionType.ZLIB.getID(), written[4]);
+    NamedTag rewritten = new NBTDeserializer(false).fromStream(
+        CompressionType.ZLIB.decompress(new ByteArrayInputStream(written, 5, written.length - 5)));
+    assertEquals(data, rewritten.getTag());
+  }
+
   // ---------------------------------------------------------------------------------------------
   // Builders
   // ---------------------------------------------------------------------------------------------
 
+  /** Compresses {@code data} as a region chunk payload and reads it back through the streaming path. */
+  private static Chunk streamed(CompoundTag data) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    payload.write(CompressionType.ZLIB.getID());
+    try (OutputStream out = CompressionType.ZLIB.compress(payload)) {
+      new NBTSerializer(false).toStream(new NamedTag("", data), out);
+    }
+    Chunk chunk = new Chunk(0);
+    chunk.deserialize(ByteBuffer.wrap(payload.toByteArray()));
+    return chunk;
+  }
+
   private static CompoundTag named(String id) {
     CompoundTag tag = new CompoundTag();
     tag.put("id", new StringTag(id));
@@ -0,0 +1,172 @@
+package net.querz.mca;
+
+import net.querz.io.LZ4;
+import net.querz.nbt.io.NBTSerializer;
+import net.querz.nbt.io.NamedTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.StringTag;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies that every {@link CompressionType} round-trips chunk-sized payloads, that the pooled
+ * ZLIB streams stay byte-compatible with the JDK's zlib streams across reuse, and that the
+ * pure-Java LZ4 codec follows the LZ4 block and xxHash specifications.
+ */
+public class CompressionTypeTest {
+
+  private static final int[] SIZES = {0, 1, 100, 8191, 8192, 70000};
+
+  @Test
+  public void everyTypeRoundTrips() throws IOException {
+    for (CompressionType type : CompressionType.values()) {
+      assertSame(type, CompressionType.getFromID(type.getID()));
+      for (int size : SIZES) {
+        byte[] data = payload(size);
+        byte[] compressed = compress(type, data);
+        assertArrayEquals(type + " " + size, data, decompress(type, compressed));
+        if (type != CompressionType.NONE && size > 8192) {
+          assertTrue(type + " should compress the repetitive half", compressed.length < size * 3 / 4);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void pooledZlibMatchesTheJdkStreams() throws IOException {
+    // Several rounds on one thread, so later rounds run on recycled inflaters and deflaters.
+    for (int round = 0; round < 3; round++) {
+      for (int size : SIZES) {
+        byte[] data = payload(size);
+
+        ByteArrayOutputStream jdk = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(jdk)) {
+          out.write(data);
+        }
+        byte[] pooled = compress(CompressionType.ZLIB, data);
+        assertArrayEquals(jdk.toByteArray(), pooled);
+
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(pooled))) {
+          assertArrayEquals(data, readAll(in));
+        }
+        assertArrayEquals(data, decompress(CompressionType.ZLIB, jdk.toByteArray()));
+      }
+    }
+  }
+
+  @Test
+  public void abandonedZlibStreamDoesNotDisturbTheNext() throws IOException {
+    byte[] first = compress(CompressionType.ZLIB, payload(50000));
+    try (InputStream in = CompressionType.ZLIB.decompress(new ByteArrayInputStream(first))) {
+      assertEquals(100, in.read(new byte[100])); // read a little, then close early
+    }
+    byte[] data = payload(20000);
+    assertArrayEquals(data, decompress(CompressionType.ZLIB, compress(CompressionType.ZLIB, data)));
+  }
+
+  @Test
+  public void xxHash32MatchesReferenceVectors() {
+    assertEquals(0x02CC5D05, LZ4.xxHash32(new byte[0], 0, 0, 0));
+    byte[] abc = "abc".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(0x32D153FF, LZ4.xxHash32(abc, 0, abc.length, 0));
+    byte[] long16 = "Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(0xE2293B2F, LZ4.xxHash32(long16, 0, long16.length, 0));
+  }
+
+  @Test
+  public void lz4DecodesOverlappingMatches() throws IOException {
+    // "abc" as literals, then a 9-byte match at distance 3, then an empty literal run.
+    byte[] block = {0x35, 'a', 'b', 'c', 3, 0, 0x00};
+    byte[] out = new byte[12];
+    LZ4.decompress(block, 0, block.length, out, 0, out.length);
+    assertArrayEquals("abcabcabcabc".getBytes(StandardCharsets.US_ASCII), out);
+  }
+
+  @Test
+  public void lz4RejectsCorruptStreams() throws IOException {
+    byte[] stream = compress(CompressionType.LZ4, payload(5000));
+    byte[] badChecksum = stream.clone();
+    badChecksum[17] ^= 1;
+    byte[] truncated = Arrays.copyOf(stream, stream.length - 21); // no end-of-stream block
+    for (byte[] corrupt : new byte[][] {badChecksum, truncated}) {
+      try {
+        decompress(CompressionType.LZ4, corrupt);
+        fail("corrupt LZ4 stream was accepted");
+      } catch (IOException expected) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void lz4ChunkIsReadAndKept() throws IOException {
+    CompoundTag data = new CompoundTag();
+    data.putInt("DataVersion", 4556);
+    ListTag<CompoundTag> entities = new ListTag<>(CompoundTag.class);
+    CompoundTag chest = new CompoundTag();
+    chest.put("id", new StringTag("minecraft:chest"));
+    entities.add(chest);
+    data.put("block_entities", entities);
+
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    payload.write(CompressionType.LZ4.getID());
+    try (OutputStream out = CompressionType.LZ4.compress(payload)) {
+      new NBTSerializer(false).toStream(new NamedTag("", data), out);
+    }
+    Chunk chunk = new Chunk(0);
+    chunk.deserialize(ByteBuffer.wrap(payload.toByteArray()));
+    assertSame(CompressionType.LZ4, chunk.getCompressionType());
+    assertTrue(chunk.hasContent(null));
+  }
+
+  /** Half random, half repetitive, so compressors have something to find. */
+  private static byte[] payload(int size) {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    for (int i = size / 2; i < size; i++) {
+      data[i] = (byte) (i % 7);
+    }
+    return data;
+  }
+
+  private static byte[] compress(CompressionType type, byte[] data) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream out = type.compress(compressed)) {
+      out.write(data);
+    }
+    return compressed.toByteArray();
+  }
+
+  private static byte[] decompress(CompressionType type, byte[] compressed) throws IOException {
+    try (InputStream in = type.decompress(new ByteArrayInputStream(compressed))) {
+      return readAll(in);
+    }
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1000];
+    for (int n; (n = in.read(buffer)) != -1; ) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+}
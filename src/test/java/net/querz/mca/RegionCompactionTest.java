@@ -1,23 +1,31 @@
 package net.querz.mca;
 
+import net.querz.nbt.io.NBTSerializer;
+import net.querz.nbt.io.NamedTag;
 import net.querz.nbt.tag.CompoundTag;
 import net.querz.nbt.tag.ListTag;
 import net.querz.nbt.tag.StringTag;
 import org.junit.Test;
 import tc.oc.occ.autopruner.AutoPruner;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Verifies the "check for gaps first" defragmentation: {@link MCAFile#analyzeLayout(byte[])}
@@ -87,6 +95,7 @@ public class RegionCompactionTest {
     long bloatedSize = region.length();
     assertTrue(bloatedSize > packedSize);
     assertTrue("waste should be detected", MCAUtil.read(region).hasReclaimableSpace());
+    assertEquals(RegionHeader.Triage.NEEDS_PARSE, MCAUtil.readHeader(region).triage());
 
     List<String> info = new ArrayList<>();
     AutoPruner.pruneMCAFile(region.getAbsolutePath(), info::add, message -> { });
@@ -95,6 +104,7 @@ public class RegionCompactionTest {
         info.stream().anyMatch(message -> message.startsWith("Compacted")));
     assertEquals("compacting should restore the tight packing", packedSize, region.length());
 
+    assertEquals(RegionHeader.Triage.PACKED, MCAUtil.readHeader(region).triage());
     MCAFile after = MCAUtil.read(region);
     assertNotNull("the surviving chunk must be preserved", after.getChunk(0));
     assertFalse("a freshly compacted file has no further waste", after.hasReclaimableSpace());
@@ -109,6 +119,111 @@ public class RegionCompactionTest {
     Files.deleteIfExists(tmp);
   }
 
+  @Test
+  public void compactionCopiesUntouchedChunksVerbatim() throws IOException {
+    // A GZIP chunk sitting behind a one-sector gap: compaction must move its bytes as they are,
+    // not re-encode them as ZLIB.
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream out = CompressionType.GZIP.compress(compressed)) {
+      new NBTSerializer(false).toStream(new NamedTag("", modernStoneChunk()), out);
+    }
+    byte[] payload = compressed.toByteArray();
+    byte[] raw = region(4, 3, 1, payload.length + 1);
+    raw[3 * SECTOR + 4] = CompressionType.GZIP.getID();
+    System.arraycopy(payload, 0, raw, 3 * SECTOR + 5, payload.length);
+
+    Path tmp = Files.createTempDirectory("autopruner-passthrough");
+    File region = new File(tmp.toFile(), "r.0.0.mca");
+    Files.write(region.toPath(), raw);
+    AutoPruner.pruneMCAFile(region.getAbsolutePath(), message -> { }, message -> { });
+
+    byte[] after = Files.readAllBytes(region.toPath());
+    assertEquals(3 * SECTOR, after.length);
+    assertEquals(2, after[2]);
+    assertArrayEquals(Arrays.copyOfRange(raw, 3 * SECTOR, 3 * SECTOR + payload.length + 5),
+        Arrays.copyOfRange(after, 2 * SECTOR, 2 * SECTOR + payload.length + 5));
+
+    Files.deleteIfExists(region.toPath());
+    Files.deleteIfExists(tmp);
+  }
+
+  @Test
+  public void regionLargeEnoughToBeMappedIsCompacted() throws IOException {
+    // Over a megabyte of trailing waste takes the memory-mapped read path.
+    Path tmp = Files.createTempDirectory("autopruner-mapped");
+    File region = new File(tmp.toFile(), "r.0.0.mca");
+
+    MCAFile mca = new MCAFile(0, 0);
+    mca.setChunk(0, new Chunk(modernStoneChunk()));
+    mca.setChunk(1, new Chunk(modernStoneChunk()));
+    MCAUtil.write(mca, region.getAbsolutePath());
+    long packedSize = region.length();
+    try (RandomAccessFile raf = new RandomAccessFile(region, "rw")) {
+      raf.setLength(packedSize + 300L * SECTOR);
+    }
+
+    MCAFile bloated = MCAUtil.read(region);
+    assertNotNull(bloated.getChunk(1));
+    assertEquals(300, bloated.getReclaimableSectors());
+
+    AutoPruner.pruneMCAFile(region.getAbsolutePath(), message -> { }, message -> { });
+    assertEquals(packedSize, region.length());
+    MCAFile after = MCAUtil.read(region);
+    assertNotNull(after.getChunk(0));
+    assertNotNull(after.getChunk(1));
+
+    Files.deleteIfExists(region.toPath());
+    Files.deleteIfExists(tmp);
+  }
+
+  @Test
+  public void parallelReadMatchesSequentialRead() throws IOException {
+    Path tmp = Files.createTempDirectory("autopruner-parallel");
+    File region = new File(tmp.toFile(), "r.0.0.mca");
+    MCAFile mca = new MCAFile(0, 0);
+    for (int i = 0; i < MCAFile.CHUNK_COUNT; i += 3) {
+      CompoundTag data = modernStoneChunk();
+      if (i % 2 == 0) {
+        data = new CompoundTag();
+        data.putInt("DataVersion", DV_1_21);
+      }
+      mca.setChunk(i, new Chunk(data));
+    }
+    MCAUtil.write(mca, region.getAbsolutePath());
+
+    MCAFile sequential = MCAUtil.read(region);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      MCAFile parallel = MCAUtil.read(region, pool);
+      for (int i = 0; i < MCAFile.CHUNK_COUNT; i++) {
+        Chunk expected = sequential.getChunk(i);
+        Chunk actual = parallel.getChunk(i);
+        assertEquals("slot " + i, expected == null, actual == null);
+        if (expected != null) {
+          assertEquals("slot " + i, expected.hasContent(null), actual.hasContent(null));
+          assertEquals(expected.getDataVersion(), actual.getDataVersion());
+        }
+      }
+
+      // A corrupt chunk fails the parallel read just like the sequential one.
+      try (RandomAccessFile raf = new RandomAccessFile(region, "rw")) {
+        raf.seek(2L * SECTOR + 4);
+        raf.write(99);
+      }
+      try {
+        MCAUtil.read(region, pool);
+        fail("a corrupt chunk should fail the read");
+      } catch (IOException expected) {
+        assertTrue(expected.getMessage().contains("compression type"));
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    Files.deleteIfExists(region.toPath());
+    Files.deleteIfExists(tmp);
+  }
+
   // ---------------------------------------------------------------------------------------------
   // Builders
   // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,175 @@
+package net.querz.mca;
+
+import net.querz.nbt.io.NBTSerializer;
+import net.querz.nbt.io.NamedTag;
+import net.querz.nbt.tag.ByteArrayTag;
+import net.querz.nbt.tag.CompoundTag;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies {@link RegionCompactor}: chunks slide toward the header byte-for-byte, and a compaction
+ * interrupted after its journal was committed is finished by {@link RegionCompactor#recover(File)}.
+ */
+public class RegionCompactorTest {
+
+  private static final int SECTOR = 4096;
+
+  // Slot, sector offset and sector count of each chunk: gaps, over-allocated slots, multi-sector
+  // chunks, and an offset order that differs from the slot order.
+  private static final int[][] LAYOUT = {
+      {5, 3, 2},
+      {0, 6, 3},
+      {7, 10, 1},
+      {1, 14, 4},
+      {2, 20, 2},
+  };
+  private static final int[] FILLER = {100, 9000, 10, 12000, 5000};
+
+  @Test
+  public void compactionSlidesChunksVerbatim() throws IOException {
+    byte[] raw = fragmentedRegion();
+    File region = writeTemp(raw);
+
+    assertTrue(RegionCompactor.compact(region));
+
+    byte[] after = Files.readAllBytes(region.toPath());
+    assertCompacted(raw, after);
+    assertFalse(RegionCompactor.journalFile(region).exists());
+    assertEquals(RegionHeader.Triage.PACKED, MCAUtil.readHeader(region).triage());
+    MCAFile mca = MCAUtil.read(region);
+    for (int[] slot : LAYOUT) {
+      assertNotNull(mca.getChunk(slot[0]));
+    }
+    delete(region);
+  }
+
+  @Test
+  public void interruptedCompactionIsFinishedFromItsJournal() throws IOException {
+    byte[] raw = fragmentedRegion();
+    File region = writeTemp(raw);
+
+    // Commit the journal, then tear every move's destination as a crash mid-move would.
+    try (FileChannel channel = FileChannel.open(region.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+         FileChannel log = FileChannel.open(RegionCompactor.journalFile(region).toPath(),
+             StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      RegionCompactor.Plan plan = RegionCompactor.plan(channel);
+      assertNotNull(plan);
+      RegionCompactor.writeJournal(log, plan, channel);
+      for (int i = 0; i < plan.moves(); i++) {
+        byte[] garbage = new byte[plan.length[i] / 2];
+        Arrays.fill(garbage, (byte) 0x5A);
+        channel.write(ByteBuffer.wrap(garbage), (long) plan.target[i] * SECTOR);
+      }
+    }
+
+    assertTrue(RegionCompactor.recover(region));
+    assertCompacted(raw, Files.readAllBytes(region.toPath()));
+    assertFalse(RegionCompactor.journalFile(region).exists());
+
+    // Replaying is idempotent.
+    assertFalse(RegionCompactor.recover(region));
+    delete(region);
+  }
+
+  @Test
+  public void uncommittedJournalIsDiscarded() throws IOException {
+    byte[] raw = fragmentedRegion();
+    File region = writeTemp(raw);
+    Files.write(RegionCompactor.journalFile(region).toPath(), new byte[100]);
+
+    assertTrue(RegionCompactor.recover(region));
+    assertArrayEquals(raw, Files.readAllBytes(region.toPath()));
+    assertFalse(RegionCompactor.journalFile(region).exists());
+    delete(region);
+  }
+
+  @Test
+  public void overlappingSlotsAreLeftForARewrite() throws IOException {
+    byte[] raw = fragmentedRegion();
+    // Point the second chunk into the first one's sectors.
+    raw[LAYOUT[1][0] * 4 + 2] = (byte) (LAYOUT[0][1] + 1);
+    File region = writeTemp(raw);
+
+    assertFalse(RegionCompactor.compact(region));
+    assertArrayEquals(raw, Files.readAllBytes(region.toPath()));
+    delete(region);
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Helpers
+  // ---------------------------------------------------------------------------------------------
+
+  /** Each chunk's data must now sit back-to-back from sector 2, in the original offset order. */
+  private static void assertCompacted(byte[] raw, byte[] after) {
+    ByteBuffer before = ByteBuffer.wrap(raw);
+    ByteBuffer now = ByteBuffer.wrap(after);
+    int next = 2;
+    for (int[] slot : LAYOUT) {
+      int length = before.getInt(slot[1] * SECTOR) + 4;
+      int sectors = (length + SECTOR - 1) / SECTOR;
+      assertEquals(next << 8 | sectors, now.getInt(slot[0] * 4));
+      assertEquals(before.getInt(SECTOR + slot[0] * 4), now.getInt(SECTOR + slot[0] * 4));
+      assertArrayEquals(Arrays.copyOfRange(raw, slot[1] * SECTOR, slot[1] * SECTOR + length),
+          Arrays.copyOfRange(after, next * SECTOR, next * SECTOR + length));
+      next += sectors;
+    }
+    assertEquals(next * SECTOR, after.length);
+  }
+
+  private static byte[] fragmentedRegion() throws IOException {
+    Random random = new Random(42);
+    byte[] raw = new byte[24 * SECTOR];
+    ByteBuffer buffer = ByteBuffer.wrap(raw);
+    for (int c = 0; c < LAYOUT.length; c++) {
+      int[] slot = LAYOUT[c];
+      byte[] filler = new byte[FILLER[c]];
+      random.nextBytes(filler);
+      CompoundTag data = new CompoundTag();
+      data.putInt("DataVersion", 4556);
+      data.put("Filler", new ByteArrayTag(filler));
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (OutputStream out = CompressionType.ZLIB.compress(compressed)) {
+        new NBTSerializer(false).toStream(new NamedTag("", data), out);
+      }
+      byte[] payload = compressed.toByteArray();
+      assertTrue(payload.length + 5 <= slot[2] * SECTOR);
+
+      buffer.putInt(slot[0] * 4, slot[1] << 8 | slot[2]);
+      buffer.putInt(SECTOR + slot[0] * 4, 1000 + c);
+      buffer.putInt(slot[1] * SECTOR, payload.length + 1);
+      raw[slot[1] * SECTOR + 4] = CompressionType.ZLIB.getID();
+      System.arraycopy(payload, 0, raw, slot[1] * SECTOR + 5, payload.length);
+    }
+    return raw;
+  }
+
+  private static File writeTemp(byte[] raw) throws IOException {
+    Path dir = Files.createTempDirectory("autopruner-compactor");
+    File region = new File(dir.toFile(), "r.0.0.mca");
+    Files.write(region.toPath(), raw);
+    return region;
+  }
+
+  private static void delete(File region) throws IOException {
+    Files.deleteIfExists(region.toPath());
+    Files.deleteIfExists(region.getParentFile().toPath());
+  }
+}
@@ -0,0 +1,591 @@
+package net.querz.mca;
+
+import net.querz.nbt.io.NBTSerializer;
+import net.querz.nbt.io.NamedTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.DoubleTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.LongArrayTag;
+import net.querz.nbt.tag.StringTag;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates region files of any era {@link Chunk} handles, for tests, benchmarks and scale runs
+ * that need more than the few hand-built chunks of a unit test and cannot ship real maps.
+ *
+ * <p>Output is deterministic: the same seed and settings give byte-identical files on every
+ * machine. Each chunk draws its features independently from a generator seeded by the world seed,
+ * its region and its slot, in this order: whether it is empty (no blocks in any section), whether
+ * it has a block entity, an entity and a non-default biome, whether a free sector follows it, and
+ * its compression. A chunk is expected to be pruned only when it is empty and has none of the
+ * others; {@link Stats} counts those as files are written.</p>
+ *
+ * <p>Run {@link #main} to write a corpus from the command line, e.g. ten worlds of a thousand
+ * region files each: {@code -o /tmp/corpus -w 10 -r 1000 --chunks 64}.</p>
+ */
+public final class SyntheticWorld {
+
+  /** The world formats {@link Chunk} tells apart. */
+  public enum Era {
+    /** 1.8-1.12: numeric {@code Blocks} arrays, byte biomes, inline entities. */
+    LEGACY(0, 16, false),
+    /** 1.13-1.16: block palettes under {@code Level}, int biomes, inline entities. */
+    FLATTENED(1976, 16, false),
+    /** 1.17: as flattened, with entities in a sibling {@code entities/} region. */
+    SEPARATED(2730, 16, true),
+    /** 1.18+: block and biome palettes per section at the root, entities in a sibling region. */
+    MODERN(4556, 24, true);
+
+    final int dataVersion;
+    /** Sections in a full-height chunk of this era. */
+    final int maxSections;
+    /** Whether entities live in a sibling {@code entities/} region rather than in the chunk. */
+    final boolean separateEntities;
+
+    Era(int dataVersion, int maxSections, boolean separateEntities) {
+      this.dataVersion = dataVersion;
+      this.maxSections = maxSections;
+      this.separateEntities = separateEntities;
+    }
+  }
+
+  /** What was written, and how much of it a prune is expected to remove. */
+  public static final class Stats {
+    public long regionFiles;
+    public long entityFiles;
+    public long chunks;
+    /** Block chunks that are empty and hold nothing else that keeps them. */
+    public long prunableChunks;
+    public long entityChunks;
+    /** Entity chunks holding no entities. */
+    public long prunableEntityChunks;
+    public long bytes;
+
+    void add(Stats other) {
+      regionFiles += other.regionFiles;
+      entityFiles += other.entityFiles;
+      chunks += other.chunks;
+      prunableChunks += other.prunableChunks;
+      entityChunks += other.entityChunks;
+      prunableEntityChunks += other.prunableEntityChunks;
+      bytes += other.bytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d region files, %d entity files, %d chunks (%d prunable), %d entity chunks (%d prunable), %d bytes",
+          regionFiles, entityFiles, chunks, prunableChunks, entityChunks, prunableEntityChunks, bytes);
+    }
+  }
+
+  /** Saved-at time written to every slot, so files do not depend on when they were generated. */
+  private static final int TIMESTAMP = 1_600_000_000;
+
+  private final long seed;
+  private Era era = Era.MODERN;
+  private int chunksPerRegion = MCAFile.CHUNK_COUNT;
+  private int sections = 8;
+  private double emptyChunks = 0.5;
+  private double blockEntities = 0.05;
+  private double entities = 0.1;
+  private double specialBiomes = 0.02;
+  private double gaps = 0.1;
+  private CompressionType[] compressions = {CompressionType.ZLIB};
+  private boolean entityRegions = true;
+
+  public SyntheticWorld(long seed) {
+    this.seed = seed;
+  }
+
+  public SyntheticWorld era(Era era) {
+    this.era = era;
+    return this;
+  }
+
+  /** Chunks in each region file, spread evenly over its 1024 slots. */
+  public SyntheticWorld chunksPerRegion(int chunksPerRegion) {
+    if (chunksPerRegion < 0 || chunksPerRegion > MCAFile.CHUNK_COUNT) {
+      throw new IllegalArgumentException("chunks per region must be 0-" + MCAFile.CHUNK_COUNT + ": " + chunksPerRegion);
+    }
+    this.chunksPerRegion = chunksPerRegion;
+    return this;
+  }
+
+  /** Sections per chunk, capped at the era's height; a chunk that is not empty has blocks in its lowest one. */
+  public SyntheticWorld sections(int sections) {
+    this.sections = sections;
+    return this;
+  }
+
+  /** Share of chunks with no blocks in any section. */
+  public SyntheticWorld emptyChunks(double ratio) {
+    this.emptyChunks = ratio(ratio);
+    return this;
+  }
+
+  /** Share of chunks with a block entity. */
+  public SyntheticWorld blockEntities(double ratio) {
+    this.blockEntities = ratio(ratio);
+    return this;
+  }
+
+  /** Share of chunks with an entity, stored inline or in the sibling entity region by era. */
+  public SyntheticWorld entities(double ratio) {
+    this.entities = ratio(ratio);
+    return this;
+  }
+
+  /** Share of chunks with a biome other than plains. */
+  public SyntheticWorld specialBiomes(double ratio) {
+    this.specialBiomes = ratio(ratio);
+    return this;
+  }
+
+  /** Share of chunks followed by a free sector, for compaction to reclaim. */
+  public SyntheticWorld gaps(double ratio) {
+    this.gaps = ratio(ratio);
+    return this;
+  }
+
+  /** Compressions chunks are stored under, picked per chunk with equal odds. */
+  public SyntheticWorld compressions(CompressionType... compressions) {
+    if (compressions.length == 0) {
+      throw new IllegalArgumentException("at least one compression is needed");
+    }
+    this.compressions = compressions.clone();
+    return this;
+  }
+
+  /** Whether eras that store entities separately get their {@code entities/} regions written. */
+  public SyntheticWorld entityRegions(boolean entityRegions) {
+    this.entityRegions = entityRegions;
+    return this;
+  }
+
+  private static double ratio(double ratio) {
+    if (!(ratio >= 0 && ratio <= 1)) {
+      throw new IllegalArgumentException("ratio must be 0-1: " + ratio);
+    }
+    return ratio;
+  }
+
+  /** The features of one chunk, drawn in a fixed order from its own generator. */
+  private final class Plan {
+    final Random random;
+    final boolean empty;
+    final boolean blockEntity;
+    final boolean entity;
+    final boolean specialBiome;
+    final boolean gap;
+    final CompressionType compression;
+
+    Plan(int regionX, int regionZ, int slot) {
+      long mixed = seed;
+      mixed = mixed * 0x9E3779B97F4A7C15L + regionX;
+      mixed = mixed * 0x9E3779B97F4A7C15L + regionZ;
+      mixed = mixed * 0x9E3779B97F4A7C15L + slot;
+      // Random's first draws barely differ for seeds that differ only in their low bits; spread them.
+      mixed = (mixed ^ (mixed >>> 33)) * 0xFF51AFD7ED558CCDL;
+      mixed = (mixed ^ (mixed >>> 33)) * 0xC4CEB9FE1A85EC53L;
+      random = new Random(mixed ^ (mixed >>> 33));
+      empty = random.nextDouble() < emptyChunks;
+      blockEntity = random.nextDouble() < blockEntities;
+      entity = random.nextDouble() < entities;
+      specialBiome = random.nextDouble() < specialBiomes;
+      gap = random.nextDouble() < gaps;
+      compression = compressions[random.nextInt(compressions.length)];
+    }
+
+    boolean prunable() {
+      boolean entityKeeps = entity && (!era.separateEntities || entityRegions);
+      return empty && !blockEntity && !entityKeeps && !specialBiome;
+    }
+  }
+
+  /** @return the slot of the {@code i}th of {@link #chunksPerRegion} chunks. */
+  private int slot(int i) {
+    return (int) ((long) i * MCAFile.CHUNK_COUNT / chunksPerRegion);
+  }
+
+  /**
+   * @return a chunk of {@code era} with blocks in its lowest section, air in the rest and nothing
+   * else: a typical chunk that is kept, but only once every section has been looked at.
+   */
+  public static CompoundTag builtChunk(Era era, int sections) {
+    return new SyntheticWorld(0).era(era).sections(sections)
+        .emptyChunks(0).blockEntities(0).entities(0).specialBiomes(0)
+        .chunk(0, 0, 0);
+  }
+
+  /** @return the block chunk in {@code slot} of region {@code (regionX, regionZ)}. */
+  public CompoundTag chunk(int regionX, int regionZ, int slot) {
+    return chunk(new Plan(regionX, regionZ, slot), regionX * 32 + slot % 32, regionZ * 32 + slot / 32);
+  }
+
+  private CompoundTag chunk(Plan plan, int chunkX, int chunkZ) {
+    Random random = plan.random;
+    int count = Math.min(sections, era.maxSections);
+    CompoundTag data = new CompoundTag();
+    if (era.dataVersion > 0) {
+      data.putInt("DataVersion", era.dataVersion);
+    }
+    ListTag<CompoundTag> sectionList = new ListTag<>(CompoundTag.class);
+    for (int y = 0; y < count; y++) {
+      sectionList.add(section(y, !plan.empty && y == 0, plan.specialBiome && y == 0, random));
+    }
+    ListTag<CompoundTag> blockEntityList = new ListTag<>(CompoundTag.class);
+    if (plan.blockEntity) {
+      CompoundTag chest = new CompoundTag();
+      chest.put("id", new StringTag(era == Era.LEGACY ? "Chest" : "minecraft:chest"));
+      chest.putInt("x", chunkX * 16);
+      chest.putInt("y", 64);
+      chest.putInt("z", chunkZ * 16);
+      chest.put("Items", new ListTag<>(CompoundTag.class));
+      blockEntityList.add(chest);
+    }
+    if (era == Era.MODERN) {
+      data.putInt("xPos", chunkX);
+      data.putInt("yPos", -4);
+      data.putInt("zPos", chunkZ);
+      data.put("Status", new StringTag("minecraft:full"));
+      data.put("sections", sectionList);
+      data.put("block_entities", blockEntityList);
+      return data;
+    }
+    CompoundTag level = new CompoundTag();
+    level.putInt("xPos", chunkX);
+    level.putInt("zPos", chunkZ);
+    level.put("Sections", sectionList);
+    level.put("TileEntities", blockEntityList);
+    if (!era.separateEntities) {
+      level.put("Entities", entityList(plan.entity, chunkX, chunkZ));
+    }
+    if (era == Era.LEGACY) {
+      byte[] biomes = new byte[256];
+      Arrays.fill(biomes, (byte) 1); // plains
+      if (plan.specialBiome) {
+        biomes[random.nextInt(biomes.length)] = 2; // desert
+      }
+      level.putByteArray("Biomes", biomes);
+    } else {
+      int[] biomes = new int[1024];
+      Arrays.fill(biomes, 1);
+      if (plan.specialBiome) {
+        biomes[random.nextInt(biomes.length)] = 2;
+      }
+      level.putIntArray("Biomes", biomes);
+    }
+    data.put("Level", level);
+    return data;
+  }
+
+  private CompoundTag section(int y, boolean built, boolean specialBiome, Random random) {
+    CompoundTag section = new CompoundTag();
+    section.putByte("Y", (byte) (era == Era.MODERN ? y - 4 : y));
+    section.putByteArray("BlockLight", noise(random, 2048, built));
+    section.putByteArray("SkyLight", noise(random, 2048, true));
+    switch (era) {
+      case LEGACY:
+        section.putByteArray("Blocks", noise(random, 4096, built));
+        section.putByteArray("Data", noise(random, 2048, built));
+        break;
+      case FLATTENED:
+      case SEPARATED:
+        section.put("Palette", palette(built));
+        section.put("BlockStates", new LongArrayTag(packed(random, 256, built)));
+        break;
+      default:
+        CompoundTag blockStates = new CompoundTag();
+        blockStates.put("palette", palette(built));
+        if (built) {
+          blockStates.put("data", new LongArrayTag(packed(random, 256, true)));
+        }
+        section.put("block_states", blockStates);
+        ListTag<StringTag> biomePalette = new ListTag<>(StringTag.class);
+        biomePalette.add(new StringTag(specialBiome ? "minecraft:desert" : "minecraft:plains"));
+        CompoundTag biomes = new CompoundTag();
+        biomes.put("palette", biomePalette);
+        section.put("biomes", biomes);
+        break;
+    }
+    return section;
+  }
+
+  private static ListTag<CompoundTag> palette(boolean built) {
+    ListTag<CompoundTag> palette = new ListTag<>(CompoundTag.class);
+    palette.add(blockState("minecraft:air"));
+    if (built) {
+      palette.add(blockState("minecraft:stone"));
+      palette.add(blockState("minecraft:dirt"));
+      palette.add(blockState("minecraft:grass_block"));
+    }
+    return palette;
+  }
+
+  private static CompoundTag blockState(String name) {
+    CompoundTag state = new CompoundTag();
+    state.put("Name", new StringTag(name));
+    return state;
+  }
+
+  private static ListTag<CompoundTag> entityList(boolean withEntity, int chunkX, int chunkZ) {
+    ListTag<CompoundTag> list = new ListTag<>(CompoundTag.class);
+    if (withEntity) {
+      ListTag<DoubleTag> pos = new ListTag<>(DoubleTag.class);
+      pos.add(new DoubleTag(chunkX * 16 + 8.5));
+      pos.add(new DoubleTag(64));
+      pos.add(new DoubleTag(chunkZ * 16 + 8.5));
+      CompoundTag stand = new CompoundTag();
+      stand.put("id", new StringTag("minecraft:armor_stand"));
+      stand.put("Pos", pos);
+      list.add(stand);
+    }
+    return list;
+  }
+
+  /** Low-entropy bytes, like real block and light data; all zero unless {@code filled}. */
+  private static byte[] noise(Random random, int length, boolean filled) {
+    byte[] bytes = new byte[length];
+    if (filled) {
+      for (int i = 0; i < length; i++) {
+        bytes[i] = (byte) random.nextInt(4);
+      }
+    }
+    return bytes;
+  }
+
+  private static long[] packed(Random random, int length, boolean filled) {
+    long[] longs = new long[length];
+    if (filled) {
+      for (int i = 0; i < length; i++) {
+        longs[i] = random.nextLong() & 0x3333333333333333L;
+      }
+    }
+    return longs;
+  }
+
+  /** @return {@code data} as uncompressed NBT. */
+  public static byte[] nbt(CompoundTag data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new NBTSerializer(false).toStream(new NamedTag("", data), out);
+    return out.toByteArray();
+  }
+
+  /** @return {@code data} as a region chunk payload: the compression-type byte, then the compressed NBT. */
+  public static byte[] payload(CompoundTag data, CompressionType compression) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    payload.write(compression.getID());
+    try (OutputStream out = compression.compress(payload)) {
+      new NBTSerializer(false).toStream(new NamedTag("", data), out);
+    }
+    return payload.toByteArray();
+  }
+
+  /** @return the block region file {@code r.regionX.regionZ.mca}; {@code stats}, when non-null, counts it. */
+  public byte[] region(int regionX, int regionZ, Stats stats) throws IOException {
+    byte[][] payloads = new byte[chunksPerRegion][];
+    boolean[] gapAfter = new boolean[chunksPerRegion];
+    for (int i = 0; i < chunksPerRegion; i++) {
+      int slot = slot(i);
+      Plan plan = new Plan(regionX, regionZ, slot);
+      payloads[i] = payload(chunk(plan, regionX * 32 + slot % 32, regionZ * 32 + slot / 32), plan.compression);
+      gapAfter[i] = plan.gap;
+      if (stats != null) {
+        stats.chunks++;
+        stats.prunableChunks += plan.prunable() ? 1 : 0;
+      }
+    }
+    byte[] region = layout(payloads, gapAfter);
+    if (stats != null) {
+      stats.regionFiles++;
+      stats.bytes += region.length;
+    }
+    return region;
+  }
+
+  /**
+   * @return the sibling entity region of {@code r.regionX.regionZ.mca}, with an entity chunk, empty
+   * or not, for every block chunk; or {@code null} when this era stores entities inline.
+   */
+  public byte[] entityRegion(int regionX, int regionZ, Stats stats) throws IOException {
+    if (!era.separateEntities) {
+      return null;
+    }
+    byte[][] payloads = new byte[chunksPerRegion][];
+    boolean[] gapAfter = new boolean[chunksPerRegion];
+    for (int i = 0; i < chunksPerRegion; i++) {
+      int slot = slot(i);
+      Plan plan = new Plan(regionX, regionZ, slot);
+      int chunkX = regionX * 32 + slot % 32;
+      int chunkZ = regionZ * 32 + slot / 32;
+      CompoundTag data = new CompoundTag();
+      data.putInt("DataVersion", era.dataVersion);
+      data.putIntArray("Position", new int[]{chunkX, chunkZ});
+      data.put("Entities", entityList(plan.entity, chunkX, chunkZ));
+      payloads[i] = payload(data, plan.compression);
+      if (stats != null) {
+        stats.entityChunks++;
+        stats.prunableEntityChunks += plan.entity ? 0 : 1;
+      }
+    }
+    byte[] region = layout(payloads, gapAfter);
+    if (stats != null) {
+      stats.entityFiles++;
+      stats.bytes += region.length;
+    }
+    return region;
+  }
+
+  private byte[] layout(byte[][] payloads, boolean[] gapAfter) {
+    int sectors = 2;
+    for (int i = 0; i < payloads.length; i++) {
+      sectors += sectorsFor(payloads[i]) + (gapAfter[i] ? 1 : 0);
+    }
+    ByteBuffer region = ByteBuffer.allocate(sectors * RegionHeader.SECTOR_SIZE);
+    int sector = 2;
+    for (int i = 0; i < payloads.length; i++) {
+      int slot = slot(i);
+      int length = sectorsFor(payloads[i]);
+      region.putInt(slot * 4, sector << 8 | length);
+      region.putInt(RegionHeader.SECTOR_SIZE + slot * 4, TIMESTAMP);
+      region.putInt(sector * RegionHeader.SECTOR_SIZE, payloads[i].length);
+      ((Buffer) region).position(sector * RegionHeader.SECTOR_SIZE + 4);
+      region.put(payloads[i]);
+      sector += length + (gapAfter[i] ? 1 : 0);
+    }
+    return region.array();
+  }
+
+  private static int sectorsFor(byte[] payload) {
+    return (payload.length + 4 + RegionHeader.SECTOR_SIZE - 1) / RegionHeader.SECTOR_SIZE;
+  }
+
+  /**
+   * Writes {@code regions} region files into {@code world/region}, and their siblings into
+   * {@code world/entities} where the era has them, laid out row by row on a square grid.
+   *
+   * @return what was written
+   */
+  public Stats writeWorld(Path world, int regions) throws IOException {
+    Stats stats = new Stats();
+    Path regionDir = Files.createDirectories(world.resolve("region"));
+    Path entityDir = era.separateEntities && entityRegions ? Files.createDirectories(world.resolve("entities")) : null;
+    int side = (int) Math.ceil(Math.sqrt(regions));
+    for (int i = 0; i < regions; i++) {
+      int x = i % side - side / 2;
+      int z = i / side - side / 2;
+      String name = "r." + x + "." + z + ".mca";
+      Files.write(regionDir.resolve(name), region(x, z, stats));
+      if (entityDir != null) {
+        Files.write(entityDir.resolve(name), entityRegion(x, z, stats));
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Writes {@code worlds} worlds of {@code regionsPerWorld} region files each, as {@code world0},
+   * {@code world1}, ... under {@code root}; each world is seeded apart from the others.
+   *
+   * @return what was written
+   */
+  public Stats writeCorpus(Path root, int worlds, int regionsPerWorld) throws IOException {
+    Stats stats = new Stats();
+    for (int w = 0; w < worlds; w++) {
+      stats.add(copy(seed * 31 + w).writeWorld(root.resolve("world" + w), regionsPerWorld));
+    }
+    return stats;
+  }
+
+  private SyntheticWorld copy(long seed) {
+    SyntheticWorld copy = new SyntheticWorld(seed);
+    copy.era = era;
+    copy.chunksPerRegion = chunksPerRegion;
+    copy.sections = sections;
+    copy.emptyChunks = emptyChunks;
+    copy.blockEntities = blockEntities;
+    copy.entities = entities;
+    copy.specialBiomes = specialBiomes;
+    copy.gaps = gaps;
+    copy.compressions = compressions;
+    copy.entityRegions = entityRegions;
+    return copy;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Options options = new Options();
+    addOption(options, "o", "out", "Directory to write the worlds into (required)");
+    addOption(options, "w", "worlds", "Worlds to write (default 1)");
+    addOption(options, "r", "regions", "Region files per world (default 16)");
+    addOption(options, "e", "era", "legacy, flattened, separated or modern (default modern)");
+    addOption(options, null, "chunks", "Chunks per region file, 0-1024 (default 1024)");
+    addOption(options, null, "sections", "Sections per chunk (default 8)");
+    addOption(options, null, "empty", "Share of chunks with no blocks (default 0.5)");
+    addOption(options, null, "block-entities", "Share of chunks with a block entity (default 0.05)");
+    addOption(options, null, "entities", "Share of chunks with an entity (default 0.1)");
+    addOption(options, null, "biomes", "Share of chunks with a non-default biome (default 0.02)");
+    addOption(options, null, "gaps", "Share of chunks followed by a free sector (default 0.1)");
+    addOption(options, null, "compression", "Comma-separated: none, gzip, zlib, lz4 (default zlib)");
+    addOption(options, null, "seed", "Seed (default 0)");
+    Option noEntityRegions = new Option(null, "no-entity-regions", false, "Do not write entities/ regions");
+    noEntityRegions.setRequired(false);
+    options.addOption(noEntityRegions);
+
+    CommandLine cmd;
+    try {
+      cmd = new DefaultParser().parse(options, args);
+      if (!cmd.hasOption("out")) {
+        throw new ParseException("Missing required option: out");
+      }
+    } catch (ParseException e) {
+      System.out.println(e.getMessage());
+      new HelpFormatter().printHelp("SyntheticWorld", options);
+      System.exit(1);
+      return;
+    }
+
+    String[] names = cmd.getOptionValue("compression", "zlib").split(",");
+    CompressionType[] compressions = new CompressionType[names.length];
+    for (int i = 0; i < names.length; i++) {
+      compressions[i] = CompressionType.valueOf(names[i].trim().toUpperCase(Locale.ROOT));
+    }
+    SyntheticWorld generator = new SyntheticWorld(Long.parseLong(cmd.getOptionValue("seed", "0")))
+        .era(Era.valueOf(cmd.getOptionValue("era", "modern").toUpperCase(Locale.ROOT)))
+        .chunksPerRegion(Integer.parseInt(cmd.getOptionValue("chunks", "1024")))
+        .sections(Integer.parseInt(cmd.getOptionValue("sections", "8")))
+        .emptyChunks(Double.parseDouble(cmd.getOptionValue("empty", "0.5")))
+        .blockEntities(Double.parseDouble(cmd.getOptionValue("block-entities", "0.05")))
+        .entities(Double.parseDouble(cmd.getOptionValue("entities", "0.1")))
+        .specialBiomes(Double.parseDouble(cmd.getOptionValue("biomes", "0.02")))
+        .gaps(Double.parseDouble(cmd.getOptionValue("gaps", "0.1")))
+        .compressions(compressions)
+        .entityRegions(!cmd.hasOption("no-entity-regions"));
+    Stats stats = generator.writeCorpus(Paths.get(cmd.getOptionValue("out")),
+        Integer.parseInt(cmd.getOptionValue("worlds", "1")),
+        Integer.parseInt(cmd.getOptionValue("regions", "16")));
+    System.out.println("Wrote " + stats);
+  }
+
+  private static void addOption(Options options, String shortName, String longName, String description) {
+    Option option = new Option(shortName, longName, true, description);
+    option.setRequired(false);
+    options.addOption(option);
+  }
+}
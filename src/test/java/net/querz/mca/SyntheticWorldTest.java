@@ -0,0 +1,80 @@
+package net.querz.mca;
+
+import org.junit.Test;
+import tc.oc.occ.autopruner.ThreadPoolAutoPruner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link SyntheticWorld} is deterministic, and that a prune of what it writes removes
+ * exactly the chunks its {@link SyntheticWorld.Stats} expect, in every era.
+ */
+public class SyntheticWorldTest {
+
+  @Test
+  public void sameSeedGivesIdenticalFiles() throws IOException {
+    byte[] first = generator(7).region(1, -2, null);
+    byte[] second = generator(7).region(1, -2, null);
+    assertArrayEquals(first, second);
+    assertFalse(Arrays.equals(first, generator(8).region(1, -2, null)));
+  }
+
+  @Test
+  public void pruneRemovesExactlyTheExpectedChunks() throws Exception {
+    for (SyntheticWorld.Era era : SyntheticWorld.Era.values()) {
+      Path root = Files.createTempDirectory("autopruner-synthetic");
+      SyntheticWorld.Stats stats = generator(era.ordinal()).era(era).writeCorpus(root, 2, 3);
+      assertEquals(6, stats.regionFiles);
+      assertTrue(era + ": " + stats, stats.prunableChunks > 0 && stats.prunableChunks < stats.chunks);
+
+      ThreadPoolAutoPruner pruner = new ThreadPoolAutoPruner(2);
+      List<String> warnings = new ArrayList<>();
+      try {
+        pruner.recursivelyProcessFiles(root.toFile(), 0, message -> { }, warnings::add);
+      } finally {
+        pruner.close();
+      }
+
+      assertTrue(era + ": " + warnings, warnings.isEmpty());
+      assertEquals(era + " block chunks", stats.chunks - stats.prunableChunks, occupiedSlots(root, "region"));
+      assertEquals(era + " entity chunks", stats.entityChunks - stats.prunableEntityChunks, occupiedSlots(root, "entities"));
+      TestFiles.deleteTree(root);
+    }
+  }
+
+  private static SyntheticWorld generator(long seed) {
+    return new SyntheticWorld(seed)
+        .chunksPerRegion(64)
+        .sections(4)
+        .emptyChunks(0.6)
+        .blockEntities(0.1)
+        .entities(0.2)
+        .specialBiomes(0.1)
+        .gaps(0.3)
+        .compressions(CompressionType.ZLIB, CompressionType.GZIP, CompressionType.LZ4, CompressionType.NONE);
+  }
+
+  /** @return the chunks left in every {@code directory} region file under {@code root}. */
+  private static long occupiedSlots(Path root, String directory) throws IOException {
+    long total = 0;
+    try (Stream<Path> paths = Files.walk(root)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        if (path.getParent().getFileName().toString().equals(directory) && path.toString().endsWith(".mca")) {
+          total += MCAUtil.readHeader(path.toFile()).getOccupiedSlots();
+        }
+      }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,20 @@
+package net.querz.mca;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/** File helpers shared by the tests. */
+public final class TestFiles {
+
+  private TestFiles() {
+  }
+
+  /** Deletes {@code root} and everything below it, such as a world written by {@link SyntheticWorld}. */
+  public static void deleteTree(Path root) throws IOException {
+    try (Stream<Path> paths = Files.walk(root)) {
+      paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+    }
+  }
+}
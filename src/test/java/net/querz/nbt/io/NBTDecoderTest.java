@@ -0,0 +1,143 @@
+package net.querz.nbt.io;
+
+import net.querz.mca.SyntheticWorld;
+import net.querz.nbt.tag.ByteArrayTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.IntArrayTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.LongArrayTag;
+import net.querz.nbt.tag.StringTag;
+import net.querz.nbt.tag.Tag;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies that {@link NBTDecoder} builds the same tag tree {@link NBTInputStream} does, across
+ * its buffer's refills and however few bytes the input hands over per read, for chunks of every
+ * era, arrays larger than its buffer, and strings that are not plain ASCII.
+ */
+public class NBTDecoderTest {
+
+  @Test
+  public void decodesChunksOfEveryEraLikeTheStreamReader() throws IOException {
+    for (SyntheticWorld.Era era : SyntheticWorld.Era.values()) {
+      byte[] nbt = SyntheticWorld.nbt(SyntheticWorld.builtChunk(era, 24));
+      NamedTag expected = new NBTInputStream(new ByteArrayInputStream(nbt)).readTag(Tag.DEFAULT_MAX_DEPTH);
+      assertEquals(era.toString(), expected.getTag(), decode(nbt, false).getTag());
+      assertEquals(era.toString(), expected.getTag(), decode(nbt, true).getTag());
+    }
+  }
+
+  @Test
+  public void decodesArraysLargerThanItsBuffer() throws IOException {
+    Random random = new Random(1);
+    CompoundTag root = new CompoundTag();
+    long[] longs = new long[5000];
+    int[] ints = new int[3001];
+    byte[] large = new byte[100_000];
+    byte[] small = new byte[300];
+    for (int i = 0; i < longs.length; i++) {
+      longs[i] = random.nextLong();
+    }
+    for (int i = 0; i < ints.length; i++) {
+      ints[i] = random.nextInt();
+    }
+    random.nextBytes(large);
+    random.nextBytes(small);
+    root.put("longs", new LongArrayTag(longs));
+    root.put("ints", new IntArrayTag(ints));
+    root.put("large", new ByteArrayTag(large));
+    root.put("small", new ByteArrayTag(small));
+    root.put("empty", new LongArrayTag(new long[0]));
+    byte[] nbt = encode(root);
+
+    for (boolean trickle : new boolean[]{false, true}) {
+      CompoundTag decoded = (CompoundTag) decode(nbt, trickle).getTag();
+      assertEquals(root, decoded);
+    }
+  }
+
+  @Test
+  public void decodesStringsThatAreNotAscii() throws IOException {
+    char[] longName = new char[10_000];
+    Arrays.fill(longName, 'x');
+    longName[5000] = 'é';
+    ListTag<StringTag> strings = new ListTag<>(StringTag.class);
+    for (String value : new String[]{"", "minecraft:stone", "café", "☃ snow", "nul\u0000char", "😀", new String(longName)}) {
+      strings.add(new StringTag(value));
+    }
+    CompoundTag root = new CompoundTag();
+    root.put("strings", strings);
+    root.put("über", new StringTag("key"));
+    byte[] nbt = encode(root);
+
+    assertEquals(root, decode(nbt, false).getTag());
+    assertEquals(root, decode(nbt, true).getTag());
+  }
+
+  @Test
+  public void streamReaderReadsWholeByteArraysFromShortReads() throws IOException {
+    byte[] bytes = new byte[20_000];
+    new Random(2).nextBytes(bytes);
+    CompoundTag root = new CompoundTag();
+    root.put("bytes", new ByteArrayTag(bytes));
+    byte[] nbt = encode(root);
+
+    NamedTag read = new NBTInputStream(new TrickleInputStream(new ByteArrayInputStream(nbt))).readTag(Tag.DEFAULT_MAX_DEPTH);
+    assertEquals(root, read.getTag());
+  }
+
+  @Test
+  public void rejectsInvalidAndTruncatedInput() throws IOException {
+    try {
+      decode(new byte[]{10, 0, 0, 20, 0, 0}, false);
+      fail("an unknown tag id must be rejected");
+    } catch (IOException e) {
+      assertEquals("invalid tag id \"20\"", e.getMessage());
+    }
+    byte[] nbt = encode(SyntheticWorld.builtChunk(SyntheticWorld.Era.MODERN, 4));
+    try {
+      decode(Arrays.copyOf(nbt, nbt.length - 100), false);
+      fail("truncated input must be rejected");
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+
+  private static NamedTag decode(byte[] nbt, boolean trickle) throws IOException {
+    InputStream in = new ByteArrayInputStream(nbt);
+    return new NBTDecoder(trickle ? new TrickleInputStream(in) : in).readTag(Tag.DEFAULT_MAX_DEPTH);
+  }
+
+  private static byte[] encode(CompoundTag root) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new NBTSerializer(false).toStream(new NamedTag("", root), out);
+    return out.toByteArray();
+  }
+
+  /** Hands over at most a few bytes per read, as an inflater at a block boundary may. */
+  private static final class TrickleInputStream extends FilterInputStream {
+    private int next;
+
+    TrickleInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      next = next % 7 + 1;
+      return super.read(b, off, Math.min(len, next));
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package net.querz.nbt.io;
+
+import net.querz.mca.SyntheticWorld;
+import net.querz.nbt.tag.ByteArrayTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.EndTag;
+import net.querz.nbt.tag.IntArrayTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.LongArrayTag;
+import net.querz.nbt.tag.StringTag;
+import net.querz.nbt.tag.Tag;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies that {@link NBTEncoder} writes exactly the bytes {@link NBTOutputStream} does, that
+ * {@link NBTEncoder#sizeOf} measures them exactly, and that an encoder reused for trees of different
+ * sizes writes each correctly.
+ */
+public class NBTEncoderTest {
+
+  @Test
+  public void encodesChunksOfEveryEraLikeTheStreamWriter() throws IOException {
+    NBTEncoder encoder = new NBTEncoder();
+    for (SyntheticWorld.Era era : SyntheticWorld.Era.values()) {
+      for (int sections : new int[]{24, 1}) {
+        NamedTag tag = new NamedTag("", SyntheticWorld.builtChunk(era, sections));
+        byte[] expected = stream(tag);
+        assertArrayEquals(era + " " + sections, expected, bytes(encoder.encode(tag, Tag.DEFAULT_MAX_DEPTH)));
+        assertEquals(era + " " + sections, expected.length, NBTEncoder.sizeOf(tag));
+      }
+    }
+  }
+
+  @Test
+  public void encodesArraysAndStringsExactly() throws IOException {
+    Random random = new Random(3);
+    long[] longs = new long[5000];
+    int[] ints = new int[3001];
+    byte[] bytes = new byte[100_000];
+    for (int i = 0; i < longs.length; i++) {
+      longs[i] = random.nextLong();
+    }
+    for (int i = 0; i < ints.length; i++) {
+      ints[i] = random.nextInt();
+    }
+    random.nextBytes(bytes);
+    ListTag<StringTag> strings = new ListTag<>(StringTag.class);
+    for (String value : new String[]{"", "minecraft:stone", "café", "☃ snow", "nul\u0000char", "😀"}) {
+      strings.add(new StringTag(value));
+    }
+    CompoundTag root = new CompoundTag();
+    root.put("longs", new LongArrayTag(longs));
+    root.put("ints", new IntArrayTag(ints));
+    root.put("bytes", new ByteArrayTag(bytes));
+    root.put("empty", new LongArrayTag(new long[0]));
+    root.put("strings", strings);
+    root.put("noInts", new ListTag<>(IntArrayTag.class));
+    root.put("noTags", ListTag.createUnchecked(null));
+    root.put("über", new StringTag("key"));
+    NamedTag tag = new NamedTag("näme", root);
+
+    byte[] expected = stream(tag);
+    assertArrayEquals(expected, bytes(new NBTEncoder().encode(tag, Tag.DEFAULT_MAX_DEPTH)));
+    assertEquals(expected.length, NBTEncoder.sizeOf(tag));
+  }
+
+  @Test
+  public void reusesItsBufferForSmallerTrees() throws IOException {
+    NBTEncoder encoder = new NBTEncoder();
+    ByteBuffer large = encoder.encode(new NamedTag("", SyntheticWorld.builtChunk(SyntheticWorld.Era.MODERN, 24)), Tag.DEFAULT_MAX_DEPTH);
+    NamedTag small = new NamedTag("", SyntheticWorld.builtChunk(SyntheticWorld.Era.MODERN, 1));
+    ByteBuffer encoded = encoder.encode(small, Tag.DEFAULT_MAX_DEPTH);
+    assertSame(large.array(), encoded.array());
+    assertArrayEquals(stream(small), bytes(encoded));
+  }
+
+  @Test
+  public void rejectsWhatTheStreamWriterRejects() throws IOException {
+    CompoundTag withEnd = new CompoundTag();
+    withEnd.put("end", EndTag.INSTANCE);
+    try {
+      new NBTEncoder().encode(new NamedTag("", withEnd), Tag.DEFAULT_MAX_DEPTH);
+      fail("an end tag in a compound must be rejected");
+    } catch (IOException e) {
+      assertEquals("end tag not allowed", e.getMessage());
+    }
+    char[] chars = new char[40_000];
+    Arrays.fill(chars, 'é');
+    CompoundTag withLongString = new CompoundTag();
+    withLongString.put("long", new StringTag(new String(chars)));
+    try {
+      new NBTEncoder().encode(new NamedTag("", withLongString), Tag.DEFAULT_MAX_DEPTH);
+      fail("a string over 65535 encoded bytes must be rejected");
+    } catch (UTFDataFormatException e) {
+      // expected
+    }
+  }
+
+  private static byte[] stream(NamedTag tag) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    NBTOutputStream nbtOut = new NBTOutputStream(out);
+    nbtOut.writeTag(tag, Tag.DEFAULT_MAX_DEPTH);
+    nbtOut.flush();
+    return out.toByteArray();
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,105 @@
+package net.querz.nbt.io;
+
+import net.querz.mca.SyntheticWorld;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.StringTag;
+import net.querz.nbt.tag.Tag;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies that {@link StringTable} reads what {@link java.io.DataInput#readUTF} reads, hands out
+ * the compile-time constants for its starting vocabulary and one instance per learned string, and
+ * that every NBT reader takes names and strings from it.
+ */
+public class StringTableTest {
+
+  @Test
+  public void readsWhatReadUTFReads() throws IOException {
+    char[] longValue = new char[20_000];
+    Arrays.fill(longValue, '☃');
+    for (String value : new String[]{"", "Name", "minecraft:air", "café", "nul\u0000char", "😀",
+        "a string of plain ascii well over the sixty four bytes the table learns", new String(longValue)}) {
+      byte[] utf = utf(value);
+      assertEquals(value, new DataInputStream(new ByteArrayInputStream(utf)).readUTF());
+      assertEquals(value, StringTable.forThread().read(new DataInputStream(new ByteArrayInputStream(utf))));
+    }
+  }
+
+  @Test
+  public void handsOutOneInstancePerString() throws IOException {
+    StringTable table = StringTable.forThread();
+    assertSame("minecraft:air", get(table, "minecraft:air"));
+    assertSame("Properties", get(table, "Properties"));
+
+    String learned = get(table, "minecraft:polished_andesite");
+    assertSame(learned, get(table, "minecraft:polished_andesite"));
+
+    String long1 = get(table, "minecraft:a_block_name_long_enough_to_go_past_what_the_table_keeps");
+    assertNotSame(long1, get(table, "minecraft:a_block_name_long_enough_to_go_past_what_the_table_keeps"));
+    assertNotSame(get(table, "café"), get(table, "café"));
+  }
+
+  @Test
+  public void everyReaderTakesStringsFromTheTable() throws IOException {
+    byte[] nbt = SyntheticWorld.nbt(SyntheticWorld.builtChunk(SyntheticWorld.Era.MODERN, 4));
+
+    CompoundTag decoded = (CompoundTag) new NBTDecoder(new ByteArrayInputStream(nbt)).readTag(Tag.DEFAULT_MAX_DEPTH).getTag();
+    CompoundTag streamed = (CompoundTag) new NBTInputStream(new ByteArrayInputStream(nbt)).readTag(Tag.DEFAULT_MAX_DEPTH).getTag();
+    for (CompoundTag root : new CompoundTag[]{decoded, streamed}) {
+      CompoundTag section = (CompoundTag) root.getListTag("sections").get(0);
+      assertSame("Y", keyOf(section, "Y"));
+      ListTag<?> palette = section.getCompoundTag("block_states").getListTag("palette");
+      CompoundTag entry = (CompoundTag) palette.get(0);
+      assertSame("Name", keyOf(entry, "Name"));
+      String name = ((StringTag) entry.get("Name")).getValue();
+      if (name.equals("minecraft:air")) {
+        assertSame("minecraft:air", name);
+      }
+    }
+
+    String[] seen = new String[1];
+    new NBTStreamReader(new ByteArrayInputStream(nbt)).accept(new NBTVisitor() {
+      @Override
+      public Result visitEntry(byte id, String name) {
+        if (name.equals("DataVersion")) {
+          seen[0] = name;
+        }
+        return Result.CONTINUE;
+      }
+    });
+    assertSame("DataVersion", seen[0]);
+  }
+
+  private static String get(StringTable table, String value) throws IOException {
+    byte[] utf = utf(value);
+    return table.get(utf, 2, utf.length - 2);
+  }
+
+  private static String keyOf(CompoundTag compound, String key) {
+    for (Map.Entry<String, Tag<?>> e : compound) {
+      if (e.getKey().equals(key)) {
+        return e.getKey();
+      }
+    }
+    return null;
+  }
+
+  private static byte[] utf(String value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new DataOutputStream(bytes).writeUTF(value);
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,110 @@
+package net.querz.nbt.tag;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies that a {@link CompoundTag} behaves as a map whether it is small enough to be scanned or
+ * large enough to be indexed, keeps its entries in insertion order, and refuses nulls.
+ */
+public class CompoundTagTest {
+
+  @Test
+  public void behavesAsAMapAcrossEverySize() {
+    CompoundTag compound = new CompoundTag();
+    Map<String, Tag<?>> expected = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      String key = "key" + (i * 7919 % 100);
+      assertNull(compound.put(key, new IntTag(i)));
+      expected.put(key, new IntTag(i));
+      assertEquals(expected.size(), compound.size());
+      for (Map.Entry<String, Tag<?>> e : expected.entrySet()) {
+        assertEquals(e.getKey(), e.getValue(), compound.get(e.getKey()));
+      }
+      assertFalse(compound.containsKey("missing"));
+    }
+    assertEquals(new IntTag(0), compound.put("key0", new IntTag(-1)));
+    expected.put("key0", new IntTag(-1));
+    assertEquals(expected, compound.getValue());
+    assertEquals(compound.getValue(), expected);
+    assertEquals(expected.hashCode(), compound.getValue().hashCode());
+
+    // Shrinks back through the indexed size into the scanned one.
+    for (int i = 0; i < 100; i += 2) {
+      String key = "key" + i;
+      assertEquals(expected.remove(key), compound.getValue().remove(key));
+      assertEquals(expected, compound.getValue());
+    }
+    for (int i = 1; i < 100; i += 2) {
+      assertEquals(expected.remove("key" + i), compound.getValue().remove("key" + i));
+      for (String key : expected.keySet()) {
+        assertTrue(key, compound.containsKey(key));
+      }
+    }
+    assertEquals(0, compound.size());
+  }
+
+  @Test
+  public void keepsInsertionOrder() {
+    CompoundTag compound = new CompoundTag();
+    List<String> keys = Arrays.asList("Name", "Properties", "z", "a", "m", "b", "y", "c", "x", "d", "w");
+    for (String key : keys) {
+      compound.putByte(key, (byte) 1);
+    }
+    compound.putByte("Name", (byte) 2);
+    assertEquals(keys, keysOf(compound));
+
+    compound.getValue().remove("z");
+    Iterator<Map.Entry<String, Tag<?>>> it = compound.iterator();
+    while (it.hasNext()) {
+      if (it.next().getKey().equals("b")) {
+        it.remove();
+      }
+    }
+    List<String> left = new ArrayList<>(keys);
+    left.removeAll(Arrays.asList("z", "b"));
+    assertEquals(left, keysOf(compound));
+    assertEquals(left, keysOf(compound.clone()));
+    assertEquals(compound, compound.clone());
+  }
+
+  @Test
+  public void refusesNulls() {
+    CompoundTag compound = new CompoundTag();
+    compound.putInt("a", 1);
+    try {
+      compound.put("b", null);
+      fail("a null value must be refused");
+    } catch (NullPointerException e) {
+      // expected
+    }
+    try {
+      compound.iterator().next().setValue(null);
+      fail("a null value must be refused");
+    } catch (NullPointerException e) {
+      // expected
+    }
+    assertNull(compound.get(null));
+    assertEquals(1, compound.getInt("a"));
+  }
+
+  private static List<String> keysOf(CompoundTag compound) {
+    List<String> keys = new ArrayList<>();
+    for (Map.Entry<String, Tag<?>> e : compound) {
+      keys.add(e.getKey());
+    }
+    return keys;
+  }
+}
@@ -2,6 +2,7 @@ package tc.oc.occ.autopruner;
 
 import net.querz.mca.MCAFile;
 import net.querz.mca.MCAUtil;
+import net.querz.mca.RegionHeader;
 import org.junit.Test;
 
 import java.io.File;
@@ -9,15 +10,18 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
  * Minecraft sometimes leaves behind zero-byte region files. Reading one must yield an empty region
- * rather than throwing, so the pruner treats it as fail-safe cleanup instead of a parse error.
+ * rather than throwing, so the pruner treats it as fail-safe cleanup instead of a parse error. Files
+ * whose header alone shows they hold no chunks are handled the same way, without being decoded.
  */
 public class EmptyRegionFileTest {
 
@@ -49,6 +53,39 @@ public class EmptyRegionFileTest {
     Files.delete(tmp);
   }
 
+  @Test
+  public void regionWithNoUsedSlotsIsDeletedWithoutDecoding() throws IOException {
+    // A full-size file whose header marks every slot unused; the undecodable bytes after the
+    // header prove the chunks area is never read.
+    Path tmp = Files.createTempDirectory("autopruner-empty-header");
+    File region = new File(tmp.toFile(), "r.0.0.mca");
+    byte[] raw = new byte[RegionHeader.SIZE + RegionHeader.SECTOR_SIZE];
+    Arrays.fill(raw, RegionHeader.SIZE, raw.length, (byte) 0x7F);
+    Files.write(region.toPath(), raw);
+    assertEquals(RegionHeader.Triage.EMPTY, MCAUtil.readHeader(region).triage());
+
+    List<String> warnings = new ArrayList<>();
+    AutoPruner.pruneMCAFile(region.getAbsolutePath(), message -> { }, warnings::add);
+
+    assertTrue("an empty region must not warn, but got: " + warnings, warnings.isEmpty());
+    assertFalse("an empty region file should be removed", region.exists());
+    Files.delete(tmp);
+  }
+
+  @Test
+  public void regionShorterThanHeaderTriagesAsEmpty() throws IOException {
+    // A truncated file cannot hold chunk data, whatever its partial header claims.
+    Path tmp = Files.createTempDirectory("autopruner-truncated");
+    File region = new File(tmp.toFile(), "r.0.0.mca");
+    byte[] raw = new byte[RegionHeader.SECTOR_SIZE];
+    raw[2] = 2;
+    raw[3] = 1;
+    Files.write(region.toPath(), raw);
+    assertEquals(RegionHeader.Triage.EMPTY, MCAUtil.readHeader(region).triage());
+    Files.delete(region.toPath());
+    Files.delete(tmp);
+  }
+
   @Test
   public void dryRunReportsButDoesNotDeleteFile() throws IOException {
     Path tmp = Files.createTempDirectory("autopruner-dry-run");
@@ -0,0 +1,94 @@
+package tc.oc.occ.autopruner;
+
+import net.querz.mca.SyntheticWorld;
+import net.querz.mca.TestFiles;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link Progress} totals come from the discovery walk and that every file a run
+ * finishes is counted, on one thread or many, and that {@link ProgressLine} keeps log records
+ * above the status line.
+ */
+public class ProgressTest {
+
+  @Test
+  public void discoveryCountsRegionFilesOnly() throws IOException {
+    Path root = Files.createTempDirectory("autopruner-progress");
+    SyntheticWorld.Stats stats = new SyntheticWorld(3).chunksPerRegion(16).sections(2).writeCorpus(root, 2, 2);
+    Files.write(root.resolve("level.dat"), new byte[100]);
+
+    Progress progress = Progress.discover(root.toFile());
+    assertEquals(stats.regionFiles + stats.entityFiles, progress.totalFiles());
+    assertEquals(stats.bytes, progress.totalBytes());
+    assertEquals(0, progress.filesDone());
+    TestFiles.deleteTree(root);
+  }
+
+  @Test
+  public void everyFinishedFileIsCounted() throws Exception {
+    Path root = Files.createTempDirectory("autopruner-progress");
+    new SyntheticWorld(4).chunksPerRegion(16).sections(2).writeCorpus(root, 2, 3);
+
+    Progress threaded = Progress.discover(root.toFile());
+    ThreadPoolAutoPruner pruner = new ThreadPoolAutoPruner(2);
+    try {
+      pruner.recursivelyProcessFiles(root.toFile(), 0, true, null, null, threaded);
+    } finally {
+      pruner.close();
+    }
+    assertEquals(threaded.totalFiles(), threaded.filesDone());
+    assertEquals(threaded.totalBytes(), threaded.bytesDone());
+    assertEquals(1, threaded.fraction(), 0);
+    assertTrue(threaded.sample(), threaded.sample().contains(", done, "));
+
+    Progress single = Progress.discover(root.toFile());
+    AutoPruner.recursivelyProcessFiles(root.toFile(), 0, message -> { }, message -> { }, true, null, null, null, single);
+    assertEquals(single.totalFiles(), single.filesDone());
+    assertEquals(single.totalBytes(), single.bytesDone());
+    TestFiles.deleteTree(root);
+  }
+
+  @Test
+  public void sampleReportsShareAndTimeLeft() {
+    Progress progress = new Progress(10, 1000);
+    progress.fileDone(250);
+    String status = progress.sample();
+    assertTrue(status, status.startsWith("1/10 files (25%), 250 B/1,000 B, "));
+    assertTrue(status, status.contains("ETA "));
+
+    assertEquals("45s", Progress.formatSeconds(45));
+    assertEquals("7m 40s", Progress.formatSeconds(460));
+    assertEquals("2h 05m", Progress.formatSeconds(7500));
+  }
+
+  @Test
+  public void logRecordsScrollAboveTheStatusLine() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true);
+    Logger logger = Logger.getLogger("AutoPruner.ProgressTest");
+    ProgressLine line = ProgressLine.install(logger, out);
+    assertFalse(logger.getUseParentHandlers());
+
+    line.update("status");
+    logger.info("record");
+    String printed = bytes.toString();
+    assertTrue(printed, printed.startsWith("status\r      \r"));
+    assertTrue(printed, printed.contains("record"));
+    assertTrue(printed, printed.endsWith(System.lineSeparator() + "status"));
+
+    line.close();
+    assertTrue(logger.getUseParentHandlers());
+    assertTrue(bytes.toString().endsWith("status" + System.lineSeparator()));
+  }
+}
@@ -0,0 +1,141 @@
+package tc.oc.occ.autopruner;
+
+import net.querz.mca.SyntheticWorld;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that {@link PruneSummary} loses no outcome recorded from many threads at once, that a
+ * snapshot taken mid-run only ever sees whole files, that eras are listed as first seen, and that
+ * the stage timings of each file are added to its era and reported with their throughput.
+ */
+public class PruneSummaryTest {
+
+  @Test
+  public void concurrentRecordsAreAllCounted() throws InterruptedException {
+    PruneSummary summary = new PruneSummary();
+    int threads = 8;
+    int perThread = 20_000;
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      String era = t % 2 == 0 ? "1.18+ (modern)" : "1.13-1.17 (flattened)";
+      Thread worker = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < perThread; i++) {
+          summary.record(era, PruneSummary.Outcome.PRUNED, 3, 4096);
+        }
+      });
+      worker.start();
+      workers.add(worker);
+    }
+    start.countDown();
+
+    // Mid-run snapshots see every counted file whole: 3 chunks and 4 KiB for each.
+    boolean running = true;
+    while (running) {
+      PruneSummary.EraCounts total = summary.snapshot().total();
+      assertEquals(total.files * 3, total.chunksRemoved);
+      assertEquals(total.files * 4096, total.bytesReclaimed);
+      running = false;
+      for (Thread worker : workers) {
+        running |= worker.isAlive();
+      }
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    PruneSummary.Snapshot snapshot = summary.snapshot();
+    assertEquals((long) threads * perThread, snapshot.total().pruned);
+    assertEquals((long) threads * perThread, snapshot.changedFiles());
+    assertEquals(2, snapshot.eras().size());
+    for (PruneSummary.EraCounts era : snapshot.eras()) {
+      assertEquals((long) threads / 2 * perThread, era.files);
+    }
+  }
+
+  @Test
+  public void erasAreListedInTheOrderFirstSeen() {
+    PruneSummary summary = new PruneSummary();
+    summary.record("b", PruneSummary.Outcome.SKIPPED, 0, 0);
+    summary.record("a", PruneSummary.Outcome.DELETED, 5, 1024);
+    summary.record("b", PruneSummary.Outcome.COMPACTED, 0, 2048);
+
+    PruneSummary.Snapshot snapshot = summary.snapshot();
+    assertEquals("b", snapshot.eras().get(0).era);
+    assertEquals("a", snapshot.eras().get(1).era);
+    assertEquals(2, summary.changedFiles());
+
+    String[] lines = summary.format(true).split(System.lineSeparator());
+    assertEquals("Summary (dry run, no files modified):", lines[0]);
+    assertTrue(lines[1], lines[1].trim().startsWith("b "));
+    assertTrue(lines[3], lines[3].contains("3 files (1 skipped, 1 compacted, 0 pruned, 1 deleted), 5 chunks removed, 3 kB reclaimed"));
+  }
+
+  @Test
+  public void stageTimesAreAddedPerEraAndReported() {
+    PruneSummary summary = new PruneSummary();
+    StageTimes times = new StageTimes();
+    times.add(PruneSummary.Stage.READ, 500_000_000, 1 << 20, 0);
+    times.add(PruneSummary.Stage.DECIDE, 250_000_000, 0, 100);
+    summary.record("a", PruneSummary.Outcome.PRUNED, 1, 4096, times);
+    summary.record("a", PruneSummary.Outcome.PRUNED, 1, 4096, times);
+    summary.record("b", PruneSummary.Outcome.SKIPPED, 0, 0);
+
+    PruneSummary.Snapshot snapshot = summary.snapshot();
+    PruneSummary.EraCounts a = snapshot.eras().get(0);
+    assertEquals(1_000_000_000, a.stageNanos(PruneSummary.Stage.READ));
+    assertEquals(2 << 20, a.stageBytes(PruneSummary.Stage.READ));
+    assertEquals(200, a.stageChunks(PruneSummary.Stage.DECIDE));
+    assertEquals(0, snapshot.eras().get(1).stageNanos(PruneSummary.Stage.READ));
+
+    String[] lines = summary.format(false).split(System.lineSeparator());
+    assertEquals("Stages (time summed over threads):", lines[4]);
+    assertEquals(5 + PruneSummary.Stage.values().length, lines.length);
+    assertTrue(lines[5], lines[5].trim().startsWith("read"));
+    assertTrue(lines[5], lines[5].contains("2 MB/s"));
+    assertTrue(lines[8], lines[8].contains("200 chunks, 400 chunks/s"));
+  }
+
+  @Test
+  public void pruningARegionTimesEachStage() throws IOException {
+    Path tmp = Files.createTempDirectory("autopruner-stages");
+    File region = new File(tmp.toFile(), "r.0.0.mca");
+    SyntheticWorld.Stats stats = new SyntheticWorld.Stats();
+    Files.write(region.toPath(), new SyntheticWorld(1).era(SyntheticWorld.Era.FLATTENED).chunksPerRegion(64).region(0, 0, stats));
+
+    PruneSummary summary = new PruneSummary();
+    new RegionPrune(region.getPath(), message -> { }, message -> { }, false, summary, null, null, null).run();
+
+    assertTrue(stats.toString(), stats.prunableChunks > 0 && stats.prunableChunks < stats.chunks);
+    PruneSummary.EraCounts total = summary.snapshot().total();
+    assertEquals(1, total.pruned);
+    assertEquals(stats.bytes, total.stageBytes(PruneSummary.Stage.READ));
+    assertEquals(stats.chunks, total.stageChunks(PruneSummary.Stage.INFLATE));
+    assertEquals(stats.chunks, total.stageChunks(PruneSummary.Stage.DECIDE));
+    assertTrue(total.stageBytes(PruneSummary.Stage.INFLATE) > stats.bytes / 2);
+    assertTrue(total.stageNanos(PruneSummary.Stage.PARSE) > 0);
+    // Kept chunks are copied as they were, never re-encoded.
+    assertEquals(0, total.stageChunks(PruneSummary.Stage.DEFLATE));
+    assertEquals(stats.chunks - stats.prunableChunks, total.stageChunks(PruneSummary.Stage.WRITE));
+    assertEquals(region.length(), total.stageBytes(PruneSummary.Stage.WRITE));
+
+    Files.delete(region.toPath());
+    Files.delete(tmp);
+  }
+}
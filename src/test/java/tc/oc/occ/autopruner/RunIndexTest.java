@@ -0,0 +1,194 @@
+package tc.oc.occ.autopruner;
+
+import net.querz.mca.CompressionType;
+import net.querz.mca.RegionHeader;
+import net.querz.mca.SyntheticWorld;
+import net.querz.mca.TestFiles;
+import net.querz.nbt.io.NBTSerializer;
+import net.querz.nbt.io.NamedTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.StringTag;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that a {@link RunIndex} lets a re-run skip region files left fully pruned without
+ * opening them, and that any change to the file (or, with verification, its header) or to its
+ * entity sibling brings it back for examination.
+ */
+public class RunIndexTest {
+
+  @Test
+  public void unchangedFileIsSkippedWithoutBeingRead() throws IOException {
+    Path world = Files.createTempDirectory("autopruner-index");
+    File region = prunedRegion(world);
+    Path indexFile = world.resolve("index.tsv");
+
+    RunIndex index = RunIndex.load(indexFile, false);
+    List<String> first = prune(region, index);
+    assertTrue(first.toString(), first.stream().noneMatch(message -> message.startsWith("Skipping unchanged")));
+    assertEquals(1, index.size());
+    index.save();
+
+    // Scramble the chunk data but keep size and timestamp: a skipped file is never read.
+    scrambleChunks(region, false);
+    RunIndex reloaded = RunIndex.load(indexFile, false);
+    List<String> warnings = new ArrayList<>();
+    List<String> second = new ArrayList<>();
+    AutoPruner.pruneMCAFile(region.getAbsolutePath(), second::add, warnings::add, false, null, null, reloaded);
+    assertTrue(second.toString(), second.stream().anyMatch(message -> message.startsWith("Skipping unchanged")));
+    assertTrue(warnings.toString(), warnings.isEmpty());
+
+    // A new modification time brings it back, and the damage is noticed.
+    Files.setLastModifiedTime(region.toPath(), FileTime.fromMillis(region.lastModified() + 5000));
+    AutoPruner.pruneMCAFile(region.getAbsolutePath(), message -> { }, warnings::add, false, null, null, reloaded);
+    assertEquals(1, warnings.size());
+
+    TestFiles.deleteTree(world);
+  }
+
+  @Test
+  public void verificationCatchesAHeaderChangeThatKeptSizeAndTime() throws IOException {
+    Path world = Files.createTempDirectory("autopruner-index-verify");
+    File region = prunedRegion(world);
+    RunIndex index = RunIndex.load(world.resolve("index.tsv"), true);
+    prune(region, index);
+
+    scrambleChunks(region, true);
+    List<String> warnings = new ArrayList<>();
+    AutoPruner.pruneMCAFile(region.getAbsolutePath(), message -> { }, warnings::add, false, null, null, index);
+    assertEquals("a changed header must be re-examined", 1, warnings.size());
+
+    TestFiles.deleteTree(world);
+  }
+
+  @Test
+  public void changedEntitySiblingInvalidatesTheEntry() throws IOException {
+    Path world = Files.createTempDirectory("autopruner-index-sibling");
+    Path regionDir = Files.createDirectories(world.resolve("region"));
+    File region = prunedRegion(regionDir);
+    Path entities = Files.createDirectories(world.resolve("entities"));
+    RunIndex index = RunIndex.load(world.resolve("index.tsv"), false);
+    prune(region, index);
+    assertTrue(prune(region, index).stream().anyMatch(message -> message.startsWith("Skipping unchanged")));
+
+    // An entity region appearing next to it changes what the region's chunks may hold.
+    Files.write(entities.resolve(region.getName()), new byte[0]);
+    assertTrue(prune(region, index).stream().noneMatch(message -> message.startsWith("Skipping unchanged")));
+
+    TestFiles.deleteTree(world);
+  }
+
+  @Test
+  public void groupIsSkippedWholeAfterItsEntityFileWasPruned() throws IOException {
+    Path root = Files.createTempDirectory("autopruner-index-group");
+    SyntheticWorld.Stats stats = new SyntheticWorld(3).chunksPerRegion(64).writeWorld(root.resolve("world"), 2);
+    Path indexFile = root.resolve("index.tsv");
+
+    RunIndex index = RunIndex.load(indexFile, false);
+    AutoPruner.recursivelyProcessFiles(root.resolve("world").toFile(), 0, message -> { }, message -> { }, false, null, null, index, null);
+    index.save();
+
+    // Each entity file is rewritten after its region was; the region's entry must still hold.
+    List<String> info = new ArrayList<>();
+    AutoPruner.recursivelyProcessFiles(root.resolve("world").toFile(), 0, info::add, message -> { }, false, null, null,
+        RunIndex.load(indexFile, false), null);
+    assertEquals(info.toString(), stats.regionFiles + stats.entityFiles,
+        info.stream().filter(message -> message.startsWith("Skipping unchanged")).count());
+
+    TestFiles.deleteTree(root);
+  }
+
+  @Test
+  public void dryRunRecordsNothing() throws IOException {
+    Path world = Files.createTempDirectory("autopruner-index-dry-run");
+    File region = prunedRegion(world);
+    RunIndex index = RunIndex.load(world.resolve("index.tsv"), false);
+    AutoPruner.pruneMCAFile(region.getAbsolutePath(), message -> { }, message -> { }, true, null, null, index);
+    assertEquals(0, index.size());
+
+    TestFiles.deleteTree(world);
+  }
+
+  @Test
+  public void indexFromAnotherFormatVersionIsIgnored() throws IOException {
+    Path dir = Files.createTempDirectory("autopruner-index-format");
+    Path indexFile = dir.resolve("index.tsv");
+    Files.write(indexFile, "AutoPruner-index 0\n/some/r.0.0.mca\t1\t2\t3\t-1\t-1\tera\n".getBytes("UTF-8"));
+    assertEquals(0, RunIndex.load(indexFile, false).size());
+    TestFiles.deleteTree(dir);
+  }
+
+  private static List<String> prune(File region, RunIndex index) {
+    List<String> info = new ArrayList<>();
+    AutoPruner.pruneMCAFile(region.getAbsolutePath(), info::add, message -> { }, false, null, null, index);
+    return info;
+  }
+
+  /** A tightly packed region holding one 1.21 stone chunk: pruning it leaves it unchanged. */
+  private static File prunedRegion(Path dir) throws IOException {
+    CompoundTag data = new CompoundTag();
+    data.putInt("DataVersion", 4556);
+    CompoundTag section = new CompoundTag();
+    ListTag<CompoundTag> palette = new ListTag<>(CompoundTag.class);
+    CompoundTag stone = new CompoundTag();
+    stone.put("Name", new StringTag("minecraft:stone"));
+    palette.add(stone);
+    CompoundTag blockStates = new CompoundTag();
+    blockStates.put("palette", palette);
+    section.put("block_states", blockStates);
+    ListTag<CompoundTag> sections = new ListTag<>(CompoundTag.class);
+    sections.add(section);
+    data.put("sections", sections);
+
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream out = CompressionType.ZLIB.compress(compressed)) {
+      new NBTSerializer(false).toStream(new NamedTag("", data), out);
+    }
+    byte[] payload = compressed.toByteArray();
+    ByteBuffer raw = ByteBuffer.allocate(3 * RegionHeader.SECTOR_SIZE);
+    raw.putInt(0, 2 << 8 | 1);
+    raw.putInt(2 * RegionHeader.SECTOR_SIZE, payload.length + 1);
+    raw.put(2 * RegionHeader.SECTOR_SIZE + 4, CompressionType.ZLIB.getID());
+    System.arraycopy(payload, 0, raw.array(), 2 * RegionHeader.SECTOR_SIZE + 5, payload.length);
+
+    File region = dir.resolve("r.0.0.mca").toFile();
+    Files.write(region.toPath(), raw.array());
+    return region;
+  }
+
+  /** Overwrites every chunk's compression byte, optionally the header too, restoring the timestamp. */
+  private static void scrambleChunks(File region, boolean header) throws IOException {
+    long modified = region.lastModified();
+    try (RandomAccessFile raf = new RandomAccessFile(region, "rw")) {
+      for (int i = 0; i < 1024; i++) {
+        raf.seek(i * 4L);
+        int location = raf.readInt();
+        if ((location & 0xFF) != 0) {
+          raf.seek((location >>> 8) * (long) RegionHeader.SECTOR_SIZE + 4);
+          raf.write(99);
+        }
+      }
+      if (header) {
+        raf.seek(RegionHeader.SECTOR_SIZE);
+        raf.writeInt(raf.readInt() + 1);
+      }
+    }
+    Files.setLastModifiedTime(region.toPath(), FileTime.fromMillis(modified));
+  }
+}
@@ -0,0 +1,483 @@
+package tc.oc.occ.autopruner;
+
+import net.querz.mca.MCAUtil;
+import net.querz.mca.RegionHeader;
+import net.querz.mca.SyntheticWorld;
+import net.querz.mca.TestFiles;
+import net.querz.nbt.io.NBTSerializer;
+import net.querz.nbt.io.NamedTag;
+import net.querz.nbt.tag.CompoundTag;
+import net.querz.nbt.tag.ListTag;
+import net.querz.nbt.tag.StringTag;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the streaming directory walk of {@link ThreadPoolAutoPruner} reaches every region
+ * file of a nested tree, even when the tree holds many more files than may be in flight at once,
+ * whether files run whole or as a read/decode/write pipeline, that a {@link MemoryBudget} holds files back without ever starving the walk, that planned
+ * runs follow the {@link WorkPlanner} order and respect a time budget, and that a world's
+ * {@link RegionGroup} siblings are pruned together.
+ */
+public class ThreadPoolAutoPrunerTest {
+
+  @Test
+  public void everyRegionFileInANestedTreeIsPruned() throws Exception {
+    Path world = Files.createTempDirectory("autopruner-walk");
+    List<File> regions = new ArrayList<>();
+    for (int d = 0; d < 5; d++) {
+      Path dir = Files.createDirectories(world.resolve("world" + d).resolve("region"));
+      for (int i = 0; i < 10; i++) {
+        File region = dir.resolve("r." + i + "." + d + ".mca").toFile();
+        Files.write(region.toPath(), new byte[RegionHeader.SIZE]); // no used slots: deleted
+        regions.add(region);
+      }
+    }
+    Path notes = Files.write(world.resolve("world0").resolve("level.dat"), new byte[RegionHeader.SIZE]);
+
+    ThreadPoolAutoPruner pruner = new ThreadPoolAutoPruner(2);
+    List<String> warnings = new ArrayList<>();
+    long deleted;
+    try {
+      deleted = pruner.recursivelyProcessFiles(world.toFile(), 0, message -> { }, warnings::add);
+    } finally {
+      pruner.close();
+    }
+
+    assertTrue(warnings.toString(), warnings.isEmpty());
+    assertEquals((long) regions.size() * RegionHeader.SIZE, deleted);
+    for (File region : regions) {
+      assertFalse(region + " should have been deleted", region.exists());
+    }
+    assertTrue("only region files are pruned", Files.exists(notes));
+
+    TestFiles.deleteTree(world);
+  }
+
+  @Test
+  public void stagedPipelinePrunesLikeTheSinglePool() throws Exception {
+    Path world = Files.createTempDirectory("autopruner-walk-staged");
+    List<File> regions = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      Path dir = Files.createDirectories(world.resolve("world" + i % 3).resolve("region"));
+      File region = dir.resolve("r." + i + ".0.mca").toFile();
+      Files.write(region.toPath(), new byte[RegionHeader.SIZE + (i % 4) * RegionHeader.SECTOR_SIZE]);
+      regions.add(region);
+    }
+    // One slot pointing past the end of the file: reading it fails in the decode stage.
+    byte[] broken = new byte[RegionHeader.SIZE];
+    broken[2] = 9;
+    broken[3] = 1;
+    File brokenRegion = world.resolve("r.99.99.mca").toFile();
+    Files.write(brokenRegion.toPath(), broken);
+
+    ThreadPoolAutoPruner pruner = new ThreadPoolAutoPruner(2, 3, 1, 0, new MemoryBudget(1 << 20), false);
+    List<String> warnings = new ArrayList<>();
+    long deleted;
+    try {
+      deleted = pruner.recursivelyProcessFiles(world.toFile(), 0, message -> { }, warnings::add);
+    } finally {
+      pruner.close();
+    }
+
+    long expected = 0;
+    for (File region : regions) {
+      assertFalse(region + " should have been deleted", region.exists());
+    }
+    for (int i = 0; i < 30; i++) {
+      expected += RegionHeader.SIZE + (i % 4) * RegionHeader.SECTOR_SIZE;
+    }
+    assertEquals(expected, deleted);
+    assertEquals(warnings.toString(), 1, warnings.size());
+    assertTrue(warnings.get(0), warnings.get(0).startsWith("Failed to parse file: " + brokenRegion.getAbsolutePath()));
+    assertTrue(brokenRegion.exists());
+
+    TestFiles.deleteTree(world);
+  }
+
+  @Test
+  public void threadPerFileModeDecodesUnderItsCpuPermits() throws Exception {
+    Path world = Files.createTempDirectory("autopruner-walk-per-file");
+    SyntheticWorld.Stats stats = new SyntheticWorld(5).chunksPerRegion(32).writeWorld(world, 40);
+    // Failing in the decode stage, it reports the failure from under the permit it decodes with.
+    byte[] broken = new byte[RegionHeader.SIZE];
+    broken[2] = 9;
+    broken[3] = 1;
+    Files.write(world.resolve("r.99.99.mca"), broken);
+
+    // Platform threads stand in for virtual ones, which need Java 21. Each permit is held a little
+    // longer than decoding takes, so the 40 files' threads queue up on the permits.
+    CountingPermits permits = new CountingPermits(2);
+    ThreadPoolAutoPruner pruner = new ThreadPoolAutoPruner(Executors.newCachedThreadPool(), permits, 0, null, false);
+    List<String> warnings = Collections.synchronizedList(new ArrayList<>());
+    long deleted;
+    try {
+      deleted = pruner.recursivelyProcessFiles(world.toFile(), 0, message -> { },
+          message -> warnings.add((permits.holding.get() ? "under a permit: " : "without a permit: ") + message));
+    } finally {
+      pruner.close();
+    }
+    assertEquals(warnings.toString(), 1, warnings.size());
+    assertTrue(warnings.get(0), warnings.get(0).startsWith("under a permit: Failed to parse file"));
+    assertTrue(deleted > 0);
+    assertTrue("every group decides under a permit", permits.acquired.get() >= stats.regionFiles);
+    assertTrue("decoding never ran on more threads than there are permits", permits.mostHeld.get() <= 2);
+    assertEquals("the files' threads did contend for the permits", 2, permits.mostHeld.get());
+
+    TestFiles.deleteTree(world);
+  }
+
+  /** Permits that remember how many were held at once. */
+  @SuppressWarnings("serial")
+  private static final class CountingPermits extends Semaphore {
+    final AtomicInteger held = new AtomicInteger();
+    final AtomicInteger mostHeld = new AtomicInteger();
+    final AtomicInteger acquired = new AtomicInteger();
+    final ThreadLocal<Boolean> holding = ThreadLocal.withInitial(() -> false);
+
+    CountingPermits(int permits) {
+      super(permits);
+    }
+
+    @Override
+    public void acquireUninterruptibly() {
+      super.acquireUninterruptibly();
+      acquired.incrementAndGet();
+      mostHeld.accumulateAndGet(held.incrementAndGet(), Math::max);
+      holding.set(true);
+      try {
+        Thread.sleep(2);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public void release() {
+      holding.set(false);
+      held.decrementAndGet();
+      super.release();
+    }
+  }
+
+  @Test
+  public void walkStopsAtTheRecursionLimit() throws Exception {
+    Path world = Files.createTempDirectory("autopruner-walk-depth");
+    File shallow = world.resolve("r.0.0.mca").toFile();
+    Files.write(shallow.toPath(), new byte[RegionHeader.SIZE]);
+    File deep = Files.createDirectories(world.resolve("a").resolve("b")).resolve("r.0.0.mca").toFile();
+    Files.write(deep.toPath(), new byte[RegionHeader.SIZE]);
+
+    // Starting one level short of the limit reaches files in the root and its children only.
+    ThreadPoolAutoPruner pruner = new ThreadPoolAutoPruner(2);
+    try {
+      pruner.recursivelyProcessFiles(world.toFile(), AutoPruner.MAX_RECURSION_DEPTH - 1, message -> { }, message -> { });
+    } finally {
+      pruner.close();
+    }
+    assertFalse(shallow.exists());
+    assertTrue("a file below the recursion limit is left alone", deep.exists());
+
+    TestFiles.deleteTree(world);
+  }
+
+  @Test
+  public void aBudgetSmallerThanAnyFileStillPrunesEveryFile() throws Exception {
+    Path world = Files.createTempDirectory("autopruner-walk-budget");
+    List<File> regions = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      File region = world.resolve("r." + i + ".0.mca").toFile();
+      Files.write(region.toPath(), new byte[RegionHeader.SIZE]);
+      regions.add(region);
+    }
+
+    // Each file alone exceeds the budget, so they are admitted one at a time.
+    ThreadPoolAutoPruner pruner = new ThreadPoolAutoPruner(4, 0, new MemoryBudget(1));
+    long deleted;
+    try {
+      deleted = pruner.recursivelyProcessFiles(world.toFile(), 0, message -> { }, message -> { });
+    } finally {
+      pruner.close();
+    }
+    assertEquals((long) regions.size() * RegionHeader.SIZE, deleted);
+    for (File region : regions) {
+      assertFalse(region.exists());
+    }
+    Files.delete(world);
+  }
+
+  @Test
+  public void memoryBudgetHoldsBackWhatDoesNotFit() {
+    MemoryBudget budget = new MemoryBudget(MemoryBudget.parseSize("1m"));
+    assertEquals(1 << 20, budget.budget());
+    assertEquals(3L << 30, MemoryBudget.parseSize("3G"));
+    assertEquals(1536, MemoryBudget.parseSize("1.5k"));
+
+    // Until a file is measured, the estimate is pessimistic; then it follows what was seen.
+    assertEquals((long) (1000 * MemoryBudget.INITIAL_RATIO), budget.estimate(1000));
+    budget.observe(1000, 2000);
+    assertEquals(2000, budget.estimate(1000));
+    budget.observe(3000, 0);
+    assertEquals(500, budget.estimate(1000));
+
+    assertTrue(budget.tryReserve(600_000));
+    assertFalse("the second file would overrun the budget", budget.tryReserve(600_000));
+    assertTrue(budget.tryReserve(400_000));
+    budget.release(600_000);
+    budget.release(400_000);
+    assertTrue("with nothing running, even an oversized file is admitted", budget.tryReserve(5L << 20));
+  }
+
+  @Test
+  public void largestFirstPrunesTheBiggestFilesFirst() throws Exception {
+    Path world = Files.createTempDirectory("autopruner-walk-plan");
+    int[] extraSectors = {1, 5, 0, 3};
+    for (int i = 0; i < extraSectors.length; i++) {
+      Files.write(world.resolve("r." + i + ".0.mca"), new byte[RegionHeader.SIZE + extraSectors[i] * RegionHeader.SECTOR_SIZE]);
+    }
+
+    ThreadPoolAutoPruner pruner = new ThreadPoolAutoPruner(1, 0, null, true);
+    List<String> info = new ArrayList<>();
+    try {
+      pruner.recursivelyProcessFiles(world.toFile(), 0, info::add, message -> { });
+    } finally {
+      pruner.close();
+    }
+    List<String> order = new ArrayList<>();
+    for (String message : info) {
+      order.add(message.substring(message.lastIndexOf(File.separatorChar) + 1));
+    }
+    assertEquals(Arrays.asList("r.1.0.mca", "r.3.0.mca", "r.0.0.mca", "r.2.0.mca"), order);
+    Files.delete(world);
+  }
+
+  @Test
+  public void exhaustedTimeBudgetStartsNoFile() throws Exception {
+    Path world = Files.createTempDirectory("autopruner-walk-deadline");
+    File region = world.resolve("r.0.0.mca").toFile();
+    Files.write(region.toPath(), new byte[RegionHeader.SIZE]);
+
+    ThreadPoolAutoPruner pruner = new ThreadPoolAutoPruner(2);
+    List<String> info = new ArrayList<>();
+    try {
+      assertEquals(0, pruner.recursivelyProcessFiles(world.toFile(), 0, info::add, message -> { }, false, Duration.ZERO));
+    } finally {
+      pruner.close();
+    }
+    assertTrue(region.exists());
+    assertEquals(1, info.size());
+    assertTrue(info.get(0), info.get(0).startsWith("Time budget reached, leaving 1 file(s)"));
+
+    Files.delete(region.toPath());
+    Files.delete(world);
+  }
+
+  @Test
+  public void reclaimablePlanPutsVisibleWasteFirst() throws Exception {
+    Path world = Files.createTempDirectory("autopruner-plan-reclaim");
+    // A large packed file (one chunk in sector 2), a small file with two unclaimed trailing
+    // sectors, and an empty file reclaimed whole.
+    byte[] packed = new byte[RegionHeader.SIZE + 40 * RegionHeader.SECTOR_SIZE];
+    packed[2] = 2;
+    packed[3] = 40;
+    byte[] padded = new byte[RegionHeader.SIZE + 3 * RegionHeader.SECTOR_SIZE];
+    padded[2] = 2;
+    padded[3] = 1;
+    List<WorkPlanner.PlannedFile> plan = new ArrayList<>();
+    plan.add(planned(world.resolve("packed.mca"), packed));
+    plan.add(planned(world.resolve("padded.mca"), padded));
+    plan.add(planned(world.resolve("empty.mca"), new byte[RegionHeader.SIZE]));
+
+    WorkPlanner.sort(plan, WorkPlanner.Order.MOST_RECLAIMABLE_FIRST);
+    assertEquals(RegionHeader.SIZE, plan.get(0).expectedReclaim);
+    assertEquals(2L * RegionHeader.SECTOR_SIZE, plan.get(1).expectedReclaim);
+    assertEquals(0, plan.get(2).expectedReclaim);
+    assertEquals(1, plan.get(2).occupiedSlots);
+
+    WorkPlanner.sort(plan, WorkPlanner.Order.LARGEST_FIRST);
+    assertEquals(world.resolve("packed.mca"), plan.get(0).path);
+
+    TestFiles.deleteTree(world);
+  }
+
+  @Test
+  public void siblingRegionsArePrunedAsOneGroup() throws Exception {
+    for (int threads = 1; threads <= 2; threads++) {
+      Path world = Files.createTempDirectory("autopruner-walk-group");
+      // Chunk 0 holds no blocks but an armor stand in the entity region, so both keep it; chunk 1
+      // holds neither, so both drop it. The POI region is never pruned, only left as it is.
+      File region = writeRegion(Files.createDirectories(world.resolve("region")).resolve("r.0.0.mca"),
+          airChunk(), airChunk());
+      File entities = writeRegion(Files.createDirectories(world.resolve("entities")).resolve("r.0.0.mca"),
+          entityChunk("minecraft:armor_stand"), entityChunk());
+      File poi = writeRegion(Files.createDirectories(world.resolve("poi")).resolve("r.0.0.mca"),
+          poiChunk());
+
+      ThreadPoolAutoPruner pruner = threads == 1 ? new ThreadPoolAutoPruner(1) : new ThreadPoolAutoPruner(1, 2, 1, 0, null, false);
+      List<String> infos = new ArrayList<>();
+      List<String> warnings = new ArrayList<>();
+      try {
+        pruner.recursivelyProcessFiles(world.toFile(), 0, message -> {
+          synchronized (infos) {
+            infos.add(message);
+          }
+        }, warnings::add);
+      } finally {
+        pruner.close();
+      }
+
+      assertTrue(warnings.toString(), warnings.isEmpty());
+      assertEquals("each file is pruned once: " + infos, 3, infos.size());
+      assertEquals(1, MCAUtil.readHeader(region).getOccupiedSlots());
+      assertEquals(1, MCAUtil.readHeader(entities).getOccupiedSlots());
+      assertEquals(1, MCAUtil.readHeader(poi).getOccupiedSlots());
+      assertTrue(infos.toString(), infos.get(infos.size() - 1).startsWith("Skipping already Pruned File: " + poi.getAbsolutePath()));
+
+      TestFiles.deleteTree(world);
+    }
+  }
+
+  @Test
+  public void siblingOutsideTheWalkedTreeDoesNotHoldBackAFile() throws Exception {
+    Path world = Files.createTempDirectory("autopruner-walk-group-root");
+    writeRegion(Files.createDirectories(world.resolve("region")).resolve("r.0.0.mca"), airChunk());
+    Path entityDir = Files.createDirectories(world.resolve("entities"));
+    File entities = writeRegion(entityDir.resolve("r.0.0.mca"), entityChunk(), entityChunk("minecraft:cow"));
+
+    ThreadPoolAutoPruner pruner = new ThreadPoolAutoPruner(1);
+    List<String> infos = new ArrayList<>();
+    try {
+      pruner.recursivelyProcessFiles(entityDir.toFile(), 0, infos::add, infos::add);
+    } finally {
+      pruner.close();
+    }
+
+    assertEquals(infos.toString(), 1, infos.size());
+    assertEquals(1, MCAUtil.readHeader(entities).getOccupiedSlots());
+
+    TestFiles.deleteTree(world);
+  }
+
+  @Test
+  public void regionDirectoryPrunedOnItsOwnKeepsChunksWithEntities() throws Exception {
+    for (int mode = 0; mode < 3; mode++) {
+      Path world = Files.createTempDirectory("autopruner-walk-region-only");
+      // The entities/ sibling lies outside the walk: it is consulted, never pruned.
+      Path regionDir = Files.createDirectories(world.resolve("region"));
+      File region = writeRegion(regionDir.resolve("r.0.0.mca"), airChunk(), airChunk());
+      File entities = writeRegion(Files.createDirectories(world.resolve("entities")).resolve("r.0.0.mca"),
+          entityChunk("minecraft:armor_stand"), entityChunk());
+
+      List<String> warnings = new ArrayList<>();
+      if (mode == 0) {
+        AutoPruner.recursivelyProcessFiles(regionDir.toFile(), 0, message -> { }, warnings::add);
+      } else {
+        ThreadPoolAutoPruner pruner = mode == 1 ? new ThreadPoolAutoPruner(2) : new ThreadPoolAutoPruner(1, 2, 1, 0, null, false);
+        try {
+          pruner.recursivelyProcessFiles(regionDir.toFile(), 0, message -> { }, warnings::add);
+        } finally {
+          pruner.close();
+        }
+      }
+
+      assertTrue(warnings.toString(), warnings.isEmpty());
+      assertEquals("mode " + mode, 1, MCAUtil.readHeader(region).getOccupiedSlots());
+      assertEquals("mode " + mode, 2, MCAUtil.readHeader(entities).getOccupiedSlots());
+
+      TestFiles.deleteTree(world);
+    }
+  }
+
+  /** Writes a region holding {@code chunks} in slots 0, 1, ..., one sector each, zlib-compressed. */
+  private static File writeRegion(Path path, CompoundTag... chunks) throws IOException {
+    ByteBuffer region = ByteBuffer.allocate(RegionHeader.SIZE + chunks.length * RegionHeader.SECTOR_SIZE);
+    for (int i = 0; i < chunks.length; i++) {
+      ByteArrayOutputStream nbt = new ByteArrayOutputStream();
+      try (OutputStream out = new DeflaterOutputStream(nbt)) {
+        new NBTSerializer(false).toStream(new NamedTag("", chunks[i]), out);
+      }
+      byte[] payload = nbt.toByteArray();
+      int sector = 2 + i;
+      region.putInt(i * 4, sector << 8 | 1);
+      region.putInt(sector * RegionHeader.SECTOR_SIZE, payload.length + 1);
+      region.put(sector * RegionHeader.SECTOR_SIZE + 4, (byte) 2);
+      for (int b = 0; b < payload.length; b++) {
+        region.put(sector * RegionHeader.SECTOR_SIZE + 5 + b, payload[b]);
+      }
+    }
+    Files.write(path, region.array());
+    return path.toFile();
+  }
+
+  /** A 1.21 block chunk with a single all-air section. */
+  private static CompoundTag airChunk() {
+    CompoundTag state = new CompoundTag();
+    state.put("Name", new StringTag("minecraft:air"));
+    ListTag<CompoundTag> blockPalette = new ListTag<>(CompoundTag.class);
+    blockPalette.add(state);
+    CompoundTag blockStates = new CompoundTag();
+    blockStates.put("palette", blockPalette);
+    ListTag<StringTag> biomePalette = new ListTag<>(StringTag.class);
+    biomePalette.add(new StringTag("minecraft:plains"));
+    CompoundTag biomes = new CompoundTag();
+    biomes.put("palette", biomePalette);
+    CompoundTag section = new CompoundTag();
+    section.putByte("Y", (byte) 0);
+    section.put("block_states", blockStates);
+    section.put("biomes", biomes);
+    ListTag<CompoundTag> sections = new ListTag<>(CompoundTag.class);
+    sections.add(section);
+    CompoundTag data = new CompoundTag();
+    data.putInt("DataVersion", 4556);
+    data.put("sections", sections);
+    return data;
+  }
+
+  /** A 1.21 entity chunk holding an entity of each of {@code ids}. */
+  private static CompoundTag entityChunk(String... ids) {
+    ListTag<CompoundTag> entities = new ListTag<>(CompoundTag.class);
+    for (String id : ids) {
+      CompoundTag entity = new CompoundTag();
+      entity.put("id", new StringTag(id));
+      entities.add(entity);
+    }
+    CompoundTag data = new CompoundTag();
+    data.putInt("DataVersion", 4556);
+    data.putIntArray("Position", new int[]{0, 0});
+    data.put("Entities", entities);
+    return data;
+  }
+
+  private static CompoundTag poiChunk() {
+    CompoundTag data = new CompoundTag();
+    data.putInt("DataVersion", 4556);
+    data.put("Sections", new CompoundTag());
+    return data;
+  }
+
+
+  private static WorkPlanner.PlannedFile planned(Path path, byte[] content) throws IOException {
+    Files.write(path, content);
+    return WorkPlanner.inspect(path, content.length);
+  }
+}
@@ -0,0 +1,70 @@
+package net.querz.mca;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the Java 11 build of {@link FlightEvents} records its events. The tests run against
+ * the class directories rather than the multi-release JAR, so the classes are loaded again, in a
+ * loader that puts the {@code META-INF/versions/11} layer first, as a Java 11+ JVM does for the JAR.
+ */
+public class FlightEventsTest {
+
+  @Test
+  public void pruneRecordsItsEvents() throws Exception {
+    Path world = Files.createTempDirectory("autopruner-jfr");
+    new SyntheticWorld(0).era(SyntheticWorld.Era.MODERN).chunksPerRegion(64).writeWorld(world, 1);
+    File region;
+    try (Stream<Path> paths = Files.walk(world.resolve("region"))) {
+      region = paths.filter(path -> path.toString().endsWith(".mca")).findFirst().get().toFile();
+    }
+
+    Path classes = Paths.get(FlightEvents.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    Path recorded = world.resolve("prune.jfr");
+    try (URLClassLoader layered = new URLClassLoader(new URL[] {
+        classes.resolve("META-INF/versions/11").toUri().toURL(), classes.toUri().toURL()},
+        ClassLoader.getPlatformClassLoader());
+         Recording recording = new Recording()) {
+      recording.enable("autopruner.RegionRead");
+      recording.enable("autopruner.ChunkDecode");
+      recording.enable("autopruner.Decision");
+      recording.enable("autopruner.RegionWrite");
+      recording.start();
+      Method prune = layered.loadClass("tc.oc.occ.autopruner.AutoPruner")
+          .getDeclaredMethod("pruneMCAFile", String.class, Consumer.class, Consumer.class, boolean.class);
+      prune.setAccessible(true);
+      Consumer<String> ignore = message -> { };
+      prune.invoke(null, region.getPath(), ignore, ignore, false);
+      recording.stop();
+      recording.dump(recorded);
+    }
+
+    Set<String> names = new HashSet<>();
+    for (RecordedEvent event : RecordingFile.readAllEvents(recorded)) {
+      names.add(event.getEventType().getName());
+      assertTrue(event.getString("path").endsWith(".mca"));
+    }
+    assertTrue(names.toString(), names.contains("autopruner.RegionRead"));
+    assertTrue(names.toString(), names.contains("autopruner.ChunkDecode"));
+    assertTrue(names.toString(), names.contains("autopruner.Decision"));
+    assertTrue(names.toString(), names.contains("autopruner.RegionWrite"));
+
+    TestFiles.deleteTree(world);
+  }
+}